@@ -0,0 +1,334 @@
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A self-balancing binary search tree.
+ *
+ * Every node stores the heights of both of its subtrees, so retracing after an insert or delete never has to read a
+ * sibling just to find its height. Rotations swap the key and value of the two rotated nodes instead of moving them,
+ * which keeps the top of the rotated subtree under the same id. A single rotation rewrites two nodes and a double
+ * rotation three, and the root always stays at {@link TreeNode#ROOT_ID}. Operations keep the path they walked, so the
+ * nodes don't store parent pointers.
+ */
+public class AVLCloudTree extends AbstractBinaryCloudTree<AVLTreeNode> {
+
+    public AVLCloudTree(String treeName, String credentialsFile) throws InterruptedException {
+        super(treeName, credentialsFile, DEFAULT_CACHE_SIZE);
+    }
+
+    public AVLCloudTree(String treeName, String credentialsFile, int cacheSize) throws InterruptedException {
+        super(treeName, credentialsFile, cacheSize);
+    }
+
+    public AVLCloudTree(NodeStore store, int cacheSize) {
+        super(store, cacheSize);
+    }
+
+    @Override
+    public AVLTreeNode createNode(Map<String, AttributeValue> item) {
+        return AVLTreeNode.builder().fromItem(item).build();
+    }
+
+    @Override
+    AVLTreeNode createBalancedNode(String id, String key, String value, String parent,
+                                   String leftChild, String rightChild, int leftHeight, int rightHeight) {
+        AVLTreeNode.Builder builder = AVLTreeNode.builder()
+                .leftHeight(leftHeight)
+                .rightHeight(rightHeight);
+        builder.leftChild(leftChild)
+                .rightChild(rightChild)
+                .id(id)
+                .key(key)
+                .value(value);
+        return builder.build();
+    }
+
+    @Override
+    public void insert(String key, String value) {
+        measure("insert", () -> retryOnConflict(() -> {
+            tryInsert(key, value);
+            return null;
+        }));
+    }
+
+    private void tryInsert(String key, String value) {
+        Optional<AVLTreeNode> root = getRootNode();
+        if (!root.isPresent()) {
+            putNode(AVLTreeNode.builder()
+                    .isRoot()
+                    .key(key)
+                    .value(value)
+                    .build());
+            return;
+        }
+
+        Mutation mutation = new Mutation();
+        List<AVLTreeNode> path = new ArrayList<>();
+        AVLTreeNode focusNode = mutation.track(root.get());
+
+        while (true) {
+            path.add(focusNode);
+            int compareValue = key.compareTo(focusNode.getKey());
+
+            if (compareValue == 0) {
+                if (!focusNode.getValue().equals(value)) {
+                    focusNode.setValue(value);
+                    putNode(focusNode);
+                }
+                return;
+            }
+
+            String childId = compareValue < 0 ? focusNode.getLeftChild() : focusNode.getRightChild();
+            if (childId == null)
+                break;
+            focusNode = mutation.track(descend(path, key, childId));
+        }
+
+        AVLTreeNode.Builder newNodeBuilder = AVLTreeNode.builder();
+        newNodeBuilder.key(key).value(value);
+        AVLTreeNode newNode = newNodeBuilder.build();
+        mutation.batch = fencedBatch(path, newNode);
+
+        boolean fromLeft = key.compareTo(focusNode.getKey()) < 0;
+        if (fromLeft)
+            focusNode.setLeftChild(newNode.getId());
+        else
+            focusNode.setRightChild(newNode.getId());
+
+        mutation.batch.put(mutation.track(newNode));
+        retrace(mutation, path, fromLeft, newNode.getHeight());
+        mutation.commit();
+    }
+
+    @Override
+    public Optional<String> delete(String key) {
+        return measure("delete", () -> retryOnConflict(() -> tryDelete(key)));
+    }
+
+    private Optional<String> tryDelete(String key) {
+        Optional<AVLTreeNode> root = getRootNode();
+        if (!root.isPresent())
+            return Optional.empty();
+
+        Mutation mutation = new Mutation();
+        List<AVLTreeNode> path = new ArrayList<>();
+        AVLTreeNode focusNode = mutation.track(root.get());
+
+        while (true) {
+            path.add(focusNode);
+            int compareValue = key.compareTo(focusNode.getKey());
+            if (compareValue == 0)
+                break;
+
+            String childId = compareValue < 0 ? focusNode.getLeftChild() : focusNode.getRightChild();
+            if (childId == null)
+                return Optional.empty();
+            focusNode = mutation.track(descend(path, key, childId));
+        }
+
+        String oldValue = focusNode.getValue();
+
+        //Two children: take over the successor's entry and remove the successor instead
+        if (focusNode.getLeftChild() != null && focusNode.getRightChild() != null) {
+            int spineStart = path.size();
+            AVLTreeNode successor = mutation.load(focusNode.getRightChild());
+            path.add(successor);
+            while (successor.getLeftChild() != null) {
+                successor = mutation.track(descendLeft(path, key));
+                path.add(successor);
+            }
+
+            focusNode.setKey(successor.getKey());
+            focusNode.setValue(successor.getValue());
+            mutation.batch.put(focusNode);
+            raiseLowFences(path.subList(spineStart, path.size() - 1), successor.getKey(), mutation.batch);
+        }
+
+        AVLTreeNode removed = path.remove(path.size() - 1);
+        String childId = removed.getLeftChild() != null ? removed.getLeftChild() : removed.getRightChild();
+        int childHeight = removed.getLeftChild() != null ? removed.getLeftHeight() : removed.getRightHeight();
+
+        if (path.isEmpty()) {
+            //Removing the root itself, so the child's contents move up into the root
+            if (childId != null) {
+                AVLTreeNode child = mutation.load(childId);
+                removed.setKey(child.getKey());
+                removed.setValue(child.getValue());
+                removed.setLeftChild(child.getLeftChild());
+                removed.setRightChild(child.getRightChild());
+                removed.setLeftHeight(child.getLeftHeight());
+                removed.setRightHeight(child.getRightHeight());
+                mutation.batch.put(removed);
+                mutation.batch.delete(child);
+            } else {
+                mutation.batch.delete(removed);
+            }
+
+            mutation.commit();
+            return Optional.of(oldValue);
+        }
+
+        AVLTreeNode parentNode = path.get(path.size() - 1);
+        boolean fromLeft = removed.getId().equals(parentNode.getLeftChild());
+        if (fromLeft)
+            parentNode.setLeftChild(childId);
+        else
+            parentNode.setRightChild(childId);
+
+        mutation.batch.delete(removed);
+        retrace(mutation, path, fromLeft, childHeight);
+        mutation.commit();
+        return Optional.of(oldValue);
+    }
+
+    /**
+     * Walks back up the path after the last node's left or right subtree changed to {@code childHeight}, updating
+     * stored heights and rotating where needed. Stops as soon as a subtree's height comes out the same as before.
+     */
+    private void retrace(Mutation mutation, List<AVLTreeNode> path, boolean fromLeft, int childHeight) {
+        for (int i = path.size() - 1; i >= 0; i--) {
+            AVLTreeNode node = path.get(i);
+            int oldHeight = node.getHeight();
+
+            if (fromLeft)
+                node.setLeftHeight(childHeight);
+            else
+                node.setRightHeight(childHeight);
+
+            mutation.batch.put(node);
+            rebalance(mutation, node);
+
+            if (node.getHeight() == oldHeight)
+                return;
+
+            if (i > 0)
+                fromLeft = node.getId().equals(path.get(i - 1).getLeftChild());
+            childHeight = node.getHeight();
+        }
+    }
+
+    private void rebalance(Mutation mutation, AVLTreeNode node) {
+        if (node.getBalance() > 1) {
+            AVLTreeNode leftNode = mutation.load(node.getLeftChild());
+            if (leftNode.getBalance() < 0) {
+                rotateLeft(mutation, leftNode);
+                node.setLeftHeight(leftNode.getHeight());
+            }
+            rotateRight(mutation, node);
+        } else if (node.getBalance() < -1) {
+            AVLTreeNode rightNode = mutation.load(node.getRightChild());
+            if (rightNode.getBalance() > 0) {
+                rotateRight(mutation, rightNode);
+                node.setRightHeight(rightNode.getHeight());
+            }
+            rotateLeft(mutation, node);
+        }
+    }
+
+    /**
+     * Rotates the left child up by swapping entries, so {@code node} keeps its id at the top of the subtree and the
+     * old left child's slot moves down to the right. Only the two rotated nodes are rewritten: the top keeps its
+     * fence, and the node that moved down gets the part of it right of the new top key.
+     */
+    private void rotateRight(Mutation mutation, AVLTreeNode node) {
+        AVLTreeNode leftNode = mutation.load(node.getLeftChild());
+
+        String a = leftNode.getLeftChild();
+        String b = leftNode.getRightChild();
+        String c = node.getRightChild();
+        int heightA = leftNode.getLeftHeight();
+        int heightB = leftNode.getRightHeight();
+        int heightC = node.getRightHeight();
+
+        swapEntries(node, leftNode);
+        if (node.isRoot() || node.isFenced())
+            leftNode.setFence(node.getKey(), node.getHighKey());
+        else
+            leftNode.clearFence();
+
+        leftNode.setLeftChild(b);
+        leftNode.setRightChild(c);
+        leftNode.setLeftHeight(heightB);
+        leftNode.setRightHeight(heightC);
+
+        node.setLeftChild(a);
+        node.setRightChild(leftNode.getId());
+        node.setLeftHeight(heightA);
+        node.setRightHeight(leftNode.getHeight());
+
+        mutation.batch.put(node).put(leftNode);
+    }
+
+    private void rotateLeft(Mutation mutation, AVLTreeNode node) {
+        AVLTreeNode rightNode = mutation.load(node.getRightChild());
+
+        String a = node.getLeftChild();
+        String b = rightNode.getLeftChild();
+        String c = rightNode.getRightChild();
+        int heightA = node.getLeftHeight();
+        int heightB = rightNode.getLeftHeight();
+        int heightC = rightNode.getRightHeight();
+
+        swapEntries(node, rightNode);
+        if (node.isRoot() || node.isFenced())
+            rightNode.setFence(node.getLowKey(), node.getKey());
+        else
+            rightNode.clearFence();
+
+        rightNode.setLeftChild(a);
+        rightNode.setRightChild(b);
+        rightNode.setLeftHeight(heightA);
+        rightNode.setRightHeight(heightB);
+
+        node.setLeftChild(rightNode.getId());
+        node.setRightChild(c);
+        node.setLeftHeight(rightNode.getHeight());
+        node.setRightHeight(heightC);
+
+        mutation.batch.put(node).put(rightNode);
+    }
+
+    private static void swapEntries(AVLTreeNode first, AVLTreeNode second) {
+        String key = first.getKey();
+        String value = first.getValue();
+        first.setKey(second.getKey());
+        first.setValue(second.getValue());
+        second.setKey(key);
+        second.setValue(value);
+    }
+
+    /**
+     * The nodes one insert or delete has read, so each id is loaded once and every change lands in the same batch.
+     */
+    private class Mutation {
+        private final Map<String, AVLTreeNode> nodes = new HashMap<>();
+        private NodeBatch batch = new NodeBatch();
+
+        AVLTreeNode track(AVLTreeNode node) {
+            nodes.put(node.getId(), node);
+            return node;
+        }
+
+        /**
+         * Commits the batch. Only the nodes written are conditioned on their versions, plus the ones {@link #fence}
+         * had to check, since a rotation rewrites every node whose entry, links or fence it moves.
+         */
+        void commit() {
+            AVLCloudTree.this.commit(batch);
+        }
+
+        AVLTreeNode load(String id) {
+            AVLTreeNode node = nodes.get(id);
+            if (node == null) {
+                node = getNode(id).orElseThrow(() -> stale(nodes.values()));
+                nodes.put(id, node);
+            }
+            return node;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.util.Map;
+
+public class AVLTreeNode extends BinaryTreeNode {
+
+    private int leftHeight;
+    private int rightHeight;
+
+    private AVLTreeNode(String id, String key, String value, String parent, long version,
+                        String leftChild, String rightChild, int leftHeight, int rightHeight) {
+        super(id, key, value, parent, version, leftChild, rightChild);
+        this.leftHeight = leftHeight;
+        this.rightHeight = rightHeight;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getLeftHeight() {
+        return leftHeight;
+    }
+
+    public int getRightHeight() {
+        return rightHeight;
+    }
+
+    public int getHeight() {
+        return 1 + Math.max(leftHeight, rightHeight);
+    }
+
+    public int getBalance() {
+        return leftHeight - rightHeight;
+    }
+
+    public void setLeftHeight(int leftHeight) {
+        this.leftHeight = leftHeight;
+    }
+
+    public void setRightHeight(int rightHeight) {
+        this.rightHeight = rightHeight;
+    }
+
+    @Override
+    public Map<String, AttributeValue> asItem() {
+        Map<String, AttributeValue> item = super.asItem();
+        item.put("leftHeight", new AttributeValue().withN(Integer.toString(leftHeight)));
+        item.put("rightHeight", new AttributeValue().withN(Integer.toString(rightHeight)));
+        return item;
+    }
+
+    public static class Builder extends BinaryTreeNode.Builder {
+
+        private int leftHeight;
+        private int rightHeight;
+
+        @Override
+        public Builder fromItem(Map<String, AttributeValue> item) {
+            super.fromItem(item);
+            this.leftHeight = item.get("leftHeight") == null ? 0 : Integer.parseInt(item.get("leftHeight").getN());
+            this.rightHeight = item.get("rightHeight") == null ? 0 : Integer.parseInt(item.get("rightHeight").getN());
+            return this;
+        }
+
+        public Builder leftHeight(int leftHeight) {
+            this.leftHeight = leftHeight;
+            return this;
+        }
+
+        public Builder rightHeight(int rightHeight) {
+            this.rightHeight = rightHeight;
+            return this;
+        }
+
+        @Override
+        public AVLTreeNode build() {
+            return finish(new AVLTreeNode(id, key, value, parent, version, leftChild, rightChild, leftHeight, rightHeight));
+        }
+    }
+}
@@ -0,0 +1,736 @@
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public abstract class AbstractBinaryCloudTree<T extends BinaryTreeNode> extends AbstractCloudTree<T> {
+
+    static final int MAX_FENCE_BACKFILL = 64;
+    private static final int DELETE_BATCH = 100;
+    private static final int RETIRE_BATCH = 25;
+    private static final long RETIRED_GRACE_MILLIS = 10000;
+    private static final ScheduledExecutorService RETIRED_DELETER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "cloudtree-retired-deleter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final List<String> ROUTING_ATTRIBUTES = Arrays.asList("key", "leftChild", "rightChild");
+
+    private boolean routingReads;
+
+    public AbstractBinaryCloudTree(String treeName, String credentialsFile, int cacheSize) throws InterruptedException {
+        super(treeName, credentialsFile, cacheSize);
+    }
+
+    public AbstractBinaryCloudTree(NodeStore store, int cacheSize) {
+        super(store, cacheSize);
+    }
+
+    /**
+     * Creates a node for the balanced layout built by bulkLoad. The subtree heights are passed along for trees that
+     * keep track of them.
+     */
+    abstract T createBalancedNode(String id, String key, String value, String parent,
+                                  String leftChild, String rightChild, int leftHeight, int rightHeight);
+
+    /**
+     * Whether {@code key} lies strictly inside the fence of {@code node}. The root holds every key whatever it stores.
+     */
+    static boolean covers(BinaryTreeNode node, String key) {
+        return node.isRoot() || node.isFenced()
+                && (node.getLowKey() == null || key.compareTo(node.getLowKey()) > 0)
+                && (node.getHighKey() == null || key.compareTo(node.getHighKey()) < 0);
+    }
+
+    /**
+     * Gives {@code newNode} its fence for hanging below the last node of {@code path}, and conditions the batch so the
+     * insert only goes through if that is still the right place for its key. When the last node's fence covers the
+     * key, the write to that node is all it takes. Otherwise the path is checked from the deepest node whose fence
+     * covers the key, and the nodes below it get the fences the path gives them so the next insert there doesn't
+     * have to.
+     *
+     * A batch is one transaction, so at most {@link #MAX_FENCE_BACKFILL} nodes are fenced at a time. When the path
+     * needs more, the batch only holds that much of the backfill and false is returned: the caller commits it and
+     * calls again with a new batch, which then starts from the deeper anchor.
+     */
+    static boolean fence(List<? extends BinaryTreeNode> path, BinaryTreeNode newNode, NodeBatch batch) {
+        String key = newNode.getKey();
+        int anchor = path.size() - 1;
+        while (!covers(path.get(anchor), key))
+            anchor--;
+
+        int last = Math.min(path.size() - 1, anchor + MAX_FENCE_BACKFILL);
+        BinaryTreeNode node = path.get(anchor);
+        String low = node.isRoot() ? null : node.getLowKey();
+        String high = node.isRoot() ? null : node.getHighKey();
+        batch.check(node);
+
+        for (int i = anchor; ; i++) {
+            if (key.compareTo(node.getKey()) < 0)
+                high = node.getKey();
+            else
+                low = node.getKey();
+
+            if (i == last)
+                break;
+
+            node = path.get(i + 1);
+            if (node.hasFence(low, high)) {
+                batch.check(node);
+            } else {
+                node.setFence(low, high);
+                batch.put(node);
+            }
+        }
+
+        if (last < path.size() - 1)
+            return false;
+
+        newNode.setFence(low, high);
+        return true;
+    }
+
+    /**
+     * Starts the batch for inserting {@code newNode} below the last node of {@code path}, committing any fence
+     * backfill that doesn't fit in it first.
+     */
+    NodeBatch fencedBatch(List<? extends BinaryTreeNode> path, BinaryTreeNode newNode) {
+        NodeBatch batch = new NodeBatch();
+        while (!fence(path, newNode, batch)) {
+            commit(batch);
+            batch = new NodeBatch();
+        }
+        return batch;
+    }
+
+    /**
+     * Raises the low end of the fences along the left spine above a successor whose key moved up, since keys between
+     * the old and the new key no longer belong below them.
+     */
+    static void raiseLowFences(List<? extends BinaryTreeNode> spine, String lowKey, NodeBatch batch) {
+        for (BinaryTreeNode node : spine) {
+            if (node.isFenced()) {
+                node.setFence(lowKey, node.getHighKey());
+                batch.put(node);
+            }
+        }
+    }
+
+    /**
+     * Reads the child the last node of {@code path} leads to on the way to {@code key}. A child that is gone, or whose
+     * key isn't on the same side of every key on the path as {@code key}, means the path mixes nodes from before and
+     * after other writers' changes, so the operation is failed with the path dropped from the cache.
+     */
+    T descend(List<T> path, String key, String childId) {
+        T child = getNode(childId).orElseThrow(() -> stale(path));
+        if (!follows(path, key, child.getKey()))
+            throw stale(with(path, child));
+        return child;
+    }
+
+    /**
+     * Reads the left child of the last node of {@code spine} while looking for the successor of {@code key}, and fails
+     * like {@link #descend} unless it lies between {@code key} and that node.
+     */
+    T descendLeft(List<T> spine, String key) {
+        T node = spine.get(spine.size() - 1);
+        T child = getNode(node.getLeftChild()).orElseThrow(() -> stale(spine));
+        if (child.getKey().compareTo(key) <= 0 || child.getKey().compareTo(node.getKey()) >= 0)
+            throw stale(with(spine, child));
+        return child;
+    }
+
+    static <N> List<N> with(List<N> path, N node) {
+        List<N> nodes = new ArrayList<>(path);
+        nodes.add(node);
+        return nodes;
+    }
+
+    static boolean follows(List<? extends BinaryTreeNode> path, String key, String childKey) {
+        for (BinaryTreeNode node : path) {
+            int side = key.compareTo(node.getKey());
+            int childSide = childKey.compareTo(node.getKey());
+            if (childSide == 0 || (side < 0) != (childSide < 0))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public Optional<String> query(String key) {
+        return measure("query", () -> retryOnConflict(() -> queryNode(key).map(TreeNode::getValue)));
+    }
+
+    /**
+     * Reads the node holding the key straight away when the store has a key index, and walks down from the root when
+     * it doesn't or its answer is out of date.
+     */
+    Optional<T> queryNode(String key) {
+        Optional<T> indexed = findNodeId(key).flatMap(this::getNode).filter(node -> key.equals(node.getKey()));
+        if (indexed.isPresent())
+            return indexed;
+
+        if (routingReads) {
+            Optional<String> id = route(key);
+            if (!id.isPresent())
+                return Optional.empty();
+
+            //The node may have changed since it was routed through, in which case the full walk below settles it
+            Optional<T> node = getNode(id.get()).filter(found -> key.equals(found.getKey()));
+            if (node.isPresent())
+                return node;
+        }
+
+        Optional<T> root = getRootNode();
+
+        if (!root.isPresent()) {
+            return Optional.empty();
+        }
+
+        T focusNode = root.get();
+        List<T> path = new ArrayList<>();
+
+        while (true) {
+            int compareValue = key.compareTo(focusNode.getKey());
+            path.add(focusNode);
+            if (compareValue < 0) {
+                if (focusNode.getLeftChild() == null)
+                    return Optional.empty();
+                focusNode = descend(path, key, focusNode.getLeftChild());
+            } else if (compareValue > 0) {
+                if (focusNode.getRightChild() == null)
+                    return Optional.empty();
+                focusNode = descend(path, key, focusNode.getRightChild());
+            } else {
+                return Optional.of(focusNode);
+            }
+        }
+    }
+
+    /**
+     * Walks down to the key reading only each node's key and child ids, and returns the id of the node holding it. A
+     * child that is gone fails the lookup with its parent dropped from the cache.
+     */
+    private Optional<String> route(String key) {
+        String id = TreeNode.ROOT_ID;
+        String parentId = null;
+
+        while (id != null) {
+            Map<String, AttributeValue> node = getNodeAttributes(id, ROUTING_ATTRIBUTES).orElse(null);
+            if (node == null) {
+                if (parentId == null)
+                    return Optional.empty();
+                throw stale(parentId);
+            }
+
+            int compareValue = key.compareTo(node.get("key").getS());
+            if (compareValue == 0)
+                return Optional.of(id);
+
+            AttributeValue child = node.get(compareValue < 0 ? "leftChild" : "rightChild");
+            parentId = id;
+            id = child == null ? null : child.getS();
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * When on, lookups walk down the tree reading only the key and child ids of each node, and read the whole node
+     * only once they reach the key. Worth it for trees with large values, where it saves downloading every value on
+     * the way down, at the price of one more read at the end.
+     */
+    public void setRoutingReads(boolean routingReads) {
+        this.routingReads = routingReads;
+    }
+
+    public boolean isRoutingReads() {
+        return routingReads;
+    }
+
+    /**
+     * Walks all the keys down the tree together. The nodes the keys have reached on each level are read with one
+     * batched call, so the number of round trips follows the height of the tree rather than the number of keys. A
+     * child that is gone means its parent was read from the cache after another writer changed it, and the whole
+     * walk is run again.
+     */
+    @Override
+    public Map<String, String> queryAll(Collection<String> keys) {
+        return measure("queryAll", () -> retryOnConflict(() -> walkAll(keys)));
+    }
+
+    private Map<String, String> walkAll(Collection<String> keys) {
+        Map<String, String> values = new HashMap<>();
+        Map<String, List<String>> level = new HashMap<>();
+        Map<String, T> parents = new HashMap<>();
+        level.put(TreeNode.ROOT_ID, new ArrayList<>(new LinkedHashSet<>(keys)));
+
+        while (!level.isEmpty()) {
+            Map<String, T> nodes = getNodes(level.keySet());
+            Map<String, List<String>> nextLevel = new HashMap<>();
+
+            for (Map.Entry<String, List<String>> entry : level.entrySet()) {
+                T node = nodes.get(entry.getKey());
+                if (node == null) {
+                    if (entry.getKey().equals(TreeNode.ROOT_ID))
+                        return values;
+                    throw stale(Collections.singletonList(parents.get(entry.getKey())));
+                }
+
+                for (String key : entry.getValue()) {
+                    int compareValue = key.compareTo(node.getKey());
+                    String childId = compareValue < 0 ? node.getLeftChild() : node.getRightChild();
+
+                    if (compareValue == 0)
+                        values.put(key, node.getValue());
+                    else if (childId != null) {
+                        nextLevel.computeIfAbsent(childId, id -> new ArrayList<>()).add(key);
+                        parents.put(childId, node);
+                    }
+                }
+            }
+
+            level = nextLevel;
+        }
+
+        return values;
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> range(String fromKey, String toKey) {
+        return new RangeIterator(fromKey, toKey);
+    }
+
+    /**
+     * In-order iterator that keeps the left spine of the unread part of the tree on a stack. When a node goes on the
+     * stack its right child starts loading in the background, so it has usually arrived by the time the left subtree
+     * has been read. A child that is gone means another writer, or a rebalance, has replaced that part of the tree,
+     * so the iterator drops its stack and walks down from the root again to just after the last key it read.
+     */
+    private class RangeIterator implements Iterator<Map.Entry<String, String>> {
+        private final String fromKey;
+        private final String toKey;
+        private final Deque<Frame> stack = new ArrayDeque<>();
+        private String lastKey;
+        private Map.Entry<String, String> next;
+
+        RangeIterator(String fromKey, String toKey) {
+            this.fromKey = fromKey;
+            this.toKey = toKey;
+            advance(true);
+        }
+
+        private void pushLeft(T node) {
+            while (node != null) {
+                if (below(node.getKey())) {
+                    node = child(node, node.getRightChild());
+                    continue;
+                }
+
+                CompletableFuture<Optional<T>> right = null;
+                if (node.getRightChild() != null && (toKey == null || node.getKey().compareTo(toKey) < 0))
+                    right = prefetchNode(node.getRightChild());
+
+                stack.push(new Frame(node, right));
+                node = child(node, node.getLeftChild());
+            }
+        }
+
+        private boolean below(String key) {
+            if (lastKey != null)
+                return key.compareTo(lastKey) <= 0;
+            return fromKey != null && key.compareTo(fromKey) < 0;
+        }
+
+        private T child(T parent, String id) {
+            if (id == null)
+                return null;
+            return getNode(id).orElseThrow(() -> stale(Collections.singletonList(parent)));
+        }
+
+        private void advance(boolean fromRoot) {
+            next = null;
+            for (int restarts = 0; ; restarts++) {
+                try {
+                    if (fromRoot || restarts > 0) {
+                        stack.clear();
+                        pushLeft(getRootNode().orElse(null));
+                    }
+                    step();
+                    return;
+                } catch (NodeConflictException e) {
+                    if (restarts == MAX_CONFLICT_RETRIES)
+                        throw e;
+                }
+            }
+        }
+
+        private void step() {
+            if (stack.isEmpty())
+                return;
+
+            Frame frame = stack.pop();
+            if (toKey != null && frame.node.getKey().compareTo(toKey) >= 0) {
+                stack.clear();
+                return;
+            }
+
+            if (frame.right != null)
+                pushLeft(await(frame.right).orElseThrow(() -> stale(Collections.singletonList(frame.node))));
+
+            next = new AbstractMap.SimpleImmutableEntry<>(frame.node.getKey(), frame.node.getValue());
+            lastKey = frame.node.getKey();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (next == null)
+                throw new NoSuchElementException();
+
+            Map.Entry<String, String> entry = next;
+            advance(false);
+            return entry;
+        }
+    }
+
+    private class Frame {
+        private final T node;
+        private final CompletableFuture<Optional<T>> right;
+
+        Frame(T node, CompletableFuture<Optional<T>> right) {
+            this.node = node;
+            this.right = right;
+        }
+    }
+
+    @Override
+    public void bulkLoad(Iterator<Map.Entry<String, String>> entries) {
+        if (getRootNode().isPresent())
+            throw new IllegalStateException("Can only bulk load an empty tree!");
+
+        try (ExternalSorter.SortedEntries sorted = ExternalSorter.sort(entries);
+             NodeWriter writer = newBatchWriter()) {
+            if (sorted.size() > 0)
+                buildBalanced(new Layout(sorted.iterator()), sorted.size(), TreeNode.ROOT_ID, null, writer);
+        }
+    }
+
+    /**
+     * Node count, height, fan-out per level and average lookup depth, from a parallel scan of the whole table.
+     */
+    public TreeStats stats() {
+        return TreeStats.collect(getNodeStore());
+    }
+
+    /**
+     * Rebuilds the tree into the balanced shape bulkLoad gives, for trees that grew lopsided from sorted inserts.
+     * The tree is walked from the root, retiring each node before its entry is read, so from then on writes to it fail
+     * with a {@link TreeFrozenException} and wait. The entries are sorted in bounded memory and written as new nodes
+     * under new ids, and one write of the root, conditional on the version it was retired at, switches the tree over
+     * to them. Readers keep using the old nodes until then. The old nodes are deleted in the background a grace period
+     * later, so reads already walking them can finish, and range iterators that still run into a deleted one pick up
+     * again from the new root. Old nodes left behind by a process that exits first are unreachable and harmless. If the
+     * rebuild fails before the switch the old nodes are brought back into service; a rebalance that dies half way
+     * leaves writes waiting until the next one completes.
+     *
+     * @return the number of entries in the rebuilt tree
+     */
+    public long rebalance() {
+        return measure("rebalance", () -> {
+            clearCaches();
+            Retirement retirement = new Retirement();
+            String leftChild = null;
+            String rightChild = null;
+            boolean switching = false;
+
+            try (ExternalSorter.SortedEntries sorted = ExternalSorter.sort(retirement)) {
+                T oldRoot = retirement.root;
+                long count = sorted.size();
+                if (count == 0)
+                    return 0L;
+
+                Layout entries = new Layout(sorted.iterator());
+                long leftCount = (count - 1) / 2;
+                long rightCount = count - 1 - leftCount;
+                leftChild = leftCount > 0 ? TreeNode.newId() : null;
+                rightChild = rightCount > 0 ? TreeNode.newId() : null;
+                int leftHeight;
+                int rightHeight;
+                Map.Entry<String, String> entry;
+
+                try (NodeWriter writer = newBatchWriter()) {
+                    leftHeight = leftChild != null ? buildBalanced(entries, leftCount, leftChild, TreeNode.ROOT_ID, writer) : 0;
+                    entry = entries.take();
+                    rightHeight = rightChild != null ? buildBalanced(entries, rightCount, rightChild, TreeNode.ROOT_ID, writer) : 0;
+                }
+
+                T root = createBalancedNode(TreeNode.ROOT_ID, entry.getKey(), entry.getValue(), null,
+                        leftChild, rightChild, leftHeight, rightHeight);
+                root.setFence(null, null);
+                root.setVersion(oldRoot.getVersion());
+                switching = true;
+                commit(new NodeBatch().put(root));
+
+                List<String> retired = Arrays.asList(oldRoot.getLeftChild(), oldRoot.getRightChild());
+                RETIRED_DELETER.schedule(() -> deleteSubtrees(retired),
+                        RETIRED_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+                return count;
+            } catch (NodeConflictException e) {
+                if (!switching)
+                    throw thaw(e);
+                deleteSubtrees(Arrays.asList(leftChild, rightChild));
+                throw new IllegalStateException("The tree changed while it was being rebalanced!", e);
+            } catch (RuntimeException e) {
+                throw switching ? e : thaw(e);
+            }
+        });
+    }
+
+    /**
+     * Brings the nodes a failed rebalance retired back into service, walking down from the root through the retired
+     * ones. Missing nodes are skipped, since the failure may have been the walk finding one.
+     */
+    private RuntimeException thaw(RuntimeException failure) {
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(TreeNode.ROOT_ID);
+
+        try {
+            while (!pending.isEmpty()) {
+                List<String> ids = new ArrayList<>();
+                while (!pending.isEmpty() && ids.size() < RETIRE_BATCH)
+                    ids.add(pending.pop());
+
+                Collection<T> thawed = retryOnConflict(() -> {
+                    ids.forEach(this::invalidate);
+                    List<T> retired = new ArrayList<>();
+                    NodeBatch batch = new NodeBatch();
+                    for (T node : getNodes(ids).values()) {
+                        if (node.isRetired()) {
+                            node.setRetired(false);
+                            batch.put(node);
+                            retired.add(node);
+                        }
+                    }
+                    commitRetiring(batch);
+                    return retired;
+                });
+
+                for (T node : thawed) {
+                    if (node.getLeftChild() != null)
+                        pending.push(node.getLeftChild());
+                    if (node.getRightChild() != null)
+                        pending.push(node.getRightChild());
+                }
+            }
+        } catch (RuntimeException e) {
+            failure.addSuppressed(e);
+        }
+        return failure;
+    }
+
+    /**
+     * The tree's entries, read by walking it a batch of nodes at a time and retiring each batch first. A retired
+     * node's links can't change, so the walk can't miss a node, and it holds only the ids still to be read, which is
+     * about the height of the tree.
+     */
+    private class Retirement implements Iterator<Map.Entry<String, String>> {
+        private final Deque<String> pending = new ArrayDeque<>();
+        private final Deque<Map.Entry<String, String>> entries = new ArrayDeque<>();
+        private T root;
+
+        Retirement() {
+            pending.push(TreeNode.ROOT_ID);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (entries.isEmpty() && !pending.isEmpty()) {
+                List<String> ids = new ArrayList<>();
+                while (!pending.isEmpty() && ids.size() < RETIRE_BATCH)
+                    ids.add(pending.pop());
+
+                Collection<T> nodes = retryOnConflict(() -> retire(ids));
+
+                for (T node : nodes) {
+                    if (node.isRoot())
+                        root = node;
+                    if (node.getLeftChild() != null)
+                        pending.push(node.getLeftChild());
+                    if (node.getRightChild() != null)
+                        pending.push(node.getRightChild());
+                    entries.add(new AbstractMap.SimpleImmutableEntry<>(node.getKey(), node.getValue()));
+                }
+            }
+            return !entries.isEmpty();
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return entries.poll();
+        }
+
+        /**
+         * Retires the given nodes from a fresh read of each, and returns them.
+         */
+        private Collection<T> retire(List<String> ids) {
+            ids.forEach(AbstractBinaryCloudTree.this::invalidate);
+            Map<String, T> nodes = getNodes(ids);
+            //A linked node that isn't there was written so recently this read hasn't caught up with it yet
+            if (nodes.size() < ids.size() && !ids.contains(TreeNode.ROOT_ID))
+                throw new NodeConflictException("Nodes linked from retired nodes are missing!");
+
+            NodeBatch batch = new NodeBatch();
+            for (T node : nodes.values()) {
+                if (!node.isRetired()) {
+                    node.setRetired(true);
+                    batch.put(node);
+                }
+            }
+            commitRetiring(batch);
+            return nodes.values();
+        }
+    }
+
+    /**
+     * Runs {@link #rebalance} on a background thread.
+     */
+    public CompletableFuture<Long> rebalanceAsync() {
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        Thread job = new Thread(() -> {
+            try {
+                result.complete(rebalance());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }, "rebalance-" + getTreeName());
+        job.setDaemon(true);
+        job.start();
+        return result;
+    }
+
+    /**
+     * Deletes every node below the given ids, reading them a batch at a time. Only the ids still to be read are kept,
+     * which is about the height of the tree.
+     */
+    private void deleteSubtrees(Collection<String> ids) {
+        Deque<String> pending = new ArrayDeque<>();
+        ids.stream().filter(Objects::nonNull).forEach(pending::push);
+
+        try (NodeWriter writer = newBatchWriter()) {
+            while (!pending.isEmpty()) {
+                List<String> batch = new ArrayList<>();
+                while (!pending.isEmpty() && batch.size() < DELETE_BATCH)
+                    batch.add(pending.pop());
+
+                for (T node : getNodes(batch).values()) {
+                    if (node.getLeftChild() != null)
+                        pending.push(node.getLeftChild());
+                    if (node.getRightChild() != null)
+                        pending.push(node.getRightChild());
+                }
+                batch.forEach(writer::delete);
+            }
+        }
+        clearCaches();
+    }
+
+    /**
+     * Writes a balanced subtree of the next {@code count} sorted entries and returns its height. Only the current
+     * path is kept in memory.
+     */
+    private int buildBalanced(Layout entries, long count, String id, String parent, NodeWriter writer) {
+        String lowKey = entries.lastKey();
+        long leftCount = (count - 1) / 2;
+        long rightCount = count - 1 - leftCount;
+        String leftChild = leftCount > 0 ? TreeNode.newId() : null;
+        String rightChild = rightCount > 0 ? TreeNode.newId() : null;
+
+        int leftHeight = leftChild != null ? buildBalanced(entries, leftCount, leftChild, id, writer) : 0;
+
+        Map.Entry<String, String> entry = entries.take();
+
+        int rightHeight = rightChild != null ? buildBalanced(entries, rightCount, rightChild, id, writer) : 0;
+
+        T node = createBalancedNode(id, entry.getKey(), entry.getValue(), parent,
+                leftChild, rightChild, leftHeight, rightHeight);
+        node.setFence(lowKey, entries.nextKey());
+        writer.put(node);
+        return 1 + Math.max(leftHeight, rightHeight);
+    }
+
+    /**
+     * The sorted entries being laid out. A subtree's fence runs from the last key taken before it to the next key
+     * after it.
+     */
+    private static class Layout {
+        private final Iterator<Map.Entry<String, String>> entries;
+        private Map.Entry<String, String> next;
+        private String lastKey;
+
+        Layout(Iterator<Map.Entry<String, String>> entries) {
+            this.entries = entries;
+            this.next = entries.hasNext() ? entries.next() : null;
+        }
+
+        Map.Entry<String, String> take() {
+            Map.Entry<String, String> entry = next;
+            next = entries.hasNext() ? entries.next() : null;
+            lastKey = entry.getKey();
+            return entry;
+        }
+
+        String lastKey() {
+            return lastKey;
+        }
+
+        String nextKey() {
+            return next == null ? null : next.getKey();
+        }
+    }
+
+    @Override
+    public void print() {
+        Optional<T> root = getRootNode();
+
+        if(!root.isPresent())
+            System.out.println("Empty Tree");
+        else
+            print(root.get(), "", true);
+    }
+
+    private void print(T node, String prefix, boolean isTail) {
+        System.out.println(prefix + (isTail ? "└── " : "├── ") + node.getKey() + " : " + node.getValue());
+        if(node.getLeftChild() != null & node.getRightChild() != null) {
+            print(getNode(node.getLeftChild()).get(), prefix + (isTail ? "    " : "│   "), false);
+            print(getNode(node.getRightChild()).get(), prefix + (isTail ? "    " : "│   "), true);
+        } else if(node.getLeftChild() != null) {
+            print(getNode(node.getLeftChild()).get(), prefix + (isTail ? "    " : "│   "), true);
+        } else if(node.getRightChild() != null) {
+            print(getNode(node.getRightChild()).get(), prefix + (isTail ? "    " : "│   "), true);
+        }
+    }
+}
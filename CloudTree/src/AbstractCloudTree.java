@@ -1,49 +1,212 @@
-import com.amazonaws.auth.PropertiesFileCredentialsProvider;
-import com.amazonaws.regions.Regions;
-import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
-import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
-import com.amazonaws.services.dynamodbv2.model.*;
-import com.amazonaws.services.dynamodbv2.util.TableUtils;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 public abstract class AbstractCloudTree<T> implements CloudTree {
 
-    private AmazonDynamoDB db;
-    private String treeName;
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+    public static final int MAX_CONFLICT_RETRIES = 10;
+    public static final int MAX_FROZEN_RETRIES = 600;
 
-    public AbstractCloudTree(String treeName, String credentialsFile) throws InterruptedException {
-        AmazonDynamoDBClientBuilder builder = AmazonDynamoDBClientBuilder.standard()
-                .withRegion(Regions.US_WEST_2);
+    private static final long FROZEN_BACKOFF_MILLIS = 1000;
 
-        if (credentialsFile != null && !credentialsFile.isEmpty()) {
-            builder.withCredentials(new PropertiesFileCredentialsProvider(credentialsFile));
-        }
+    private static final ScheduledExecutorService RETRY_SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "cloudtree-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
 
-        this.db = builder.build();
+    private NodeStore store;
+    private NodeCache cache;
+    private NodeCache routes;
+    private TreeMetrics metrics = TreeMetrics.NONE;
+    private final ThreadLocal<Operation> currentOperation = new ThreadLocal<>();
 
-        this.treeName = treeName;
+    public AbstractCloudTree(String treeName, String credentialsFile) throws InterruptedException {
+        this(treeName, credentialsFile, DEFAULT_CACHE_SIZE);
+    }
 
-        CreateTableRequest request = new CreateTableRequest()
-                .withAttributeDefinitions(new AttributeDefinition("id", ScalarAttributeType.S))
-                .withKeySchema(new KeySchemaElement("id", KeyType.HASH))
-                .withProvisionedThroughput(new ProvisionedThroughput(1L, 1L))
-                .withTableName(treeName);
+    public AbstractCloudTree(String treeName, String credentialsFile, int cacheSize) throws InterruptedException {
+        this(new DynamoNodeStore(treeName, credentialsFile), cacheSize);
+    }
 
-        TableUtils.createTableIfNotExists(db, request);
-        TableUtils.waitUntilActive(db, treeName);
+    public AbstractCloudTree(NodeStore store, int cacheSize) {
+        this.store = store;
+        this.cache = new NodeCache(cacheSize);
+        this.routes = new NodeCache(cacheSize);
     }
 
     abstract T createNode(Map<String, AttributeValue> item);
 
+    /**
+     * Writes a node as the next version, as long as nobody else has written it since it was read. Throws a
+     * {@link NodeConflictException} if they have.
+     */
     public void putNode(TreeNode node) {
-        PutItemRequest request = new PutItemRequest()
-                .withTableName(treeName)
-                .withItem(node.asItem());
+        commit(new NodeBatch().put(node));
+    }
+
+    CompletableFuture<Void> putNodeAsync(TreeNode node) {
+        return commitAsync(new NodeBatch().put(node));
+    }
+
+    /**
+     * Writes every node in the batch at once, so a mutation is applied all at once or not at all. Every write is
+     * conditional on the node's version, so a batch built from stale reads fails with a {@link NodeConflictException}
+     * instead of overwriting someone else's changes. The same goes for any nodes the batch
+     * {@link NodeBatch#check checks}. A batch touching nodes a rebalance has retired fails with a
+     * {@link TreeFrozenException}.
+     */
+    public void commit(NodeBatch batch) {
+        if (batch.isEmpty())
+            return;
+        if (touchesRetired(batch))
+            throw frozen(batch);
+
+        commitRetiring(batch);
+    }
+
+    /**
+     * Commits a batch whether or not its nodes are retired, for a rebalance to retire them and bring them back.
+     */
+    void commitRetiring(NodeBatch batch) {
+        if (batch.isEmpty())
+            return;
+
+        long start = System.nanoTime();
+        try {
+            store.commit(batch);
+        } catch (RuntimeException e) {
+            failed(batch);
+            throw e;
+        } finally {
+            storageCalled("commit", start);
+        }
 
-        db.putItem(request);
+        committed(batch);
+    }
+
+    CompletableFuture<Void> commitAsync(NodeBatch batch) {
+        if (batch.isEmpty())
+            return CompletableFuture.completedFuture(null);
+        if (touchesRetired(batch)) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(frozen(batch));
+            return failed;
+        }
+
+        return storageCallAsync("commit", () -> store.commitAsync(batch)).handle((result, e) -> {
+            if (e != null) {
+                failed(batch);
+                throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+            }
+            committed(batch);
+            return null;
+        });
+    }
+
+    private void committed(NodeBatch batch) {
+        for (TreeNode node : batch.getPuts()) {
+            node.setVersion(node.getVersion() + 1);
+            cache.put(node.getId(), node.asItem());
+            routes.invalidate(node.getId());
+        }
+        batch.getDeletes().forEach(node -> invalidate(node.getId()));
+    }
+
+    private void failed(NodeBatch batch) {
+        batch.getPuts().forEach(node -> invalidate(node.getId()));
+        batch.getDeletes().forEach(node -> invalidate(node.getId()));
+        batch.getChecks().forEach(node -> invalidate(node.getId()));
+    }
+
+    private static boolean touchesRetired(NodeBatch batch) {
+        return batch.getPuts().stream().anyMatch(TreeNode::isRetired)
+                || batch.getDeletes().stream().anyMatch(TreeNode::isRetired)
+                || batch.getChecks().stream().anyMatch(TreeNode::isRetired);
+    }
+
+    /**
+     * Fails a batch that would change the tree a rebalance is copying. The root is dropped from the cache along with
+     * the batch's nodes, so the retry finds the rebuilt tree once the rebalance has switched to it.
+     */
+    private TreeFrozenException frozen(NodeBatch batch) {
+        failed(batch);
+        invalidate(TreeNode.ROOT_ID);
+        return new TreeFrozenException("The tree is being rebalanced!");
+    }
+
+    void invalidate(String id) {
+        cache.invalidate(id);
+        routes.invalidate(id);
+    }
+
+    /**
+     * Fails an operation that found the nodes it read disagreeing with each other, which happens when some came out
+     * of the cache after other writers had changed them. The nodes are dropped from the cache so the retry reads them
+     * again.
+     */
+    NodeConflictException stale(Collection<? extends TreeNode> nodes) {
+        nodes.forEach(node -> invalidate(node.getId()));
+        return new NodeConflictException("Cached nodes are out of date!");
+    }
+
+    /**
+     * Like {@link #stale(Collection)}, for a node only known by its id.
+     */
+    NodeConflictException stale(String id) {
+        invalidate(id);
+        return new NodeConflictException("Cached nodes are out of date!");
+    }
+
+    void clearCaches() {
+        cache.clear();
+        routes.clear();
+    }
+
+    /**
+     * Keeps the caches current with writes from other processes. Cached nodes another process changes are replaced
+     * with the new version, deleted ones are dropped, and everything is dropped if the stream loses its place. Nodes
+     * that aren't cached are left for the next read to fetch.
+     */
+    public void followChanges(NodeChangeStream changes) {
+        changes.subscribe(new NodeChangeStream.Listener() {
+            @Override
+            public void changed(String id, Map<String, AttributeValue> item) {
+                routes.invalidate(id);
+                if (item == null)
+                    cache.invalidate(id);
+                else
+                    cache.refresh(id, item);
+            }
+
+            @Override
+            public void removed(String id) {
+                invalidate(id);
+            }
+
+            @Override
+            public void reset() {
+                clearCaches();
+            }
+        });
+    }
+
+    public NodeWriter newBatchWriter() {
+        return store.newWriter();
     }
 
     public Optional<T> getRootNode() {
@@ -51,37 +214,289 @@ public abstract class AbstractCloudTree<T> implements CloudTree {
     }
 
     public Optional<T> getNode(String id) {
-        Map<String, AttributeValue> key = new HashMap<>();
+        visitedLevel();
+        Optional<Map<String, AttributeValue>> cached = cache.get(id);
+        if (cached.isPresent())
+            return Optional.of(createNode(cached.get()));
+
+        Optional<Map<String, AttributeValue>> item = storageCall("get", () -> store.get(id));
+        if (!item.isPresent())
+            return Optional.empty();
+
+        cache.put(id, item.get());
+        return Optional.of(createNode(item.get()));
+    }
 
-        key.put("id", new AttributeValue(id));
+    /**
+     * Reads just the given attributes of a node, for walking past it. A fully cached node is used as is, and
+     * partial reads are cached apart from whole nodes so they never stand in for one.
+     */
+    Optional<Map<String, AttributeValue>> getNodeAttributes(String id, Collection<String> attributes) {
+        visitedLevel();
+        Optional<Map<String, AttributeValue>> cached = cache.get(id);
+        if (cached.isPresent())
+            return cached;
+        cached = routes.get(id);
+        if (cached.isPresent())
+            return cached;
 
-        GetItemRequest request = new GetItemRequest()
-                .withTableName(treeName)
-                .withKey(key);
+        Optional<Map<String, AttributeValue>> item = storageCall("getAttributes", () -> store.get(id, attributes));
+        item.ifPresent(found -> routes.put(id, found));
+        return item;
+    }
+
+    /**
+     * Reads many nodes with as few round trips as possible: cached nodes come straight from the cache and the rest are
+     * read from the store in one go. Ids that don't exist are left out of the result.
+     */
+    public Map<String, T> getNodes(Collection<String> ids) {
+        visitedLevel();
+        Map<String, T> nodes = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+
+        for (String id : new LinkedHashSet<>(ids)) {
+            Optional<Map<String, AttributeValue>> cached = cache.get(id);
+            if (cached.isPresent())
+                nodes.put(id, createNode(cached.get()));
+            else
+                missing.add(id);
+        }
 
-        GetItemResult result = db.getItem(request);
+        if (!missing.isEmpty()) {
+            storageCall("getAll", () -> store.getAll(missing)).forEach((id, item) -> {
+                cache.put(id, item);
+                nodes.put(id, createNode(item));
+            });
+        }
 
-        Map<String, AttributeValue> item = result.getItem();
+        return nodes;
+    }
 
-        if (item == null || item.isEmpty())
+    /**
+     * The id of the node holding {@code key} according to the store's key index, if it has one. The index can lag
+     * behind, so the node has to be checked once it is read.
+     */
+    Optional<String> findNodeId(String key) {
+        if (!store.hasKeyIndex())
             return Optional.empty();
+        return storageCall("findId", () -> store.findId(key));
+    }
+
+    /**
+     * Reads a node without blocking. Cached nodes come back as an already completed future.
+     */
+    CompletableFuture<Optional<T>> getNodeAsync(String id) {
+        Optional<Map<String, AttributeValue>> cached = cache.get(id);
+        if (cached.isPresent())
+            return CompletableFuture.completedFuture(Optional.of(createNode(cached.get())));
+
+        return storageCallAsync("get", () -> store.getAsync(id)).thenApply(item -> {
+            if (!item.isPresent())
+                return Optional.empty();
+
+            cache.put(id, item.get());
+            return Optional.of(createNode(item.get()));
+        });
+    }
+
+    CompletableFuture<Optional<T>> getRootNodeAsync() {
+        return getNodeAsync(TreeNode.ROOT_ID);
+    }
 
-        return Optional.of(createNode(item));
+    /**
+     * Starts reading a node in the background so it is ready by the time a traversal gets to it.
+     */
+    CompletableFuture<Optional<T>> prefetchNode(String id) {
+        return getNodeAsync(id);
     }
 
+    static <R> R await(CompletableFuture<R> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Deletes a node as long as nobody else has written it since it was read. Throws a {@link NodeConflictException}
+     * if they have.
+     */
+    public void deleteNode(TreeNode node) {
+        commit(new NodeBatch().delete(node));
+    }
+
+    CompletableFuture<Void> deleteNodeAsync(TreeNode node) {
+        return commitAsync(new NodeBatch().delete(node));
+    }
+
+    /**
+     * Deletes a node whatever version it is at.
+     */
     public void deleteNode(String id) {
-        Map<String, AttributeValue> key = new HashMap<>();
+        long start = System.nanoTime();
+        try {
+            store.delete(id);
+        } finally {
+            storageCalled("delete", start);
+            invalidate(id);
+        }
+    }
+
+    /**
+     * Runs a whole tree operation again, from a fresh read of the nodes involved, whenever it loses a race with
+     * another writer. Retrying just the failed write wouldn't be enough, since the rest of the operation was decided
+     * from nodes that are now out of date. The failed batch has already dropped its nodes from the cache, so the
+     * retry reads those again and keeps using everything else that is cached. Writes held up by a rebalance are
+     * retried once a second for up to {@link #MAX_FROZEN_RETRIES} seconds, without using up the conflict retries.
+     */
+    <R> R retryOnConflict(Supplier<R> operation) {
+        for (int attempt = 0, frozen = 0; ; ) {
+            try {
+                return operation.get();
+            } catch (NodeConflictException e) {
+                boolean waiting = e instanceof TreeFrozenException;
+                if (waiting ? frozen >= MAX_FROZEN_RETRIES : attempt >= MAX_CONFLICT_RETRIES)
+                    throw e;
+                metrics.conflictRetry();
+                try {
+                    Thread.sleep(waiting ? FROZEN_BACKOFF_MILLIS : conflictBackoff(attempt));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                if (waiting)
+                    frozen++;
+                else
+                    attempt++;
+            }
+        }
+    }
+
+    <R> CompletableFuture<R> retryOnConflictAsync(Supplier<CompletableFuture<R>> operation) {
+        return retryOnConflictAsync(operation, 0, 0);
+    }
+
+    private <R> CompletableFuture<R> retryOnConflictAsync(Supplier<CompletableFuture<R>> operation, int attempt,
+                                                          int frozen) {
+        CompletableFuture<R> result = new CompletableFuture<>();
+
+        operation.get().whenComplete((value, e) -> {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            boolean waiting = cause instanceof TreeFrozenException;
+
+            if (cause == null) {
+                result.complete(value);
+            } else if (!(cause instanceof NodeConflictException)
+                    || (waiting ? frozen >= MAX_FROZEN_RETRIES : attempt >= MAX_CONFLICT_RETRIES)) {
+                result.completeExceptionally(cause);
+            } else {
+                metrics.conflictRetry();
+                RETRY_SCHEDULER.schedule(() -> retryOnConflictAsync(operation, waiting ? attempt : attempt + 1,
+                        waiting ? frozen + 1 : frozen).whenComplete((retried, retryError) -> {
+                    if (retryError != null)
+                        result.completeExceptionally(retryError);
+                    else
+                        result.complete(retried);
+                }), waiting ? FROZEN_BACKOFF_MILLIS : conflictBackoff(attempt), TimeUnit.MILLISECONDS);
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Times a whole tree operation and reports it to the metrics along with the levels it read and the storage calls
+     * it made. An operation run from inside another one, like the queries behind the default queryAll, only counts
+     * towards the outer one.
+     */
+    <R> R measure(String name, Supplier<R> operation) {
+        if (metrics == TreeMetrics.NONE || currentOperation.get() != null)
+            return operation.get();
 
-        key.put("id", new AttributeValue(id));
+        Operation current = new Operation();
+        currentOperation.set(current);
+        long start = System.nanoTime();
+        try {
+            return operation.get();
+        } finally {
+            currentOperation.remove();
+            metrics.operation(name, System.nanoTime() - start, current.depth, current.storageCalls);
+        }
+    }
+
+    <R> CompletableFuture<R> measureAsync(String name, Supplier<CompletableFuture<R>> operation) {
+        if (metrics == TreeMetrics.NONE)
+            return operation.get();
+
+        long start = System.nanoTime();
+        return operation.get().whenComplete((result, e) -> metrics.operation(name, System.nanoTime() - start, -1, -1));
+    }
 
-        DeleteItemRequest request = new DeleteItemRequest()
-                .withTableName(treeName)
-                .withKey(key);
+    private void visitedLevel() {
+        Operation current = currentOperation.get();
+        if (current != null)
+            current.depth++;
+    }
+
+    private <R> R storageCall(String call, Supplier<R> storeCall) {
+        long start = System.nanoTime();
+        try {
+            return storeCall.get();
+        } finally {
+            storageCalled(call, start);
+        }
+    }
+
+    private <R> CompletableFuture<R> storageCallAsync(String call, Supplier<CompletableFuture<R>> storeCall) {
+        long start = System.nanoTime();
+        Operation current = currentOperation.get();
+        if (current != null)
+            current.storageCalls++;
+        return storeCall.get().whenComplete((result, e) -> metrics.storageCall(call, System.nanoTime() - start));
+    }
 
-        db.deleteItem(request);
+    private void storageCalled(String call, long start) {
+        metrics.storageCall(call, System.nanoTime() - start);
+        Operation current = currentOperation.get();
+        if (current != null)
+            current.storageCalls++;
+    }
+
+    private static class Operation {
+        int depth;
+        int storageCalls;
+    }
+
+    private static long conflictBackoff(int attempt) {
+        long ceiling = Math.min(1000L, 10L << attempt);
+        return ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
     }
 
     public String getTreeName() {
-        return treeName;
+        return store.getName();
+    }
+
+    public NodeStore getNodeStore() {
+        return store;
+    }
+
+    public NodeCache getNodeCache() {
+        return cache;
+    }
+
+    /**
+     * Reports operation and storage call latencies, traversal depth and retries to {@code metrics}, and hands it to
+     * the node store for anything only the store can see, like consumed capacity.
+     */
+    public void setMetrics(TreeMetrics metrics) {
+        this.metrics = metrics;
+        store.setMetrics(metrics);
+    }
+
+    public TreeMetrics getMetrics() {
+        return metrics;
     }
 }
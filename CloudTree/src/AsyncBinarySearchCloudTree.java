@@ -0,0 +1,280 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Non-blocking version of {@link BinarySearchCloudTree}. Every step of a traversal is chained onto the read before it
+ * through the async DynamoDB client, so no thread waits on a round trip. Nodes that are already cached are walked
+ * through in a loop rather than through nested callbacks, so deep trees don't grow the stack.
+ */
+public class AsyncBinarySearchCloudTree implements AsyncCloudTree {
+
+    private final BinarySearchCloudTree tree;
+
+    public AsyncBinarySearchCloudTree(String treeName, String credentialsFile) throws InterruptedException {
+        this(new BinarySearchCloudTree(treeName, credentialsFile));
+    }
+
+    public AsyncBinarySearchCloudTree(BinarySearchCloudTree tree) {
+        this.tree = tree;
+    }
+
+    public BinarySearchCloudTree getTree() {
+        return tree;
+    }
+
+    @Override
+    public CompletableFuture<Void> insert(String key, String value) {
+        return tree.measureAsync("insert", () -> tree.retryOnConflictAsync(() -> tryInsert(key, value)));
+    }
+
+    private CompletableFuture<Void> tryInsert(String key, String value) {
+        return tree.getRootNodeAsync().thenCompose(root -> {
+            if (!root.isPresent()) {
+                return tree.putNodeAsync(BinaryTreeNode.builder()
+                        .isRoot()
+                        .key(key)
+                        .value(value)
+                        .build());
+            }
+
+            List<BinaryTreeNode> path = new ArrayList<>();
+            return walkTowards(root.get(), key, path).thenCompose(focusNode -> {
+                int compareValue = key.compareTo(focusNode.getKey());
+
+                if (compareValue == 0) {
+                    if (focusNode.getValue().equals(value))
+                        return CompletableFuture.completedFuture(null);
+                    focusNode.setValue(value);
+                    return tree.putNodeAsync(focusNode);
+                }
+
+                BinaryTreeNode newNode = ((BinaryTreeNode.Builder) BinaryTreeNode.builder()
+                        .key(key)
+                        .value(value)
+                        .parent(focusNode.getId()))
+                        .build();
+
+                return fencedBatch(path, newNode).thenCompose(batch -> {
+                    if (compareValue < 0)
+                        focusNode.setLeftChild(newNode.getId());
+                    else
+                        focusNode.setRightChild(newNode.getId());
+
+                    return tree.commitAsync(batch.put(newNode).put(focusNode));
+                });
+            });
+        });
+    }
+
+    /**
+     * Starts the batch for inserting {@code newNode}, committing any fence backfill that doesn't fit in it first.
+     */
+    private CompletableFuture<NodeBatch> fencedBatch(List<BinaryTreeNode> path, BinaryTreeNode newNode) {
+        NodeBatch batch = new NodeBatch();
+        if (AbstractBinaryCloudTree.fence(path, newNode, batch))
+            return CompletableFuture.completedFuture(batch);
+        return tree.commitAsync(batch).thenCompose(ignored -> fencedBatch(path, newNode));
+    }
+
+    @Override
+    public CompletableFuture<Optional<String>> query(String key) {
+        return tree.measureAsync("query", () -> tree.retryOnConflictAsync(() ->
+                queryNode(key).thenApply(node -> node.map(TreeNode::getValue))));
+    }
+
+    private CompletableFuture<Optional<BinaryTreeNode>> queryNode(String key) {
+        return tree.getRootNodeAsync().thenCompose(root -> {
+            if (!root.isPresent())
+                return CompletableFuture.completedFuture(Optional.empty());
+
+            return walkTowards(root.get(), key, new ArrayList<>())
+                    .thenApply(node -> key.equals(node.getKey()) ? Optional.of(node) : Optional.empty());
+        });
+    }
+
+    @Override
+    public CompletableFuture<Optional<String>> delete(String key) {
+        return tree.measureAsync("delete", () -> tree.retryOnConflictAsync(() -> tryDelete(key)));
+    }
+
+    private CompletableFuture<Optional<String>> tryDelete(String key) {
+        return queryNode(key).thenCompose(query -> {
+            if (!query.isPresent())
+                return CompletableFuture.completedFuture(Optional.empty());
+
+            BinaryTreeNode focusNode = query.get();
+            String oldValue = focusNode.getValue();
+            return remove(focusNode).thenApply(ignored -> Optional.of(oldValue));
+        });
+    }
+
+    /**
+     * The same restructuring as {@link BinarySearchCloudTree#delete(String)}, with each read chained on instead of
+     * waited for. All writes still go out as one transaction at the end.
+     */
+    private CompletableFuture<Void> remove(BinaryTreeNode focusNode) {
+        NodeBatch batch = new NodeBatch();
+
+        if (focusNode.getLeftChild() == null && focusNode.getRightChild() == null) {
+            if (focusNode.isRoot())
+                return tree.commitAsync(batch.delete(focusNode));
+
+            return getParent(focusNode).thenCompose(parentNode -> {
+                if (focusNode.getId().equals(parentNode.getLeftChild()))
+                    parentNode.setLeftChild(null);
+                if (focusNode.getId().equals(parentNode.getRightChild()))
+                    parentNode.setRightChild(null);
+                return tree.commitAsync(batch.put(parentNode).delete(focusNode));
+            });
+        }
+
+        if (focusNode.getLeftChild() == null || focusNode.getRightChild() == null) {
+            String childId = focusNode.getLeftChild() != null ? focusNode.getLeftChild() : focusNode.getRightChild();
+
+            return getExistingNode(focusNode, childId).thenCompose(childNode -> {
+                if (focusNode.isRoot()) {
+                    focusNode.setKey(childNode.getKey());
+                    focusNode.setValue(childNode.getValue());
+                    focusNode.setLeftChild(childNode.getLeftChild());
+                    focusNode.setRightChild(childNode.getRightChild());
+
+                    CompletableFuture<Optional<BinaryTreeNode>> right =
+                            getOptionalNode(childNode, childNode.getRightChild());
+                    return getOptionalNode(childNode, childNode.getLeftChild())
+                            .thenCombine(right, (leftChild, rightChild) -> {
+                                leftChild.ifPresent(node -> batch.put(reparent(node, TreeNode.ROOT_ID)));
+                                rightChild.ifPresent(node -> batch.put(reparent(node, TreeNode.ROOT_ID)));
+                                return batch.put(focusNode).delete(childNode);
+                            })
+                            .thenCompose(tree::commitAsync);
+                }
+
+                return getParent(focusNode).thenCompose(parentNode -> {
+                    if (focusNode.getId().equals(parentNode.getLeftChild()))
+                        parentNode.setLeftChild(childNode.getId());
+                    if (focusNode.getId().equals(parentNode.getRightChild()))
+                        parentNode.setRightChild(childNode.getId());
+
+                    childNode.setParent(parentNode.getId());
+                    if (focusNode.isFenced())
+                        childNode.setFence(focusNode.getLowKey(), focusNode.getHighKey());
+                    return tree.commitAsync(batch.put(childNode).put(parentNode).delete(focusNode));
+                });
+            });
+        }
+
+        AtomicReference<BinaryTreeNode> parentSmallRightNode = new AtomicReference<>(focusNode);
+        List<BinaryTreeNode> spine = new ArrayList<>();
+
+        return getExistingNode(focusNode, focusNode.getRightChild())
+                .thenCompose(rightNode -> walk(rightNode, node -> {
+                    if (!spine.isEmpty() && (node.getKey().compareTo(focusNode.getKey()) <= 0
+                            || node.getKey().compareTo(spine.get(spine.size() - 1).getKey()) >= 0))
+                        throw tree.stale(AbstractBinaryCloudTree.with(spine, node));
+                    if (node.getLeftChild() != null) {
+                        parentSmallRightNode.set(node);
+                        spine.add(node);
+                    }
+                    return node.getLeftChild();
+                }))
+                .thenCompose(smallRightNode -> {
+                    BinaryTreeNode parentNode = parentSmallRightNode.get();
+
+                    if (parentNode.getId().equals(focusNode.getId()))
+                        parentNode.setRightChild(smallRightNode.getRightChild());
+                    else
+                        parentNode.setLeftChild(smallRightNode.getRightChild());
+
+                    batch.put(parentNode);
+                    AbstractBinaryCloudTree.raiseLowFences(spine, smallRightNode.getKey(), batch);
+
+                    return getOptionalNode(smallRightNode, smallRightNode.getRightChild()).thenCompose(rightNode -> {
+                        rightNode.ifPresent(node -> batch.put(reparent(node, parentNode.getId())));
+
+                        focusNode.setKey(smallRightNode.getKey());
+                        focusNode.setValue(smallRightNode.getValue());
+                        return tree.commitAsync(batch.put(focusNode).delete(smallRightNode));
+                    });
+                });
+    }
+
+    private static BinaryTreeNode reparent(BinaryTreeNode node, String parent) {
+        node.setParent(parent);
+        return node;
+    }
+
+    private static Function<BinaryTreeNode, String> towards(String key) {
+        return node -> {
+            int compareValue = key.compareTo(node.getKey());
+            if (compareValue < 0)
+                return node.getLeftChild();
+            if (compareValue > 0)
+                return node.getRightChild();
+            return null;
+        };
+    }
+
+    /**
+     * Walks down towards {@code key}, recording the nodes passed in {@code path}, and fails the same way as
+     * {@link AbstractBinaryCloudTree#descend} when the cached nodes disagree with each other.
+     */
+    private CompletableFuture<BinaryTreeNode> walkTowards(BinaryTreeNode root, String key, List<BinaryTreeNode> path) {
+        return walk(root, node -> {
+            if (!path.isEmpty() && !AbstractBinaryCloudTree.follows(path, key, node.getKey()))
+                throw tree.stale(AbstractBinaryCloudTree.with(path, node));
+            path.add(node);
+            return towards(key).apply(node);
+        });
+    }
+
+    /**
+     * Follows {@code step} from {@code start} until it returns null and completes with the node it stopped at.
+     */
+    private CompletableFuture<BinaryTreeNode> walk(BinaryTreeNode start, Function<BinaryTreeNode, String> step) {
+        BinaryTreeNode node = start;
+
+        while (true) {
+            String nextId = step.apply(node);
+            if (nextId == null)
+                return CompletableFuture.completedFuture(node);
+
+            CompletableFuture<BinaryTreeNode> next = getExistingNode(node, nextId);
+            if (!next.isDone() || next.isCompletedExceptionally())
+                return next.thenCompose(nextNode -> walk(nextNode, step));
+
+            node = next.join();
+        }
+    }
+
+    /**
+     * Reads the node {@code from} links to. One that is gone means {@code from} was read from the cache after another
+     * writer changed it, so the operation fails as a conflict with {@code from} dropped from the cache.
+     */
+    private CompletableFuture<BinaryTreeNode> getExistingNode(BinaryTreeNode from, String id) {
+        return tree.getNodeAsync(id)
+                .thenApply(node -> node.orElseThrow(() -> tree.stale(Collections.singletonList(from))));
+    }
+
+    private CompletableFuture<Optional<BinaryTreeNode>> getOptionalNode(BinaryTreeNode from, String id) {
+        if (id == null)
+            return CompletableFuture.completedFuture(Optional.empty());
+        return getExistingNode(from, id).thenApply(Optional::of);
+    }
+
+    /**
+     * Reads the parent of {@code node}, failing like {@link #getExistingNode} when it doesn't link back to the node.
+     */
+    private CompletableFuture<BinaryTreeNode> getParent(BinaryTreeNode node) {
+        return getExistingNode(node, node.getParent()).thenApply(parent -> {
+            if (!node.getId().equals(parent.getLeftChild()) && !node.getId().equals(parent.getRightChild()))
+                throw tree.stale(Arrays.asList(node, parent));
+            return parent;
+        });
+    }
+}
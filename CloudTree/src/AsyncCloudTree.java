@@ -0,0 +1,15 @@
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link CloudTree} whose operations return straight away and complete once every read and write they need is done,
+ * so a caller can keep many operations in flight without a thread for each.
+ */
+public interface AsyncCloudTree {
+
+    CompletableFuture<Void> insert(String key, String value);
+
+    CompletableFuture<Optional<String>> query(String key);
+
+    CompletableFuture<Optional<String>> delete(String key);
+}
@@ -0,0 +1,686 @@
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A B+ tree where every DynamoDB item holds up to {@code order - 1} sorted keys.
+ *
+ * Values only live in the leaves, and every leaf points at the next one so ordered reads can walk the leaves without
+ * going back up the tree. Operations keep the path they walked instead of storing parent pointers, so a split or merge
+ * only rewrites the nodes whose contents actually change. The root always stays at {@link TreeNode#ROOT_ID}: when it
+ * splits its entries move into two new children, and when it is left with one child that child moves up into it.
+ *
+ * Each item is limited to 400 KB, so pick an order that keeps {@code order} keys and values under that.
+ */
+public class BPlusCloudTree extends AbstractCloudTree<BPlusTreeNode> {
+
+    public static final int DEFAULT_ORDER = 64;
+
+    private final int maxKeys;
+    private final int minKeys;
+
+    public BPlusCloudTree(String treeName, String credentialsFile) throws InterruptedException {
+        this(treeName, credentialsFile, DEFAULT_ORDER, DEFAULT_CACHE_SIZE);
+    }
+
+    public BPlusCloudTree(String treeName, String credentialsFile, int order, int cacheSize) throws InterruptedException {
+        this(new DynamoNodeStore(treeName, credentialsFile), order, cacheSize);
+    }
+
+    public BPlusCloudTree(NodeStore store, int order, int cacheSize) {
+        super(store, cacheSize);
+
+        if (order < 3)
+            throw new IllegalArgumentException("Order must be at least 3!");
+
+        this.maxKeys = order - 1;
+        this.minKeys = maxKeys / 2;
+    }
+
+    @Override
+    public BPlusTreeNode createNode(Map<String, AttributeValue> item) {
+        return BPlusTreeNode.builder().fromItem(item).build();
+    }
+
+    public int getOrder() {
+        return maxKeys + 1;
+    }
+
+    @Override
+    public void insert(String key, String value) {
+        measure("insert", () -> retryOnConflict(() -> {
+            tryInsert(key, value);
+            return null;
+        }));
+    }
+
+    private void tryInsert(String key, String value) {
+        Optional<BPlusTreeNode> root = getRootNode();
+        if (!root.isPresent()) {
+            putNode(BPlusTreeNode.builder()
+                    .keys(Collections.singletonList(key))
+                    .values(Collections.singletonList(value))
+                    .isRoot()
+                    .build());
+            return;
+        }
+
+        Deque<PathEntry> path = new ArrayDeque<>();
+        BPlusTreeNode node = findLeaf(root.get(), key, path);
+
+        int position = Collections.binarySearch(node.getKeys(), key);
+        if (position >= 0) {
+            if (!node.getValues().get(position).equals(value)) {
+                node.getValues().set(position, value);
+                putNode(node);
+            }
+            return;
+        }
+
+        NodeBatch batch = new NodeBatch();
+        fence(path, node, key, batch);
+
+        node.getKeys().add(-(position + 1), key);
+        node.getValues().add(-(position + 1), value);
+        batch.put(node);
+
+        while (node.size() > maxKeys) {
+            if (node.isRoot()) {
+                splitRoot(node, batch);
+                break;
+            }
+
+            BPlusTreeNode sibling = split(node);
+            String separator = node.isLeaf() ? sibling.getKeys().get(0) : node.getKeys().remove(node.size() - 1);
+            if (node.isFenced()) {
+                sibling.setFence(separator, node.getHighKey());
+                node.setFence(node.getLowKey(), separator);
+            }
+            batch.put(sibling);
+
+            PathEntry parent = path.pop();
+            parent.node.getKeys().add(parent.index, separator);
+            parent.node.getChildren().add(parent.index + 1, sibling.getId());
+            batch.put(parent.node);
+            node = parent.node;
+        }
+
+        commit(batch);
+    }
+
+    /**
+     * Moves the upper half of an over-full node into a new right sibling. For internal nodes the key that separates
+     * the two halves is left at the end of {@code node} for the caller to move up.
+     */
+    private BPlusTreeNode split(BPlusTreeNode node) {
+        int keep = node.isLeaf() ? (node.size() + 1) / 2 : node.size() / 2 + 1;
+
+        BPlusTreeNode.Builder builder = BPlusTreeNode.builder()
+                .leaf(node.isLeaf())
+                .keys(tail(node.getKeys(), keep));
+
+        if (node.isLeaf()) {
+            builder.values(tail(node.getValues(), keep))
+                    .next(node.getNext());
+        } else {
+            builder.children(tail(node.getChildren(), keep));
+        }
+
+        BPlusTreeNode sibling = builder.build();
+        if (node.isLeaf())
+            node.setNext(sibling.getId());
+        return sibling;
+    }
+
+    /**
+     * The root keeps its id, so instead of gaining a parent its entries move into two new children.
+     */
+    private void splitRoot(BPlusTreeNode root, NodeBatch batch) {
+        BPlusTreeNode left = BPlusTreeNode.builder()
+                .leaf(root.isLeaf())
+                .keys(root.getKeys())
+                .values(root.getValues())
+                .children(root.getChildren())
+                .build();
+
+        BPlusTreeNode right = split(left);
+        String separator = left.isLeaf() ? right.getKeys().get(0) : left.getKeys().remove(left.size() - 1);
+        left.setFence(null, separator);
+        right.setFence(separator, null);
+
+        root.setLeaf(false);
+        root.setKeys(new ArrayList<>(Collections.singletonList(separator)));
+        root.setValues(new ArrayList<>());
+        root.setChildren(new ArrayList<>(Arrays.asList(left.getId(), right.getId())));
+        root.setNext(null);
+
+        batch.put(left).put(right).put(root);
+    }
+
+    private static List<String> tail(List<String> list, int from) {
+        List<String> tail = new ArrayList<>(list.subList(from, list.size()));
+        list.subList(from, list.size()).clear();
+        return tail;
+    }
+
+    @Override
+    public Optional<String> query(String key) {
+        return measure("query", () -> retryOnConflict(() -> find(key)));
+    }
+
+    private Optional<String> find(String key) {
+        Optional<BPlusTreeNode> root = getRootNode();
+        if (!root.isPresent())
+            return Optional.empty();
+
+        Deque<PathEntry> path = new ArrayDeque<>();
+        BPlusTreeNode leaf = findLeaf(root.get(), key, path);
+        checkCovers(path, leaf, key);
+        int position = Collections.binarySearch(leaf.getKeys(), key);
+        return position >= 0 ? Optional.of(leaf.getValues().get(position)) : Optional.empty();
+    }
+
+    @Override
+    public Optional<String> delete(String key) {
+        return measure("delete", () -> retryOnConflict(() -> tryDelete(key)));
+    }
+
+    private Optional<String> tryDelete(String key) {
+        Optional<BPlusTreeNode> root = getRootNode();
+        if (!root.isPresent())
+            return Optional.empty();
+
+        Deque<PathEntry> path = new ArrayDeque<>();
+        BPlusTreeNode node = findLeaf(root.get(), key, path);
+        checkCovers(path, node, key);
+
+        int position = Collections.binarySearch(node.getKeys(), key);
+        if (position < 0)
+            return Optional.empty();
+
+        node.getKeys().remove(position);
+        String oldValue = node.getValues().remove(position);
+
+        NodeBatch batch = new NodeBatch();
+        batch.put(node);
+        Map<String, BPlusTreeNode> loaded = new HashMap<>();
+
+        while (!node.isRoot() && node.size() < minKeys) {
+            PathEntry parent = path.pop();
+            rebalance(node, parent.node, parent.index, batch, loaded);
+            node = parent.node;
+        }
+
+        if (node.isRoot()) {
+            if (node.isLeaf() && node.size() == 0) {
+                batch.delete(node);
+            } else if (!node.isLeaf() && node.size() == 0) {
+                //The root has a single child left, so that child moves up into the root
+                String childId = node.getChildren().get(0);
+                BPlusTreeNode child = loaded.containsKey(childId) ? loaded.get(childId) : getChild(node, 0);
+                node.setLeaf(child.isLeaf());
+                node.setKeys(child.getKeys());
+                node.setValues(child.getValues());
+                node.setChildren(child.getChildren());
+                node.setNext(child.getNext());
+                batch.put(node);
+                batch.delete(child);
+            }
+        }
+
+        commit(batch);
+        return Optional.of(oldValue);
+    }
+
+    /**
+     * Fixes an under-full node by borrowing an entry from a sibling that can spare one, or by merging with a sibling
+     * when neither can.
+     */
+    private void rebalance(BPlusTreeNode node, BPlusTreeNode parent, int index, NodeBatch batch,
+                           Map<String, BPlusTreeNode> loaded) {
+        loaded.put(node.getId(), node);
+
+        BPlusTreeNode left = index > 0 ? getChild(parent, index - 1) : null;
+        if (left != null)
+            loaded.put(left.getId(), left);
+
+        if (left != null && left.size() > minKeys) {
+            if (node.isLeaf()) {
+                node.getKeys().add(0, removeLast(left.getKeys()));
+                node.getValues().add(0, removeLast(left.getValues()));
+                parent.getKeys().set(index - 1, node.getKeys().get(0));
+            } else {
+                node.getKeys().add(0, parent.getKeys().get(index - 1));
+                node.getChildren().add(0, removeLast(left.getChildren()));
+                parent.getKeys().set(index - 1, removeLast(left.getKeys()));
+            }
+            moveFence(left, node, parent.getKeys().get(index - 1));
+            batch.put(left).put(node).put(parent);
+            return;
+        }
+
+        BPlusTreeNode right = index < parent.getChildren().size() - 1 ? getChild(parent, index + 1) : null;
+        if (right != null)
+            loaded.put(right.getId(), right);
+        if (right != null && right.size() > minKeys) {
+            if (node.isLeaf()) {
+                node.getKeys().add(right.getKeys().remove(0));
+                node.getValues().add(right.getValues().remove(0));
+                parent.getKeys().set(index, right.getKeys().get(0));
+            } else {
+                node.getKeys().add(parent.getKeys().get(index));
+                node.getChildren().add(right.getChildren().remove(0));
+                parent.getKeys().set(index, right.getKeys().remove(0));
+            }
+            moveFence(node, right, parent.getKeys().get(index));
+            batch.put(right).put(node).put(parent);
+            return;
+        }
+
+        if (left != null)
+            merge(left, node, parent, index - 1, batch);
+        else
+            merge(node, right, parent, index, batch);
+    }
+
+    /**
+     * Merges {@code right} into {@code left}, where {@code left} is the parent's child at {@code index}.
+     */
+    private void merge(BPlusTreeNode left, BPlusTreeNode right, BPlusTreeNode parent, int index, NodeBatch batch) {
+        String separator = parent.getKeys().remove(index);
+        parent.getChildren().remove(index + 1);
+
+        if (left.isLeaf()) {
+            left.getKeys().addAll(right.getKeys());
+            left.getValues().addAll(right.getValues());
+            left.setNext(right.getNext());
+        } else {
+            left.getKeys().add(separator);
+            left.getKeys().addAll(right.getKeys());
+            left.getChildren().addAll(right.getChildren());
+        }
+
+        if (left.isFenced() && right.isFenced())
+            left.setFence(left.getLowKey(), right.getHighKey());
+
+        batch.put(left).put(parent);
+        batch.delete(right);
+    }
+
+    /**
+     * Moves the boundary between the fences of two neighbouring nodes to their new separator.
+     */
+    private static void moveFence(BPlusTreeNode left, BPlusTreeNode right, String separator) {
+        if (left.isFenced())
+            left.setFence(left.getLowKey(), separator);
+        if (right.isFenced())
+            right.setFence(separator, right.getHighKey());
+    }
+
+    /**
+     * Whether {@code key} lies inside the fence of {@code node}, which includes its low end. The root holds every key
+     * whatever it stores.
+     */
+    static boolean covers(BPlusTreeNode node, String key) {
+        return node.isRoot() || node.isFenced()
+                && (node.getLowKey() == null || key.compareTo(node.getLowKey()) >= 0)
+                && (node.getHighKey() == null || key.compareTo(node.getHighKey()) < 0);
+    }
+
+    /**
+     * Conditions an insert into {@code leaf} on it still being the leaf for {@code key}. When the leaf's fence covers
+     * the key, the write to the leaf is all it takes. Otherwise the path is checked from the deepest node whose fence
+     * covers the key, and the nodes below it get the fences the path gives them.
+     */
+    private static void fence(Deque<PathEntry> path, BPlusTreeNode leaf, String key, NodeBatch batch) {
+        if (covers(leaf, key))
+            return;
+
+        List<PathEntry> entries = new ArrayList<>(path);
+        Collections.reverse(entries);
+        int anchor = entries.size() - 1;
+        while (!covers(entries.get(anchor).node, key))
+            anchor--;
+
+        BPlusTreeNode node = entries.get(anchor).node;
+        String low = node.isRoot() ? null : node.getLowKey();
+        String high = node.isRoot() ? null : node.getHighKey();
+        batch.check(node);
+
+        for (int i = anchor; i < entries.size(); i++) {
+            PathEntry entry = entries.get(i);
+            if (entry.index > 0)
+                low = entry.node.getKeys().get(entry.index - 1);
+            if (entry.index < entry.node.size())
+                high = entry.node.getKeys().get(entry.index);
+
+            node = i + 1 < entries.size() ? entries.get(i + 1).node : leaf;
+            if (node.hasFence(low, high)) {
+                batch.check(node);
+            } else {
+                node.setFence(low, high);
+                batch.put(node);
+            }
+        }
+    }
+
+    /**
+     * Fails the operation when {@code leaf} has a fence that doesn't cover {@code key}, which means the path to it was
+     * read from the cache after another writer moved the key's range elsewhere. The path and leaf are dropped from
+     * the cache so the retry reads them again.
+     */
+    private void checkCovers(Deque<PathEntry> path, BPlusTreeNode leaf, String key) {
+        if (!leaf.isFenced() || covers(leaf, key))
+            return;
+
+        List<BPlusTreeNode> nodes = new ArrayList<>();
+        path.forEach(entry -> nodes.add(entry.node));
+        nodes.add(leaf);
+        throw stale(nodes);
+    }
+
+    private static String removeLast(List<String> list) {
+        return list.remove(list.size() - 1);
+    }
+
+    /**
+     * Walks down from {@code node} to the leaf that holds or would hold {@code key}, recording the nodes passed and
+     * the child index taken in {@code path} when one is given. A child that is gone means its parent came out of the
+     * cache after another writer changed it, so the parent is dropped from the cache and the operation run again.
+     */
+    private BPlusTreeNode findLeaf(BPlusTreeNode node, String key, Deque<PathEntry> path) {
+        while (!node.isLeaf()) {
+            int index = childIndex(node, key);
+            if (path != null)
+                path.push(new PathEntry(node, index));
+            BPlusTreeNode parent = node;
+            node = getNode(node.getChildren().get(index)).orElseThrow(() -> stale(Collections.singletonList(parent)));
+        }
+        return node;
+    }
+
+    static int childIndex(BPlusTreeNode node, String key) {
+        int position = Collections.binarySearch(node.getKeys(), key);
+        return position >= 0 ? position + 1 : -(position + 1);
+    }
+
+    private BPlusTreeNode getChild(BPlusTreeNode node, int index) {
+        return getNode(node.getChildren().get(index)).orElseThrow(() -> stale(Collections.singletonList(node)));
+    }
+
+    /**
+     * Walks all the keys down together, reading each level's nodes with one batched call. A child that is gone runs
+     * the walk again with its parent dropped from the cache.
+     */
+    @Override
+    public Map<String, String> queryAll(Collection<String> keys) {
+        return measure("queryAll", () -> retryOnConflict(() -> walkAll(keys)));
+    }
+
+    private Map<String, String> walkAll(Collection<String> keys) {
+        Map<String, String> values = new HashMap<>();
+        Map<String, List<String>> level = new HashMap<>();
+        Map<String, BPlusTreeNode> parents = new HashMap<>();
+        level.put(TreeNode.ROOT_ID, new ArrayList<>(new LinkedHashSet<>(keys)));
+
+        while (!level.isEmpty()) {
+            Map<String, BPlusTreeNode> nodes = getNodes(level.keySet());
+            Map<String, List<String>> nextLevel = new HashMap<>();
+
+            for (Map.Entry<String, List<String>> entry : level.entrySet()) {
+                BPlusTreeNode node = nodes.get(entry.getKey());
+                if (node == null) {
+                    if (entry.getKey().equals(TreeNode.ROOT_ID))
+                        return values;
+                    throw stale(Collections.singletonList(parents.get(entry.getKey())));
+                }
+
+                for (String key : entry.getValue()) {
+                    if (node.isLeaf()) {
+                        int position = Collections.binarySearch(node.getKeys(), key);
+                        if (position >= 0)
+                            values.put(key, node.getValues().get(position));
+                    } else {
+                        String childId = node.getChildren().get(childIndex(node, key));
+                        nextLevel.computeIfAbsent(childId, id -> new ArrayList<>()).add(key);
+                        parents.put(childId, node);
+                    }
+                }
+            }
+
+            level = nextLevel;
+        }
+
+        return values;
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> range(String fromKey, String toKey) {
+        return new RangeIterator(fromKey, toKey);
+    }
+
+    /**
+     * Reads the leaves left to right through their next pointers. The next leaf starts loading in the background as
+     * soon as the iterator moves onto a leaf. A next leaf that is gone was merged away by another writer, so the
+     * iterator finds its place again from the root, just after the last key it returned.
+     */
+    private class RangeIterator implements Iterator<Map.Entry<String, String>> {
+        private final String fromKey;
+        private final String toKey;
+        private String lastKey;
+        private BPlusTreeNode leaf;
+        private CompletableFuture<Optional<BPlusTreeNode>> nextLeaf;
+        private int position;
+
+        RangeIterator(String fromKey, String toKey) {
+            this.fromKey = fromKey;
+            this.toKey = toKey;
+            seek();
+        }
+
+        private void seek() {
+            for (int restarts = 0; ; restarts++) {
+                try {
+                    Optional<BPlusTreeNode> root = getRootNode();
+                    if (!root.isPresent()) {
+                        leaf = null;
+                        return;
+                    }
+
+                    String startKey = lastKey != null ? lastKey : fromKey == null ? "" : fromKey;
+                    moveTo(findLeaf(root.get(), startKey, null));
+                    int start = Collections.binarySearch(leaf.getKeys(), startKey);
+                    position = start < 0 ? -(start + 1) : lastKey != null ? start + 1 : start;
+                    skipExhaustedLeaves();
+                    return;
+                } catch (NodeConflictException e) {
+                    if (restarts == MAX_CONFLICT_RETRIES)
+                        throw e;
+                }
+            }
+        }
+
+        private void moveTo(BPlusTreeNode node) {
+            leaf = node;
+            position = 0;
+            nextLeaf = node.getNext() == null ? null : prefetchNode(node.getNext());
+        }
+
+        private void skipExhaustedLeaves() {
+            while (leaf != null && position >= leaf.size()) {
+                if (nextLeaf == null) {
+                    leaf = null;
+                    return;
+                }
+                BPlusTreeNode previous = leaf;
+                moveTo(await(nextLeaf).orElseThrow(() -> stale(Collections.singletonList(previous))));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return leaf != null && (toKey == null || leaf.getKeys().get(position).compareTo(toKey) < 0);
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+
+            Map.Entry<String, String> entry = new AbstractMap.SimpleImmutableEntry<>(
+                    leaf.getKeys().get(position), leaf.getValues().get(position));
+            lastKey = entry.getKey();
+            position++;
+            try {
+                skipExhaustedLeaves();
+            } catch (NodeConflictException e) {
+                seek();
+            }
+            return entry;
+        }
+    }
+
+    @Override
+    public void bulkLoad(Iterator<Map.Entry<String, String>> entries) {
+        if (getRootNode().isPresent())
+            throw new IllegalStateException("Can only bulk load an empty tree!");
+
+        try (ExternalSorter.SortedEntries sorted = ExternalSorter.sort(entries);
+             NodeWriter writer = newBatchWriter()) {
+            if (sorted.size() > 0)
+                new BulkBuilder(sorted.size(), writer).build(sorted.iterator());
+        }
+    }
+
+    /**
+     * Builds the tree bottom up from sorted entries. The number of nodes on every level is worked out from the entry
+     * count first, and entries are spread evenly over them so no node ends up under-full. Only the node currently
+     * being filled on each level is kept in memory.
+     */
+    private class BulkBuilder {
+        private final NodeWriter writer;
+        private final List<long[]> levels = new ArrayList<>();
+        private final List<BPlusTreeNode> open = new ArrayList<>();
+        private final List<Long> filled = new ArrayList<>();
+        private final List<String> firstKeys = new ArrayList<>();
+        private String nextLeafId = TreeNode.newId();
+        private String nextKey;
+
+        BulkBuilder(long entries, NodeWriter writer) {
+            this.writer = writer;
+
+            long units = entries;
+            long nodes = (units + maxKeys - 1) / maxKeys;
+            while (true) {
+                levels.add(new long[]{units, nodes});
+                open.add(null);
+                filled.add(0L);
+                firstKeys.add(null);
+                if (nodes == 1)
+                    break;
+                units = nodes;
+                nodes = (units + maxKeys) / (maxKeys + 1);
+            }
+        }
+
+        /**
+         * Reads one entry ahead, since a node's fence ends at the first key of the node after it, which is the next
+         * entry to arrive.
+         */
+        void build(Iterator<Map.Entry<String, String>> entries) {
+            Map.Entry<String, String> entry = entries.hasNext() ? entries.next() : null;
+            while (entry != null) {
+                Map.Entry<String, String> next = entries.hasNext() ? entries.next() : null;
+                nextKey = next == null ? null : next.getKey();
+                add(0, entry.getKey(), entry.getValue());
+                entry = next;
+            }
+        }
+
+        private long sizeOf(int level, long index) {
+            long units = levels.get(level)[0];
+            long nodes = levels.get(level)[1];
+            return units / nodes + (index < units % nodes ? 1 : 0);
+        }
+
+        private void add(int level, String key, String valueOrChild) {
+            boolean top = level == levels.size() - 1;
+            BPlusTreeNode node = open.get(level);
+
+            if (node == null) {
+                BPlusTreeNode.Builder builder = BPlusTreeNode.builder().leaf(level == 0);
+                if (top) {
+                    builder.isRoot();
+                } else if (level == 0) {
+                    builder.id(nextLeafId);
+                }
+                node = builder.build();
+                open.set(level, node);
+                firstKeys.set(level, key);
+            }
+
+            if (level == 0) {
+                node.getKeys().add(key);
+                node.getValues().add(valueOrChild);
+            } else {
+                if (!node.getChildren().isEmpty())
+                    node.getKeys().add(key);
+                node.getChildren().add(valueOrChild);
+            }
+
+            int units = level == 0 ? node.size() : node.getChildren().size();
+            long index = filled.get(level);
+            if (units < sizeOf(level, index))
+                return;
+
+            if (level == 0 && index < levels.get(0)[1] - 1) {
+                nextLeafId = TreeNode.newId();
+                node.setNext(nextLeafId);
+            }
+
+            node.setFence(index == 0 ? null : firstKeys.get(level), nextKey);
+            writer.put(node);
+            open.set(level, null);
+            filled.set(level, index + 1);
+
+            if (!top)
+                add(level + 1, firstKeys.get(level), node.getId());
+        }
+    }
+
+    @Override
+    public void print() {
+        Optional<BPlusTreeNode> root = getRootNode();
+
+        if(!root.isPresent())
+            System.out.println("Empty Tree");
+        else
+            print(root.get(), "", true);
+    }
+
+    private void print(BPlusTreeNode node, String prefix, boolean isTail) {
+        StringJoiner label = new StringJoiner(node.isLeaf() ? ", " : " | ", node.isLeaf() ? "" : "[", node.isLeaf() ? "" : "]");
+        for (int i = 0; i < node.size(); i++) {
+            label.add(node.isLeaf() ? node.getKeys().get(i) + " : " + node.getValues().get(i) : node.getKeys().get(i));
+        }
+        System.out.println(prefix + (isTail ? "└── " : "├── ") + label);
+
+        if (node.isLeaf())
+            return;
+
+        for (int i = 0; i < node.getChildren().size(); i++) {
+            print(getChild(node, i), prefix + (isTail ? "    " : "│   "), i == node.getChildren().size() - 1);
+        }
+    }
+
+    private static class PathEntry {
+        private final BPlusTreeNode node;
+        private final int index;
+
+        PathEntry(BPlusTreeNode node, int index) {
+            this.node = node;
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * A wide node of a {@link BPlusCloudTree}. Leaves hold sorted keys with their values and the id of the next leaf.
+ * Internal nodes hold sorted separator keys and one more child id than they have keys.
+ */
+public class BPlusTreeNode extends TreeNode {
+
+    private boolean leaf;
+    private List<String> keys;
+    private List<String> values;
+    private List<String> children;
+    private String next;
+
+    private BPlusTreeNode(String id, String parent, long version, boolean leaf, List<String> keys,
+                          List<String> values, List<String> children, String next) {
+        super(id, null, null, parent, version);
+        this.leaf = leaf;
+        this.keys = keys;
+        this.values = values;
+        this.children = children;
+        this.next = next;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public boolean isLeaf() {
+        return leaf;
+    }
+
+    public List<String> getKeys() {
+        return keys;
+    }
+
+    public List<String> getValues() {
+        return values;
+    }
+
+    public List<String> getChildren() {
+        return children;
+    }
+
+    public String getNext() {
+        return next;
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    public void setLeaf(boolean leaf) {
+        this.leaf = leaf;
+    }
+
+    public void setKeys(List<String> keys) {
+        this.keys = keys;
+    }
+
+    public void setValues(List<String> values) {
+        this.values = values;
+    }
+
+    public void setChildren(List<String> children) {
+        this.children = children;
+    }
+
+    public void setNext(String next) {
+        this.next = next;
+    }
+
+    @Override
+    public Map<String, AttributeValue> asItem() {
+        Map<String, AttributeValue> item = super.asItem();
+        item.put("leaf", new AttributeValue().withBOOL(leaf));
+        item.put("keys", toList(keys));
+        if (leaf) {
+            item.put("values", new AttributeValue().withL(values.stream().map(TreeNode::encodeValue).collect(Collectors.toList())));
+            if (next != null)
+                item.put("next", new AttributeValue(next));
+        } else {
+            item.put("children", toList(children));
+        }
+        return item;
+    }
+
+    private static AttributeValue toList(List<String> strings) {
+        return new AttributeValue().withL(strings.stream().map(AttributeValue::new).collect(Collectors.toList()));
+    }
+
+    private static List<String> fromList(AttributeValue list) {
+        if (list == null)
+            return new ArrayList<>();
+        return list.getL().stream().map(AttributeValue::getS).collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    public static class Builder extends TreeNode.Builder {
+
+        private boolean leaf = true;
+        private List<String> keys = new ArrayList<>();
+        private List<String> values = new ArrayList<>();
+        private List<String> children = new ArrayList<>();
+        private String next;
+
+        @Override
+        public Builder fromItem(Map<String, AttributeValue> item) {
+            super.fromItem(item);
+            this.leaf = item.get("leaf") == null || item.get("leaf").getBOOL();
+            this.keys = fromList(item.get("keys"));
+            this.values = item.get("values") == null ? new ArrayList<>() : item.get("values").getL().stream()
+                    .map(TreeNode::decodeValue)
+                    .collect(Collectors.toCollection(ArrayList::new));
+            this.children = fromList(item.get("children"));
+            this.next = item.get("next") == null ? null : item.get("next").getS();
+            return this;
+        }
+
+        public Builder leaf(boolean leaf) {
+            this.leaf = leaf;
+            return this;
+        }
+
+        public Builder keys(List<String> keys) {
+            this.keys = new ArrayList<>(keys);
+            return this;
+        }
+
+        public Builder values(List<String> values) {
+            this.values = new ArrayList<>(values);
+            return this;
+        }
+
+        public Builder children(List<String> children) {
+            this.children = new ArrayList<>(children);
+            return this;
+        }
+
+        public Builder next(String next) {
+            this.next = next;
+            return this;
+        }
+
+        @Override
+        public BPlusTreeNode build() {
+            return finish(new BPlusTreeNode(id, parent, version, leaf, keys, values, children, next));
+        }
+    }
+}
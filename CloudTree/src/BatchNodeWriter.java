@@ -0,0 +1,132 @@
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Streams node writes to DynamoDB with BatchWriteItem calls of up to 25 items, several in flight at once.
+ *
+ * Writes are not atomic across chunks, so this is meant for loading nodes nothing else can see yet. The number of
+ * chunks waiting to be written is bounded so a large load doesn't pile up in memory. Unprocessed items are retried
+ * with exponential backoff.
+ */
+public class BatchNodeWriter implements NodeWriter {
+
+    public static final int MAX_BATCH_ITEMS = 25;
+    public static final int DEFAULT_THREADS = 8;
+
+    private static final int MAX_RETRIES = 10;
+
+    private final AmazonDynamoDB db;
+    private final String treeName;
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final List<Future<?>> pending = new ArrayList<>();
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+    private List<WriteRequest> chunk = new ArrayList<>(MAX_BATCH_ITEMS);
+    private long written;
+
+    public BatchNodeWriter(AmazonDynamoDB db, String treeName, int threads) {
+        this.db = db;
+        this.treeName = treeName;
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.inFlight = new Semaphore(threads * 2);
+    }
+
+    @Override
+    public void put(Map<String, AttributeValue> item) {
+        add(new WriteRequest().withPutRequest(new PutRequest().withItem(item)));
+    }
+
+    @Override
+    public void delete(String id) {
+        Map<String, AttributeValue> key = new HashMap<>();
+        key.put("id", new AttributeValue(id));
+        add(new WriteRequest().withDeleteRequest(new DeleteRequest().withKey(key)));
+    }
+
+    private void add(WriteRequest request) {
+        chunk.add(request);
+        written++;
+        if (chunk.size() == MAX_BATCH_ITEMS)
+            flush();
+    }
+
+    @Override
+    public long getWritten() {
+        return written;
+    }
+
+    private void flush() {
+        checkFailure();
+        if (chunk.isEmpty())
+            return;
+
+        List<WriteRequest> requests = chunk;
+        chunk = new ArrayList<>(MAX_BATCH_ITEMS);
+
+        inFlight.acquireUninterruptibly();
+        pending.removeIf(Future::isDone);
+        pending.add(executor.submit(() -> {
+            try {
+                write(requests);
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                inFlight.release();
+            }
+        }));
+    }
+
+    private void write(List<WriteRequest> requests) {
+        Map<String, List<WriteRequest>> items = new HashMap<>();
+        items.put(treeName, requests);
+
+        for (int attempt = 0; !items.isEmpty(); attempt++) {
+            if (attempt > MAX_RETRIES)
+                throw new RuntimeException("Couldn't write batch to " + treeName + " after " + MAX_RETRIES + " retries!");
+
+            if (attempt > 0) {
+                try {
+                    Thread.sleep(Math.min(1000L, 25L << attempt));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while writing batch!", e);
+                }
+            }
+
+            BatchWriteItemResult result = db.batchWriteItem(new BatchWriteItemRequest().withRequestItems(items));
+            items = result.getUnprocessedItems() == null ? Collections.emptyMap() : result.getUnprocessedItems();
+        }
+    }
+
+    private void checkFailure() {
+        RuntimeException e = failure.get();
+        if (e != null)
+            throw e;
+    }
+
+    /**
+     * Flushes the last partial chunk and waits for every write to finish.
+     */
+    @Override
+    public void close() {
+        try {
+            flush();
+            for (Future<?> future : pending) {
+                future.get();
+            }
+            checkFailure();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while writing batch!", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
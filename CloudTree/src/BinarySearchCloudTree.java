@@ -1,14 +1,26 @@
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Queue;
 
-public class BinarySearchCloudTree extends AbstractCloudTree<BinaryTreeNode> {
+public class BinarySearchCloudTree extends AbstractBinaryCloudTree<BinaryTreeNode> {
 
     public BinarySearchCloudTree(String treeName, String credentialsFile) throws InterruptedException {
-        super(treeName, credentialsFile);
+        super(treeName, credentialsFile, DEFAULT_CACHE_SIZE);
+    }
+
+    public BinarySearchCloudTree(String treeName, String credentialsFile, int cacheSize) throws InterruptedException {
+        super(treeName, credentialsFile, cacheSize);
+    }
+
+    public BinarySearchCloudTree(NodeStore store, int cacheSize) {
+        super(store, cacheSize);
     }
 
     @Override
@@ -16,8 +28,28 @@ public class BinarySearchCloudTree extends AbstractCloudTree<BinaryTreeNode> {
         return BinaryTreeNode.builder().fromItem(item).build();
     }
 
+    @Override
+    BinaryTreeNode createBalancedNode(String id, String key, String value, String parent,
+                                      String leftChild, String rightChild, int leftHeight, int rightHeight) {
+        BinaryTreeNode.Builder builder = BinaryTreeNode.builder()
+                .leftChild(leftChild)
+                .rightChild(rightChild);
+        builder.id(id)
+                .key(key)
+                .value(value)
+                .parent(parent);
+        return builder.build();
+    }
+
     @Override
     public void insert(String key, String value) {
+        measure("insert", () -> retryOnConflict(() -> {
+            tryInsert(key, value);
+            return null;
+        }));
+    }
+
+    private void tryInsert(String key, String value) {
         Optional<BinaryTreeNode> root = getRootNode();
         if (!root.isPresent()) {
             putNode(BinaryTreeNode.builder()
@@ -30,31 +62,31 @@ public class BinarySearchCloudTree extends AbstractCloudTree<BinaryTreeNode> {
 
         BinaryTreeNode focusNode = root.get();
         BinaryTreeNode.Builder newNodeBuilder = (BinaryTreeNode.Builder) BinaryTreeNode.builder().key(key).value(value);
+        List<BinaryTreeNode> path = new ArrayList<>();
         while (true) {
+            path.add(focusNode);
             int compareValue = key.compareTo(focusNode.getKey());
             newNodeBuilder.parent(focusNode.getId());
             if (compareValue < 0) {
                 if (focusNode.getLeftChild() == null) {
                     BinaryTreeNode newNode = newNodeBuilder.build();
+                    NodeBatch batch = fencedBatch(path, newNode);
                     focusNode.setLeftChild(newNode.getId());
-                    putNode(newNode);
-                    putNode(focusNode);
+                    commit(batch.put(newNode).put(focusNode));
                     return;
                 }
 
-                focusNode = getNode(focusNode.getLeftChild())
-                        .orElseThrow(() -> new RuntimeException("Invalid Tree! Node should exist but doesn't."));
+                focusNode = descend(path, key, focusNode.getLeftChild());
             } else if (compareValue > 0) {
                 if (focusNode.getRightChild() == null) {
                     BinaryTreeNode newNode = newNodeBuilder.build();
+                    NodeBatch batch = fencedBatch(path, newNode);
                     focusNode.setRightChild(newNode.getId());
-                    putNode(newNode);
-                    putNode(focusNode);
+                    commit(batch.put(newNode).put(focusNode));
                     return;
                 }
 
-                focusNode = getNode(focusNode.getRightChild())
-                        .orElseThrow(() -> new RuntimeException("Invalid Tree! Node should exist but doesn't."));
+                focusNode = descend(path, key, focusNode.getRightChild());
             } else {
                 if (focusNode.getValue().equals(value))
                     return;
@@ -65,40 +97,11 @@ public class BinarySearchCloudTree extends AbstractCloudTree<BinaryTreeNode> {
     }
 
     @Override
-    public Optional<String> query(String key) {
-        Optional<BinaryTreeNode> node = queryNode(key);
-        return node.map(TreeNode::getValue);
-    }
-
-    private Optional<BinaryTreeNode> queryNode(String key) {
-        Optional<BinaryTreeNode> root = getRootNode();
-
-        if (!root.isPresent()) {
-            return Optional.empty();
-        }
-
-        BinaryTreeNode focusNode = root.get();
-
-        while (true) {
-            int compareValue = key.compareTo(focusNode.getKey());
-            if (compareValue < 0) {
-                if (focusNode.getLeftChild() == null)
-                    return Optional.empty();
-                focusNode = getNode(focusNode.getLeftChild())
-                        .orElseThrow(() -> new RuntimeException("Invalid Tree! Node should exist but doesn't."));
-            } else if (compareValue > 0) {
-                if (focusNode.getRightChild() == null)
-                    return Optional.empty();
-                focusNode = getNode(focusNode.getRightChild())
-                        .orElseThrow(() -> new RuntimeException("Invalid Tree! Node should exist but doesn't."));
-            } else {
-                return Optional.of(focusNode);
-            }
-        }
+    public Optional<String> delete(String key) {
+        return measure("delete", () -> retryOnConflict(() -> tryDelete(key)));
     }
 
-    @Override
-    public Optional<String> delete(String key) {
+    private Optional<String> tryDelete(String key) {
         Optional<BinaryTreeNode> query = queryNode(key);
 
         if(!query.isPresent())
@@ -106,19 +109,20 @@ public class BinarySearchCloudTree extends AbstractCloudTree<BinaryTreeNode> {
 
         BinaryTreeNode focusNode = query.get();
         String oldValue = focusNode.getValue();
+        NodeBatch batch = new NodeBatch();
 
         if(focusNode.getLeftChild() == null && focusNode.getRightChild() == null) {
             if(!focusNode.isRoot()) {
-                BinaryTreeNode parentNode = getNode(focusNode.getParent())
-                        .orElseThrow(() -> new RuntimeException("Invalid Tree! Node should exist but doesn't."));
-                if(parentNode.getLeftChild() != null && parentNode.getLeftChild().equals(focusNode.getId()))
+                BinaryTreeNode parentNode = parentOf(focusNode);
+                if(focusNode.getId().equals(parentNode.getLeftChild()))
                     parentNode.setLeftChild(null);
-                if(parentNode.getRightChild() != null && parentNode.getRightChild().equals(focusNode.getId()))
+                if(focusNode.getId().equals(parentNode.getRightChild()))
                     parentNode.setRightChild(null);
-                putNode(parentNode);
+                batch.put(parentNode);
             }
 
-            deleteNode(focusNode.getId());
+            batch.delete(focusNode);
+            commit(batch);
             return Optional.of(oldValue);
         }
 
@@ -127,10 +131,10 @@ public class BinarySearchCloudTree extends AbstractCloudTree<BinaryTreeNode> {
 
             if(focusNode.getLeftChild() != null) {
                 childNode = getNode(focusNode.getLeftChild())
-                        .orElseThrow(() -> new RuntimeException("Invalid Tree! Node should exist but doesn't."));
+                        .orElseThrow(() -> stale(Collections.singletonList(focusNode)));
             } else {
                 childNode = getNode(focusNode.getRightChild())
-                        .orElseThrow(() -> new RuntimeException("Invalid Tree! Node should exist but doesn't."));
+                        .orElseThrow(() -> stale(Collections.singletonList(focusNode)));
             }
 
             if(focusNode.isRoot()) {
@@ -141,46 +145,50 @@ public class BinarySearchCloudTree extends AbstractCloudTree<BinaryTreeNode> {
 
                 if(childNode.getLeftChild() != null) {
                     BinaryTreeNode leftChild = getNode(childNode.getLeftChild())
-                            .orElseThrow(() -> new RuntimeException("Invalid Tree! Node should exist but doesn't."));
+                            .orElseThrow(() -> stale(Arrays.asList(focusNode, childNode)));
                     leftChild.setParent(TreeNode.ROOT_ID);
-                    putNode(leftChild);
+                    batch.put(leftChild);
                 }
 
                 if(childNode.getRightChild() != null) {
                     BinaryTreeNode rightChild = getNode(childNode.getRightChild())
-                            .orElseThrow(() -> new RuntimeException("Invalid Tree! Node should exist but doesn't."));
+                            .orElseThrow(() -> stale(Arrays.asList(focusNode, childNode)));
                     rightChild.setParent(TreeNode.ROOT_ID);
-                    putNode(rightChild);
+                    batch.put(rightChild);
                 }
 
-                putNode(focusNode);
-                deleteNode(childNode.getId());
+                batch.put(focusNode);
+                batch.delete(childNode);
+                commit(batch);
                 return Optional.of(oldValue);
             }
 
-            BinaryTreeNode parentNode = getNode(focusNode.getParent())
-                    .orElseThrow(() -> new RuntimeException("Invalid Tree! Node should exist but doesn't."));
+            BinaryTreeNode parentNode = parentOf(focusNode);
 
-            if(parentNode.getLeftChild().equals(focusNode.getId()))
+            if(focusNode.getId().equals(parentNode.getLeftChild()))
                 parentNode.setLeftChild(childNode.getId());
-            if(parentNode.getRightChild().equals(focusNode.getId()))
+            if(focusNode.getId().equals(parentNode.getRightChild()))
                 parentNode.setRightChild(childNode.getId());
 
             childNode.setParent(parentNode.getId());
-            putNode(childNode);
-            putNode(parentNode);
-            deleteNode(focusNode.getId());
+            if (focusNode.isFenced())
+                childNode.setFence(focusNode.getLowKey(), focusNode.getHighKey());
+            batch.put(childNode);
+            batch.put(parentNode);
+            batch.delete(focusNode);
+            commit(batch);
             return Optional.of(oldValue);
         }
 
         BinaryTreeNode smallRightNode = getNode(focusNode.getRightChild())
-                .orElseThrow(() -> new RuntimeException("Invalid Tree! Node should exist but doesn't."));
+                .orElseThrow(() -> stale(Collections.singletonList(focusNode)));
         BinaryTreeNode parentSmallRightNode = focusNode;
+        List<BinaryTreeNode> spine = new ArrayList<>();
 
         while(smallRightNode.getLeftChild() != null) {
             parentSmallRightNode = smallRightNode;
-            smallRightNode = getNode(smallRightNode.getLeftChild())
-                    .orElseThrow(() -> new RuntimeException("Invalid Tree! Node should exist but doesn't."));
+            spine.add(smallRightNode);
+            smallRightNode = descendLeft(spine, focusNode.getKey());
         }
 
         if(parentSmallRightNode.getId().equals(focusNode.getId())) {
@@ -189,41 +197,33 @@ public class BinarySearchCloudTree extends AbstractCloudTree<BinaryTreeNode> {
             parentSmallRightNode.setLeftChild(smallRightNode.getRightChild());
         }
 
-        putNode(parentSmallRightNode);
+        batch.put(parentSmallRightNode);
+        raiseLowFences(spine, smallRightNode.getKey(), batch);
 
         if(smallRightNode.getRightChild() != null) {
+            BinaryTreeNode successor = smallRightNode;
             BinaryTreeNode rightNode = getNode(smallRightNode.getRightChild())
-                    .orElseThrow(() -> new RuntimeException("Invalid Tree! Node should exist but doesn't."));
+                    .orElseThrow(() -> stale(with(spine, successor)));
             rightNode.setParent(parentSmallRightNode.getId());
-            putNode(rightNode);
+            batch.put(rightNode);
         }
 
         focusNode.setKey(smallRightNode.getKey());
         focusNode.setValue(smallRightNode.getValue());
-        putNode(focusNode);
-        deleteNode(smallRightNode.getId());
+        batch.put(focusNode);
+        batch.delete(smallRightNode);
+        commit(batch);
         return Optional.of(oldValue);
     }
 
-    @Override
-    public void print() {
-        Optional<BinaryTreeNode> root = getRootNode();
-
-        if(!root.isPresent())
-            System.out.println("Empty Tree");
-        else
-            print(root.get(), "", true);
-    }
-
-    private void print(BinaryTreeNode node, String prefix, boolean isTail) {
-        System.out.println(prefix + (isTail ? "└── " : "├── ") + node.getKey() + " : " + node.getValue());
-        if(node.getLeftChild() != null & node.getRightChild() != null) {
-            print(getNode(node.getLeftChild()).get(), prefix + (isTail ? "    " : "│   "), false);
-            print(getNode(node.getRightChild()).get(), prefix + (isTail ? "    " : "│   "), true);
-        } else if(node.getLeftChild() != null) {
-            print(getNode(node.getLeftChild()).get(), prefix + (isTail ? "    " : "│   "), true);
-        } else if(node.getRightChild() != null) {
-            print(getNode(node.getRightChild()).get(), prefix + (isTail ? "    " : "│   "), true);
-        }
+    /**
+     * Reads the parent of {@code node}. A parent that is gone or doesn't link back to the node means one of the two
+     * came out of the cache after another writer moved it.
+     */
+    private BinaryTreeNode parentOf(BinaryTreeNode node) {
+        BinaryTreeNode parent = getNode(node.getParent()).orElseThrow(() -> stale(Collections.singletonList(node)));
+        if (!node.getId().equals(parent.getLeftChild()) && !node.getId().equals(parent.getRightChild()))
+            throw stale(Arrays.asList(node, parent));
+        return parent;
     }
 }
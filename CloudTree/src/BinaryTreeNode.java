@@ -7,8 +7,9 @@ public class BinaryTreeNode extends TreeNode {
     private String leftChild;
     private String rightChild;
 
-    private BinaryTreeNode(String id, String key, String value, String parent, String leftChild, String rightChild) {
-        super(id, key, value, parent);
+    protected BinaryTreeNode(String id, String key, String value, String parent, long version,
+                             String leftChild, String rightChild) {
+        super(id, key, value, parent, version);
         this.leftChild = leftChild;
         this.rightChild = rightChild;
     }
@@ -45,8 +46,8 @@ public class BinaryTreeNode extends TreeNode {
 
     public static class Builder extends TreeNode.Builder {
 
-        private String leftChild;
-        private String rightChild;
+        protected String leftChild;
+        protected String rightChild;
 
         @Override
         public Builder fromItem(Map<String, AttributeValue> item) {
@@ -68,7 +69,7 @@ public class BinaryTreeNode extends TreeNode {
 
         @Override
         public BinaryTreeNode build() {
-            return new BinaryTreeNode(id, key, value, parent, leftChild, rightChild);
+            return finish(new BinaryTreeNode(id, key, value, parent, version, leftChild, rightChild));
         }
     }
 }
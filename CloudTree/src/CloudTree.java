@@ -1,6 +1,10 @@
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Optional;
 
-public interface CloudTree {
+public interface CloudTree extends Iterable<Map.Entry<String, String>> {
 
     void insert(String key, String value);
 
@@ -8,5 +12,34 @@ public interface CloudTree {
 
     Optional<String> delete(String key);
 
+    /**
+     * Looks up many keys at once, returning the value of each one that is in the tree. Trees that can walk the keys
+     * down together override this so each level of the tree costs one round trip instead of one per key.
+     */
+    default Map<String, String> queryAll(Collection<String> keys) {
+        Map<String, String> values = new HashMap<>();
+        for (String key : keys) {
+            query(key).ifPresent(value -> values.put(key, value));
+        }
+        return values;
+    }
+
+    /**
+     * Loads every entry into an empty tree at once, building a balanced layout no matter what order the entries come
+     * in. Throws an IllegalStateException if the tree already has nodes.
+     */
+    void bulkLoad(Iterator<Map.Entry<String, String>> entries);
+
+    /**
+     * Entries with {@code fromKey <= key < toKey} in key order. Nodes are read as the iterator advances, with the next
+     * ones fetched in the background. A null bound leaves that end open.
+     */
+    Iterator<Map.Entry<String, String>> range(String fromKey, String toKey);
+
+    @Override
+    default Iterator<Map.Entry<String, String>> iterator() {
+        return range(null, null);
+    }
+
     void print();
 }
@@ -0,0 +1,135 @@
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Wraps another store and counts the calls made to it, so the cost of a tree operation can be told apart from how fast
+ * the storage behind it happens to be. A batched read or a whole batch commit counts as one call, the same as a
+ * round trip would.
+ */
+public class CountingNodeStore implements NodeStore {
+
+    private final NodeStore store;
+    private final AtomicLong gets = new AtomicLong();
+    private final AtomicLong batchGets = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong deletes = new AtomicLong();
+
+    public CountingNodeStore(NodeStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public String getName() {
+        return store.getName();
+    }
+
+    @Override
+    public Optional<Map<String, AttributeValue>> get(String id) {
+        gets.incrementAndGet();
+        return store.get(id);
+    }
+
+    @Override
+    public Optional<Map<String, AttributeValue>> get(String id, Collection<String> attributes) {
+        gets.incrementAndGet();
+        return store.get(id, attributes);
+    }
+
+    @Override
+    public Optional<String> findId(String key) {
+        gets.incrementAndGet();
+        return store.findId(key);
+    }
+
+    @Override
+    public boolean hasKeyIndex() {
+        return store.hasKeyIndex();
+    }
+
+    @Override
+    public Map<String, Map<String, AttributeValue>> getAll(Collection<String> ids) {
+        batchGets.incrementAndGet();
+        return store.getAll(ids);
+    }
+
+    @Override
+    public CompletableFuture<Optional<Map<String, AttributeValue>>> getAsync(String id) {
+        gets.incrementAndGet();
+        return store.getAsync(id);
+    }
+
+    @Override
+    public void commit(NodeBatch batch) {
+        commits.incrementAndGet();
+        store.commit(batch);
+    }
+
+    @Override
+    public CompletableFuture<Void> commitAsync(NodeBatch batch) {
+        commits.incrementAndGet();
+        return store.commitAsync(batch);
+    }
+
+    @Override
+    public void delete(String id) {
+        deletes.incrementAndGet();
+        store.delete(id);
+    }
+
+    @Override
+    public void scan(int segments, Consumer<Map<String, AttributeValue>> consumer) {
+        store.scan(segments, consumer);
+    }
+
+    @Override
+    public NodeWriter newWriter() {
+        return store.newWriter();
+    }
+
+    @Override
+    public void setMetrics(TreeMetrics metrics) {
+        store.setMetrics(metrics);
+    }
+
+    @Override
+    public void close() {
+        store.close();
+    }
+
+    public long getGets() {
+        return gets.get();
+    }
+
+    public long getBatchGets() {
+        return batchGets.get();
+    }
+
+    public long getCommits() {
+        return commits.get();
+    }
+
+    public long getDeletes() {
+        return deletes.get();
+    }
+
+    public long getCalls() {
+        return gets.get() + batchGets.get() + commits.get() + deletes.get();
+    }
+
+    public void reset() {
+        gets.set(0);
+        batchGets.set(0);
+        commits.set(0);
+        deletes.set(0);
+    }
+
+    public NodeStore getStore() {
+        return store;
+    }
+}
@@ -0,0 +1,801 @@
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.auth.PropertiesFileCredentialsProvider;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.metrics.RequestMetricCollector;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.applicationautoscaling.AWSApplicationAutoScaling;
+import com.amazonaws.services.applicationautoscaling.AWSApplicationAutoScalingClientBuilder;
+import com.amazonaws.services.applicationautoscaling.model.MetricType;
+import com.amazonaws.services.applicationautoscaling.model.PolicyType;
+import com.amazonaws.services.applicationautoscaling.model.PredefinedMetricSpecification;
+import com.amazonaws.services.applicationautoscaling.model.PutScalingPolicyRequest;
+import com.amazonaws.services.applicationautoscaling.model.RegisterScalableTargetRequest;
+import com.amazonaws.services.applicationautoscaling.model.ScalableDimension;
+import com.amazonaws.services.applicationautoscaling.model.ServiceNamespace;
+import com.amazonaws.services.applicationautoscaling.model.TargetTrackingScalingPolicyConfiguration;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsyncClientBuilder;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBStreams;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBStreamsClientBuilder;
+import com.amazonaws.services.dynamodbv2.model.*;
+import com.amazonaws.services.dynamodbv2.util.TableUtils;
+import com.amazonaws.util.AWSRequestMetrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Keeps nodes in a DynamoDB table keyed on the node id. Batches are written with TransactWriteItems, and every write
+ * in them is conditional on the node's version.
+ */
+public class DynamoNodeStore implements NodeStore {
+
+    public static final int MAX_TRANSACTION_ITEMS = 100;
+    public static final int MAX_BATCH_GET_KEYS = 100;
+
+    public static final String KEY_INDEX = "key-index";
+
+    private static final int MAX_READ_RETRIES = 10;
+    private static final StreamSpecification STREAM = new StreamSpecification()
+            .withStreamEnabled(true)
+            .withStreamViewType(StreamViewType.NEW_IMAGE);
+
+    private AmazonDynamoDBAsync db;
+    private String tableName;
+    private boolean consistentReads;
+    private boolean keyIndex;
+    private Regions region;
+    private AWSCredentialsProvider credentials;
+    private TreeMetrics metrics = TreeMetrics.NONE;
+
+    private final RequestMetricCollector throttleCounter = new RequestMetricCollector() {
+        @Override
+        public void collectMetrics(Request<?> request, Response<?> response) {
+            Number throttles = request.getAWSRequestMetrics().getTimingInfo()
+                    .getCounter(AWSRequestMetrics.Field.ThrottleException.name());
+            if (throttles != null && throttles.intValue() > 0)
+                metrics.throttleRetries(throttles.intValue());
+        }
+    };
+
+    /**
+     * Connects with the given credentials file (or the default credentials when it is null) and creates the table with
+     * the {@link TreeConfig#defaults() default settings} if it doesn't exist yet.
+     */
+    public DynamoNodeStore(String tableName, String credentialsFile) throws InterruptedException {
+        this(tableName, TreeConfig.builder().credentialsFile(credentialsFile).build());
+    }
+
+    /**
+     * Connects as the config says and creates the table if it doesn't exist yet. An existing table is switched to the
+     * config's billing mode and capacity if it differs, and auto scaling is set up if the config asks for it.
+     */
+    public DynamoNodeStore(String tableName, TreeConfig config) throws InterruptedException {
+        AWSCredentialsProvider credentials = config.getCredentialsFile() == null || config.getCredentialsFile().isEmpty()
+                ? DefaultAWSCredentialsProviderChain.getInstance()
+                : new PropertiesFileCredentialsProvider(config.getCredentialsFile());
+
+        this.db = AmazonDynamoDBAsyncClientBuilder.standard()
+                .withRegion(config.getRegion())
+                .withCredentials(credentials)
+                .build();
+        this.region = config.getRegion();
+        this.credentials = credentials;
+        this.tableName = tableName;
+        this.consistentReads = config.isConsistentReads();
+        this.keyIndex = config.isKeyIndex();
+
+        CreateTableRequest request = new CreateTableRequest()
+                .withAttributeDefinitions(new AttributeDefinition("id", ScalarAttributeType.S))
+                .withKeySchema(new KeySchemaElement("id", KeyType.HASH))
+                .withBillingMode(config.getBillingMode())
+                .withTableName(tableName);
+        if (config.getBillingMode() == BillingMode.PROVISIONED)
+            request.withProvisionedThroughput(throughputOf(config));
+        if (keyIndex) {
+            request.withAttributeDefinitions(new AttributeDefinition("key", ScalarAttributeType.S))
+                    .withGlobalSecondaryIndexes(keyIndexFor(config));
+        }
+        if (config.isChangeStream())
+            request.withStreamSpecification(STREAM);
+
+        if (!TableUtils.createTableIfNotExists(db, request)) {
+            TableUtils.waitUntilActive(db, tableName);
+            provision(config);
+            if (keyIndex) {
+                TableUtils.waitUntilActive(db, tableName);
+                addKeyIndex(config);
+            }
+            if (config.isChangeStream()) {
+                TableUtils.waitUntilActive(db, tableName);
+                enableStream();
+            }
+        }
+        TableUtils.waitUntilActive(db, tableName);
+
+        if (config.isAutoScaling()) {
+            AWSApplicationAutoScaling scaling = AWSApplicationAutoScalingClientBuilder.standard()
+                    .withRegion(config.getRegion())
+                    .withCredentials(credentials)
+                    .build();
+            try {
+                String table = "table/" + tableName;
+                autoScale(scaling, table, ScalableDimension.DynamodbTableReadCapacityUnits,
+                        MetricType.DynamoDBReadCapacityUtilization, config.getReadCapacity(), config.getMaxReadCapacity(),
+                        config.getTargetUtilization());
+                autoScale(scaling, table, ScalableDimension.DynamodbTableWriteCapacityUnits,
+                        MetricType.DynamoDBWriteCapacityUtilization, config.getWriteCapacity(), config.getMaxWriteCapacity(),
+                        config.getTargetUtilization());
+                if (keyIndex) {
+                    //The index has capacity of its own, and throttled index writes throttle the table's writes too
+                    String index = table + "/index/" + KEY_INDEX;
+                    autoScale(scaling, index, ScalableDimension.DynamodbIndexReadCapacityUnits,
+                            MetricType.DynamoDBReadCapacityUtilization, config.getReadCapacity(),
+                            config.getMaxReadCapacity(), config.getTargetUtilization());
+                    autoScale(scaling, index, ScalableDimension.DynamodbIndexWriteCapacityUnits,
+                            MetricType.DynamoDBWriteCapacityUtilization, config.getWriteCapacity(),
+                            config.getMaxWriteCapacity(), config.getTargetUtilization());
+                }
+            } finally {
+                scaling.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Uses an existing client and table.
+     */
+    public DynamoNodeStore(AmazonDynamoDBAsync db, String tableName) {
+        this(db, tableName, TreeConfig.defaults());
+    }
+
+    /**
+     * Uses an existing client and table, reading it the way the config says. The table isn't created or changed.
+     */
+    public DynamoNodeStore(AmazonDynamoDBAsync db, String tableName, TreeConfig config) {
+        this.db = db;
+        this.tableName = tableName;
+        this.consistentReads = config.isConsistentReads();
+        this.keyIndex = config.isKeyIndex();
+    }
+
+    /**
+     * Brings an existing table's billing mode and capacity in line with the config, along with the capacity of its
+     * indexes, which DynamoDB needs given whenever a table becomes provisioned. Capacity is left alone when auto
+     * scaling manages it.
+     */
+    private void provision(TreeConfig config) {
+        TableDescription table = db.describeTable(tableName).getTable();
+        BillingMode current = table.getBillingModeSummary() == null || table.getBillingModeSummary().getBillingMode() == null
+                ? BillingMode.PROVISIONED
+                : BillingMode.fromValue(table.getBillingModeSummary().getBillingMode());
+
+        UpdateTableRequest update = new UpdateTableRequest().withTableName(tableName);
+        if (config.getBillingMode() == BillingMode.PAY_PER_REQUEST) {
+            if (current == BillingMode.PAY_PER_REQUEST)
+                return;
+            update.withBillingMode(BillingMode.PAY_PER_REQUEST);
+        } else {
+            boolean provisioned = current == BillingMode.PROVISIONED;
+            List<GlobalSecondaryIndexDescription> indexes = table.getGlobalSecondaryIndexes() == null
+                    ? Collections.emptyList() : table.getGlobalSecondaryIndexes();
+            boolean sized = isSized(table.getProvisionedThroughput(), config)
+                    && indexes.stream().allMatch(index -> isSized(index.getProvisionedThroughput(), config));
+            if (provisioned && (sized || config.isAutoScaling()))
+                return;
+
+            //DynamoDB rejects updates that would leave a capacity as it is
+            update.withBillingMode(BillingMode.PROVISIONED);
+            if (!provisioned || !isSized(table.getProvisionedThroughput(), config))
+                update.withProvisionedThroughput(throughputOf(config));
+            for (GlobalSecondaryIndexDescription index : indexes) {
+                if (!provisioned || !isSized(index.getProvisionedThroughput(), config)) {
+                    update.withGlobalSecondaryIndexUpdates(new GlobalSecondaryIndexUpdate()
+                            .withUpdate(new UpdateGlobalSecondaryIndexAction()
+                                    .withIndexName(index.getIndexName())
+                                    .withProvisionedThroughput(throughputOf(config))));
+                }
+            }
+        }
+
+        db.updateTable(update);
+    }
+
+    /**
+     * Adds the key index to an existing table that doesn't have it. DynamoDB fills it in the background, and
+     * {@link #findId} finds nothing until it has.
+     */
+    private void addKeyIndex(TreeConfig config) {
+        TableDescription table = db.describeTable(tableName).getTable();
+        if (table.getGlobalSecondaryIndexes() != null && table.getGlobalSecondaryIndexes().stream()
+                .anyMatch(index -> KEY_INDEX.equals(index.getIndexName())))
+            return;
+
+        GlobalSecondaryIndex index = keyIndexFor(config);
+        CreateGlobalSecondaryIndexAction create = new CreateGlobalSecondaryIndexAction()
+                .withIndexName(index.getIndexName())
+                .withKeySchema(index.getKeySchema())
+                .withProjection(index.getProjection())
+                .withProvisionedThroughput(index.getProvisionedThroughput());
+
+        db.updateTable(new UpdateTableRequest()
+                .withTableName(tableName)
+                .withAttributeDefinitions(new AttributeDefinition("key", ScalarAttributeType.S))
+                .withGlobalSecondaryIndexUpdates(new GlobalSecondaryIndexUpdate().withCreate(create)));
+    }
+
+    /**
+     * Turns on the table's stream if it is off. A stream that is already on is left as it is, even if it carries
+     * only keys, in which case a {@link NodeChangeStream} drops changed nodes from caches instead of updating them.
+     */
+    private void enableStream() {
+        StreamSpecification current = db.describeTable(tableName).getTable().getStreamSpecification();
+        if (current != null && Boolean.TRUE.equals(current.getStreamEnabled()))
+            return;
+
+        db.updateTable(new UpdateTableRequest()
+                .withTableName(tableName)
+                .withStreamSpecification(STREAM));
+    }
+
+    /**
+     * The ARN of the table's current stream, or null if it has none.
+     */
+    public String getStreamArn() {
+        return db.describeTable(tableName).getTable().getLatestStreamArn();
+    }
+
+    /**
+     * Starts reading the table's stream with a client made from the same region and credentials as this store's.
+     * Closing the change stream shuts that client down.
+     */
+    public NodeChangeStream openChangeStream() {
+        if (credentials == null)
+            throw new IllegalStateException("This store was given its client, so it needs to be given a streams client too!");
+
+        AmazonDynamoDBStreams streams = AmazonDynamoDBStreamsClientBuilder.standard()
+                .withRegion(region)
+                .withCredentials(credentials)
+                .build();
+        try {
+            return new NodeChangeStream(streams, streamArn(), NodeChangeStream.DEFAULT_POLL_MILLIS, true);
+        } catch (RuntimeException e) {
+            streams.shutdown();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts reading the table's stream with the given client, which is left open when the change stream closes.
+     */
+    public NodeChangeStream openChangeStream(AmazonDynamoDBStreams streams) {
+        return new NodeChangeStream(streams, streamArn(), NodeChangeStream.DEFAULT_POLL_MILLIS, false);
+    }
+
+    private String streamArn() {
+        String arn = getStreamArn();
+        if (arn == null)
+            throw new IllegalStateException(tableName + " has no stream, turn it on with TreeConfig.Builder.changeStream!");
+        return arn;
+    }
+
+    /**
+     * An index on the key attribute that only projects the node id. Only nodes with a single key have that attribute,
+     * so B+ tree nodes stay out of it.
+     */
+    private static GlobalSecondaryIndex keyIndexFor(TreeConfig config) {
+        GlobalSecondaryIndex index = new GlobalSecondaryIndex()
+                .withIndexName(KEY_INDEX)
+                .withKeySchema(new KeySchemaElement("key", KeyType.HASH))
+                .withProjection(new Projection().withProjectionType(ProjectionType.KEYS_ONLY));
+        if (config.getBillingMode() == BillingMode.PROVISIONED)
+            index.withProvisionedThroughput(throughputOf(config));
+        return index;
+    }
+
+    private static boolean isSized(ProvisionedThroughputDescription throughput, TreeConfig config) {
+        return throughput != null
+                && throughput.getReadCapacityUnits() != null && throughput.getReadCapacityUnits() == config.getReadCapacity()
+                && throughput.getWriteCapacityUnits() != null && throughput.getWriteCapacityUnits() == config.getWriteCapacity();
+    }
+
+    private static ProvisionedThroughput throughputOf(TreeConfig config) {
+        return new ProvisionedThroughput(config.getReadCapacity(), config.getWriteCapacity());
+    }
+
+    private void autoScale(AWSApplicationAutoScaling scaling, String resourceId, ScalableDimension dimension,
+                           MetricType metric, long minCapacity, long maxCapacity, double targetUtilization) {
+        scaling.registerScalableTarget(new RegisterScalableTargetRequest()
+                .withServiceNamespace(ServiceNamespace.Dynamodb)
+                .withResourceId(resourceId)
+                .withScalableDimension(dimension)
+                .withMinCapacity((int) minCapacity)
+                .withMaxCapacity((int) maxCapacity));
+
+        scaling.putScalingPolicy(new PutScalingPolicyRequest()
+                .withServiceNamespace(ServiceNamespace.Dynamodb)
+                .withResourceId(resourceId)
+                .withScalableDimension(dimension)
+                .withPolicyName(resourceId.substring("table/".length()).replace('/', '-') + "-" + metric)
+                .withPolicyType(PolicyType.TargetTrackingScaling)
+                .withTargetTrackingScalingPolicyConfiguration(new TargetTrackingScalingPolicyConfiguration()
+                        .withPredefinedMetricSpecification(new PredefinedMetricSpecification().withPredefinedMetricType(metric))
+                        .withTargetValue(targetUtilization)));
+    }
+
+    @Override
+    public String getName() {
+        return tableName;
+    }
+
+    @Override
+    public Optional<Map<String, AttributeValue>> get(String id) {
+        GetItemResult result = db.getItem(measured(new GetItemRequest()
+                .withTableName(tableName)
+                .withKey(keyOf(id))
+                .withConsistentRead(consistentReads)
+                .withReturnConsumedCapacity(capacityReporting())));
+
+        consumed(result.getConsumedCapacity());
+        return found(result.getItem());
+    }
+
+    /**
+     * Reads the attributes with a ProjectionExpression. This saves bytes on the wire, but DynamoDB still charges read
+     * capacity for the whole item.
+     */
+    @Override
+    public Optional<Map<String, AttributeValue>> get(String id, Collection<String> attributes) {
+        Map<String, String> names = new HashMap<>();
+        StringBuilder projection = new StringBuilder("#id");
+        names.put("#id", "id");
+        int i = 0;
+        for (String attribute : attributes) {
+            names.put("#a" + i, attribute);
+            projection.append(", #a").append(i++);
+        }
+
+        GetItemResult result = db.getItem(measured(new GetItemRequest()
+                .withTableName(tableName)
+                .withKey(keyOf(id))
+                .withConsistentRead(consistentReads)
+                .withProjectionExpression(projection.toString())
+                .withExpressionAttributeNames(names)
+                .withReturnConsumedCapacity(capacityReporting())));
+
+        consumed(result.getConsumedCapacity());
+        return found(result.getItem());
+    }
+
+    @Override
+    public CompletableFuture<Optional<Map<String, AttributeValue>>> getAsync(String id) {
+        GetItemRequest request = measured(new GetItemRequest()
+                .withTableName(tableName)
+                .withKey(keyOf(id))
+                .withConsistentRead(consistentReads)
+                .withReturnConsumedCapacity(capacityReporting()));
+
+        return DynamoNodeStore.<GetItemRequest, GetItemResult>call(db::getItemAsync, request)
+                .thenApply(result -> {
+                    consumed(result.getConsumedCapacity());
+                    return found(result.getItem());
+                });
+    }
+
+    private static Optional<Map<String, AttributeValue>> found(Map<String, AttributeValue> item) {
+        if (item == null || item.isEmpty())
+            return Optional.empty();
+        return Optional.of(item);
+    }
+
+    /**
+     * Looks the key up in the key index. The index is updated in the background after each write, so the id it gives
+     * can point at a node that no longer holds the key, and a key written a moment ago may not be found yet.
+     */
+    @Override
+    public Optional<String> findId(String key) {
+        if (!keyIndex)
+            return Optional.empty();
+
+        Map<String, String> names = new HashMap<>();
+        names.put("#key", "key");
+        Map<String, AttributeValue> values = new HashMap<>();
+        values.put(":key", new AttributeValue(key));
+
+        QueryResult result;
+        try {
+            result = db.query(measured(new QueryRequest()
+                    .withTableName(tableName)
+                    .withIndexName(KEY_INDEX)
+                    .withKeyConditionExpression("#key = :key")
+                    .withExpressionAttributeNames(names)
+                    .withExpressionAttributeValues(values)
+                    .withReturnConsumedCapacity(capacityReporting())));
+        } catch (ResourceNotFoundException e) {
+            return Optional.empty();
+        } catch (AmazonDynamoDBException e) {
+            //Thrown while the index is still being filled
+            if ("ValidationException".equals(e.getErrorCode()))
+                return Optional.empty();
+            throw e;
+        }
+
+        consumed(result.getConsumedCapacity());
+        if (result.getItems() == null || result.getItems().isEmpty())
+            return Optional.empty();
+        return Optional.of(result.getItems().get(0).get("id").getS());
+    }
+
+    @Override
+    public boolean hasKeyIndex() {
+        return keyIndex;
+    }
+
+    /**
+     * Reads the ids with BatchGetItem calls of up to {@link #MAX_BATCH_GET_KEYS} keys.
+     */
+    @Override
+    public Map<String, Map<String, AttributeValue>> getAll(Collection<String> ids) {
+        Map<String, Map<String, AttributeValue>> items = new HashMap<>();
+        List<String> unique = new ArrayList<>(new LinkedHashSet<>(ids));
+
+        for (int i = 0; i < unique.size(); i += MAX_BATCH_GET_KEYS) {
+            List<Map<String, AttributeValue>> keys = new ArrayList<>();
+            for (String id : unique.subList(i, Math.min(i + MAX_BATCH_GET_KEYS, unique.size()))) {
+                keys.add(keyOf(id));
+            }
+
+            for (Map<String, AttributeValue> item : batchGet(keys)) {
+                items.put(item.get("id").getS(), item);
+            }
+        }
+
+        return items;
+    }
+
+    /**
+     * Runs one BatchGetItem, retrying with exponential backoff until DynamoDB has returned every key.
+     */
+    private List<Map<String, AttributeValue>> batchGet(List<Map<String, AttributeValue>> keys) {
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+        Map<String, KeysAndAttributes> request = Collections.singletonMap(tableName, new KeysAndAttributes()
+                .withKeys(keys)
+                .withConsistentRead(consistentReads));
+
+        for (int attempt = 0; !request.isEmpty(); attempt++) {
+            if (attempt > MAX_READ_RETRIES)
+                throw new RuntimeException("Couldn't read nodes from " + tableName + " after " + MAX_READ_RETRIES + " retries!");
+
+            if (attempt > 0) {
+                metrics.throttleRetries(1);
+                try {
+                    Thread.sleep(Math.min(1000L, 25L << attempt));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while reading nodes!", e);
+                }
+            }
+
+            BatchGetItemResult result = db.batchGetItem(measured(new BatchGetItemRequest()
+                    .withRequestItems(request)
+                    .withReturnConsumedCapacity(capacityReporting())));
+            consumed(result.getConsumedCapacity());
+            if (result.getResponses() != null && result.getResponses().get(tableName) != null)
+                items.addAll(result.getResponses().get(tableName));
+            request = result.getUnprocessedKeys() == null ? Collections.emptyMap() : result.getUnprocessedKeys();
+        }
+
+        return items;
+    }
+
+    /**
+     * A batch of one write goes out as a plain conditional PutItem or DeleteItem. Anything bigger is a single
+     * TransactWriteItems call, so a batch can't hold more than {@link #MAX_TRANSACTION_ITEMS} items.
+     */
+    @Override
+    public void commit(NodeBatch batch) {
+        if (batch.size() == 1) {
+            try {
+                if (batch.getPuts().isEmpty())
+                    consumed(db.deleteItem(deleteRequest(batch.getDeletes().iterator().next())).getConsumedCapacity());
+                else
+                    consumed(db.putItem(putRequest(batch.getPuts().iterator().next())).getConsumedCapacity());
+            } catch (RuntimeException e) {
+                throw translate(e);
+            }
+            return;
+        }
+
+        TransactWriteItemsRequest request = transactionFor(batch);
+        try {
+            consumed(db.transactWriteItems(request).getConsumedCapacity());
+        } catch (RuntimeException e) {
+            throw translate(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> commitAsync(NodeBatch batch) {
+        CompletableFuture<?> chain;
+
+        if (batch.size() == 1) {
+            if (batch.getPuts().isEmpty())
+                chain = DynamoNodeStore.<DeleteItemRequest, DeleteItemResult>call(db::deleteItemAsync, deleteRequest(batch.getDeletes().iterator().next()))
+                        .thenAccept(result -> consumed(result.getConsumedCapacity()));
+            else
+                chain = DynamoNodeStore.<PutItemRequest, PutItemResult>call(db::putItemAsync, putRequest(batch.getPuts().iterator().next()))
+                        .thenAccept(result -> consumed(result.getConsumedCapacity()));
+        } else {
+            TransactWriteItemsRequest request;
+            try {
+                request = transactionFor(batch);
+            } catch (IllegalArgumentException e) {
+                CompletableFuture<Void> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+            chain = DynamoNodeStore.<TransactWriteItemsRequest, TransactWriteItemsResult>call(db::transactWriteItemsAsync, request)
+                    .thenAccept(result -> consumed(result.getConsumedCapacity()));
+        }
+
+        return chain.handle((result, e) -> {
+            if (e != null)
+                throw new CompletionException(translate(e));
+            return null;
+        });
+    }
+
+    private PutItemRequest putRequest(TreeNode node) {
+        return measured(new PutItemRequest()
+                .withTableName(tableName)
+                .withItem(NodeStore.nextItem(node))
+                .withConditionExpression(versionCondition(node))
+                .withExpressionAttributeNames(versionNames())
+                .withExpressionAttributeValues(versionValues(node))
+                .withReturnConsumedCapacity(capacityReporting()));
+    }
+
+    private DeleteItemRequest deleteRequest(TreeNode node) {
+        return measured(new DeleteItemRequest()
+                .withTableName(tableName)
+                .withKey(keyOf(node.getId()))
+                .withConditionExpression(versionCondition(node))
+                .withExpressionAttributeNames(versionNames())
+                .withExpressionAttributeValues(versionValues(node))
+                .withReturnConsumedCapacity(capacityReporting()));
+    }
+
+    /**
+     * Turns a batch into one TransactWriteItems request. Splitting it up would let part of a batch land without the
+     * rest.
+     */
+    private TransactWriteItemsRequest transactionFor(NodeBatch batch) {
+        if (batch.size() > MAX_TRANSACTION_ITEMS)
+            throw new IllegalArgumentException("A batch can't hold more than " + MAX_TRANSACTION_ITEMS + " nodes!");
+
+        List<TransactWriteItem> writes = new ArrayList<>();
+
+        for (TreeNode node : batch.getChecks()) {
+            writes.add(new TransactWriteItem().withConditionCheck(new ConditionCheck()
+                    .withTableName(tableName)
+                    .withKey(keyOf(node.getId()))
+                    .withConditionExpression(versionCondition(node))
+                    .withExpressionAttributeNames(versionNames())
+                    .withExpressionAttributeValues(versionValues(node))));
+        }
+
+        for (TreeNode node : batch.getPuts()) {
+            writes.add(new TransactWriteItem().withPut(new Put()
+                    .withTableName(tableName)
+                    .withItem(NodeStore.nextItem(node))
+                    .withConditionExpression(versionCondition(node))
+                    .withExpressionAttributeNames(versionNames())
+                    .withExpressionAttributeValues(versionValues(node))));
+        }
+
+        for (TreeNode node : batch.getDeletes()) {
+            writes.add(new TransactWriteItem().withDelete(new Delete()
+                    .withTableName(tableName)
+                    .withKey(keyOf(node.getId()))
+                    .withConditionExpression(versionCondition(node))
+                    .withExpressionAttributeNames(versionNames())
+                    .withExpressionAttributeValues(versionValues(node))));
+        }
+
+        return measured(new TransactWriteItemsRequest()
+                .withTransactItems(writes)
+                .withReturnConsumedCapacity(capacityReporting()));
+    }
+
+    @Override
+    public void delete(String id) {
+        DeleteItemResult result = db.deleteItem(measured(new DeleteItemRequest()
+                .withTableName(tableName)
+                .withKey(keyOf(id))
+                .withReturnConsumedCapacity(capacityReporting())));
+        consumed(result.getConsumedCapacity());
+    }
+
+    /**
+     * A parallel Scan, one thread per segment, each paging through its segment until DynamoDB has returned all of it.
+     */
+    @Override
+    public void scan(int segments, Consumer<Map<String, AttributeValue>> consumer) {
+        ExecutorService executor = Executors.newFixedThreadPool(segments);
+        try {
+            List<Future<?>> scans = new ArrayList<>();
+            for (int segment = 0; segment < segments; segment++) {
+                int current = segment;
+                scans.add(executor.submit(() -> scanSegment(current, segments, consumer)));
+            }
+
+            for (Future<?> scan : scans) {
+                try {
+                    scan.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException)
+                        throw (RuntimeException) e.getCause();
+                    throw new RuntimeException(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while scanning " + tableName + "!", e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void scanSegment(int segment, int segments, Consumer<Map<String, AttributeValue>> consumer) {
+        Map<String, AttributeValue> start = null;
+        do {
+            ScanResult result = db.scan(measured(new ScanRequest()
+                    .withTableName(tableName)
+                    .withSegment(segment)
+                    .withTotalSegments(segments)
+                    .withExclusiveStartKey(start)
+                    .withConsistentRead(consistentReads)
+                    .withReturnConsumedCapacity(capacityReporting())));
+
+            consumed(result.getConsumedCapacity());
+            result.getItems().forEach(consumer);
+            start = result.getLastEvaluatedKey();
+        } while (start != null && !start.isEmpty());
+    }
+
+    @Override
+    public NodeWriter newWriter() {
+        return new BatchNodeWriter(db, tableName, BatchNodeWriter.DEFAULT_THREADS);
+    }
+
+    @Override
+    public void close() {
+        db.shutdown();
+    }
+
+    public AmazonDynamoDBAsync getClient() {
+        return db;
+    }
+
+    /**
+     * Asks DynamoDB for the capacity every request consumes and counts the throttled attempts the client retried, and
+     * reports both to {@code metrics}. Neither is collected while metrics are off.
+     */
+    @Override
+    public void setMetrics(TreeMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    private ReturnConsumedCapacity capacityReporting() {
+        return metrics == TreeMetrics.NONE ? ReturnConsumedCapacity.NONE : ReturnConsumedCapacity.TOTAL;
+    }
+
+    private void consumed(ConsumedCapacity capacity) {
+        if (capacity != null && capacity.getCapacityUnits() != null)
+            metrics.consumedCapacity(capacity.getCapacityUnits());
+    }
+
+    private void consumed(List<ConsumedCapacity> capacities) {
+        if (capacities != null)
+            capacities.forEach(this::consumed);
+    }
+
+    /**
+     * Attaches a collector that reads the client's own count of throttled attempts once the request is done. Setting
+     * a collector on a request turns on the client's per request metrics, so it is only done while metrics are on.
+     */
+    private <Q extends AmazonWebServiceRequest> Q measured(Q request) {
+        if (metrics != TreeMetrics.NONE)
+            request.setRequestMetricCollector(throttleCounter);
+        return request;
+    }
+
+    /**
+     * Turns DynamoDB's failed condition and transaction conflict errors into a {@link NodeConflictException}.
+     */
+    private static RuntimeException translate(Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null)
+            e = e.getCause();
+
+        if (e instanceof ConditionalCheckFailedException || e instanceof TransactionConflictException)
+            return new NodeConflictException("A node was changed by another writer.", e);
+
+        if (e instanceof TransactionCanceledException) {
+            List<CancellationReason> reasons = ((TransactionCanceledException) e).getCancellationReasons();
+            if (reasons != null && reasons.stream().anyMatch(reason -> "ConditionalCheckFailed".equals(reason.getCode())
+                    || "TransactionConflict".equals(reason.getCode())))
+                return new NodeConflictException("A node was changed by another writer.", e);
+        }
+
+        return e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+    }
+
+    private static String versionCondition(TreeNode node) {
+        //Nodes written before versioning have no version attribute and read back as version 0
+        if (node.getVersion() == 0)
+            return "attribute_not_exists(#version) OR #version = :version";
+        return "#version = :version";
+    }
+
+    private static Map<String, String> versionNames() {
+        Map<String, String> names = new HashMap<>();
+        names.put("#version", "version");
+        return names;
+    }
+
+    private static Map<String, AttributeValue> versionValues(TreeNode node) {
+        Map<String, AttributeValue> values = new HashMap<>();
+        values.put(":version", new AttributeValue().withN(Long.toString(node.getVersion())));
+        return values;
+    }
+
+    /**
+     * Adapts one of the async client's callback style methods to a CompletableFuture.
+     */
+    private static <Q extends AmazonWebServiceRequest, R> CompletableFuture<R> call(AsyncCall<Q, R> method, Q request) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        try {
+            method.call(request, new AsyncHandler<Q, R>() {
+                @Override
+                public void onError(Exception exception) {
+                    future.completeExceptionally(exception);
+                }
+
+                @Override
+                public void onSuccess(Q request, R result) {
+                    future.complete(result);
+                }
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private interface AsyncCall<Q extends AmazonWebServiceRequest, R> {
+        Future<R> call(Q request, AsyncHandler<Q, R> handler);
+    }
+
+    private static Map<String, AttributeValue> keyOf(String id) {
+        Map<String, AttributeValue> key = new HashMap<>();
+        key.put("id", new AttributeValue(id));
+        return key;
+    }
+}
@@ -0,0 +1,265 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Sorts a stream of key value pairs that may not fit in memory.
+ *
+ * Entries are buffered in runs of {@code runSize}, or fewer if they take up more than {@link #MAX_RUN_BYTES}, each run
+ * is sorted and spilled to a temp file, and the runs are merged into one sorted, de-duplicated file. When a key shows
+ * up more than once the last value wins, the same as calling insert for every entry. Input that fits in a single run
+ * never touches the disk.
+ */
+public class ExternalSorter {
+
+    public static final int DEFAULT_RUN_SIZE = 100000;
+    public static final long MAX_RUN_BYTES = 64L * 1024 * 1024;
+
+    //Two bytes a char, plus the entry and the two strings around them
+    private static final int ENTRY_OVERHEAD = 80;
+
+    private static final Comparator<Map.Entry<String, String>> BY_KEY = Map.Entry.comparingByKey();
+
+    public static SortedEntries sort(Iterator<Map.Entry<String, String>> input) {
+        return sort(input, DEFAULT_RUN_SIZE);
+    }
+
+    public static SortedEntries sort(Iterator<Map.Entry<String, String>> input, int runSize) {
+        List<Path> runs = new ArrayList<>();
+        List<Map.Entry<String, String>> buffer = new ArrayList<>();
+        long bytes = 0;
+
+        try {
+            while (input.hasNext()) {
+                Map.Entry<String, String> entry = input.next();
+                buffer.add(entry);
+                bytes += 2L * (entry.getKey().length() + entry.getValue().length()) + ENTRY_OVERHEAD;
+                if (buffer.size() >= runSize || bytes >= MAX_RUN_BYTES) {
+                    runs.add(spill(buffer));
+                    buffer.clear();
+                    bytes = 0;
+                }
+            }
+
+            if (runs.isEmpty()) {
+                List<Map.Entry<String, String>> sorted = sortRun(buffer);
+                return new SortedEntries(sorted.size(), null) {
+                    @Override
+                    public Iterator<Map.Entry<String, String>> iterator() {
+                        return sorted.iterator();
+                    }
+                };
+            }
+
+            if (!buffer.isEmpty())
+                runs.add(spill(buffer));
+
+            return merge(runs);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            for (Path run : runs) {
+                try {
+                    Files.deleteIfExists(run);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static List<Map.Entry<String, String>> sortRun(List<Map.Entry<String, String>> run) {
+        List<Map.Entry<String, String>> sorted = new ArrayList<>(run);
+        sorted.sort(BY_KEY);
+
+        List<Map.Entry<String, String>> unique = new ArrayList<>(sorted.size());
+        for (Map.Entry<String, String> entry : sorted) {
+            if (!unique.isEmpty() && unique.get(unique.size() - 1).getKey().equals(entry.getKey()))
+                unique.set(unique.size() - 1, entry);
+            else
+                unique.add(entry);
+        }
+        return unique;
+    }
+
+    private static Path spill(List<Map.Entry<String, String>> run) throws IOException {
+        Path file = Files.createTempFile("cloudtree-run", ".bin");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            for (Map.Entry<String, String> entry : sortRun(run)) {
+                writeEntry(out, entry);
+            }
+        }
+        return file;
+    }
+
+    private static SortedEntries merge(List<Path> runs) throws IOException {
+        List<RunReader> readers = new ArrayList<>();
+        PriorityQueue<RunReader> queue = new PriorityQueue<>((a, b) -> {
+            int compare = a.current.getKey().compareTo(b.current.getKey());
+            return compare != 0 ? compare : Integer.compare(a.index, b.index);
+        });
+
+        Path merged = Files.createTempFile("cloudtree-sorted", ".bin");
+        long size = 0;
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(merged)))) {
+            for (int i = 0; i < runs.size(); i++) {
+                RunReader reader = new RunReader(i, runs.get(i));
+                readers.add(reader);
+                if (reader.advance())
+                    queue.add(reader);
+            }
+
+            Map.Entry<String, String> pending = null;
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                Map.Entry<String, String> entry = reader.current;
+
+                if (pending != null && !pending.getKey().equals(entry.getKey())) {
+                    writeEntry(out, pending);
+                    size++;
+                }
+                pending = entry;
+
+                if (reader.advance())
+                    queue.add(reader);
+            }
+
+            if (pending != null) {
+                writeEntry(out, pending);
+                size++;
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(merged);
+            throw e;
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+
+        return new SortedEntries(size, merged) {
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                return new FileEntryIterator(merged);
+            }
+        };
+    }
+
+    static void writeEntry(DataOutputStream out, Map.Entry<String, String> entry) throws IOException {
+        writeString(out, entry.getKey());
+        writeString(out, entry.getValue());
+    }
+
+    static Map.Entry<String, String> readEntry(DataInputStream in) throws IOException {
+        int keyLength;
+        try {
+            keyLength = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        String key = readString(in, keyLength);
+        String value = readString(in, in.readInt());
+        return new AbstractMap.SimpleImmutableEntry<>(key, value);
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Sorted, de-duplicated entries with a known size. Closing it removes any backing temp file.
+     */
+    public static abstract class SortedEntries implements Iterable<Map.Entry<String, String>>, Closeable {
+
+        private final long size;
+        private final Path file;
+
+        private SortedEntries(long size, Path file) {
+            this.size = size;
+            this.file = file;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public void close() {
+            if (file == null)
+                return;
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static class RunReader implements Closeable {
+        private final int index;
+        private final DataInputStream in;
+        private Map.Entry<String, String> current;
+
+        RunReader(int index, Path file) throws IOException {
+            this.index = index;
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+        }
+
+        boolean advance() throws IOException {
+            current = readEntry(in);
+            return current != null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static class FileEntryIterator implements Iterator<Map.Entry<String, String>> {
+        private final DataInputStream in;
+        private Map.Entry<String, String> next;
+
+        FileEntryIterator(Path file) {
+            try {
+                this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+                this.next = readEntry(in);
+                if (next == null)
+                    in.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (next == null)
+                throw new NoSuchElementException();
+
+            Map.Entry<String, String> entry = next;
+            try {
+                next = readEntry(in);
+                if (next == null)
+                    in.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return entry;
+        }
+    }
+}
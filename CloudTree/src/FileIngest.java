@@ -0,0 +1,313 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Loads a file of {@code key:value} lines into a tree, printing progress, throughput and an ETA as it goes.
+ *
+ * The file is read through a large buffer on a file channel, and each line is split at its first colon. Blank lines
+ * are skipped, and lines without a colon or with an empty key are rejected and counted rather than stopping the load.
+ * An empty tree is filled with {@link CloudTree#bulkLoad}. Otherwise the records are handed in batches to a number of
+ * writer threads that insert them. Each key always goes to the same writer, so when a key appears more than once the
+ * last line wins, the same as inserting the file one line at a time.
+ */
+public class FileIngest {
+
+    public static final int DEFAULT_WRITERS = 8;
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final long DEFAULT_PROGRESS_SECONDS = 5;
+
+    private static final int READ_BUFFER = 1 << 16;
+    private static final int QUEUED_BATCHES = 4;
+    private static final int MAX_PRINTED_REJECTS = 20;
+    private static final List<Map.Entry<String, String>> END = new ArrayList<>();
+
+    private final CloudTree tree;
+    private final int writers;
+    private final int batchSize;
+    private final long progressSeconds;
+    private final PrintStream out;
+
+    public FileIngest(CloudTree tree) {
+        this(tree, DEFAULT_WRITERS, DEFAULT_BATCH_SIZE, DEFAULT_PROGRESS_SECONDS, System.out);
+    }
+
+    public FileIngest(CloudTree tree, int writers, int batchSize, long progressSeconds, PrintStream out) {
+        if (writers < 1 || batchSize < 1 || progressSeconds < 1)
+            throw new IllegalArgumentException("Writers, batch size and progress interval must be at least 1!");
+
+        this.tree = tree;
+        this.writers = writers;
+        this.batchSize = batchSize;
+        this.progressSeconds = progressSeconds;
+        this.out = out;
+    }
+
+    public Result ingest(Path file) throws IOException {
+        long size = Files.size(file);
+        long start = System.nanoTime();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             BufferedReader reader = new BufferedReader(
+                     Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder()
+                             .onMalformedInput(CodingErrorAction.REPLACE)
+                             .onUnmappableCharacter(CodingErrorAction.REPLACE), -1), READ_BUFFER)) {
+            Records records = new Records(reader);
+            Progress progress = new Progress(channel, size, start);
+
+            ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ingest-progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reporter.scheduleAtFixedRate(() -> out.println(progress.report(records.read.get(), records.written.get())),
+                    progressSeconds, progressSeconds, TimeUnit.SECONDS);
+
+            try {
+                if (!tree.iterator().hasNext()) {
+                    tree.bulkLoad(records);
+                    records.written.set(records.read.get());
+                } else {
+                    insertConcurrently(records);
+                }
+            } finally {
+                reporter.shutdownNow();
+            }
+
+            return new Result(records.read.get(), records.rejected, size, System.nanoTime() - start);
+        }
+    }
+
+    private void insertConcurrently(Records records) {
+        List<BlockingQueue<List<Map.Entry<String, String>>>> queues = new ArrayList<>();
+        List<List<Map.Entry<String, String>>> batches = new ArrayList<>();
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        ExecutorService pool = Executors.newFixedThreadPool(writers);
+        List<Future<?>> running = new ArrayList<>();
+
+        for (int i = 0; i < writers; i++) {
+            BlockingQueue<List<Map.Entry<String, String>>> queue = new ArrayBlockingQueue<>(QUEUED_BATCHES);
+            queues.add(queue);
+            batches.add(new ArrayList<>(batchSize));
+            running.add(pool.submit(() -> write(queue, records.written, failure)));
+        }
+
+        try {
+            while (records.hasNext() && failure.get() == null) {
+                Map.Entry<String, String> record = records.next();
+                int writer = Math.floorMod(record.getKey().hashCode(), writers);
+                List<Map.Entry<String, String>> batch = batches.get(writer);
+                batch.add(record);
+                if (batch.size() >= batchSize) {
+                    put(queues.get(writer), batch);
+                    batches.set(writer, new ArrayList<>(batchSize));
+                }
+            }
+
+            for (int i = 0; i < writers; i++) {
+                if (!batches.get(i).isEmpty())
+                    put(queues.get(i), batches.get(i));
+                put(queues.get(i), END);
+            }
+
+            for (Future<?> writer : running) {
+                try {
+                    writer.get();
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while ingesting!", e);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        if (failure.get() != null)
+            throw failure.get();
+    }
+
+    /**
+     * Inserts every batch from the queue until the end marker. After a failure the rest of the queue is drained
+     * without writing, so the reader never blocks on a writer that has stopped.
+     */
+    private void write(BlockingQueue<List<Map.Entry<String, String>>> queue, AtomicLong written,
+                       AtomicReference<RuntimeException> failure) {
+        try {
+            for (List<Map.Entry<String, String>> batch = queue.take(); batch != END; batch = queue.take()) {
+                if (failure.get() != null)
+                    continue;
+                try {
+                    for (Map.Entry<String, String> record : batch) {
+                        tree.insert(record.getKey(), record.getValue());
+                        written.incrementAndGet();
+                    }
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void put(BlockingQueue<List<Map.Entry<String, String>>> queue, List<Map.Entry<String, String>> batch) {
+        try {
+            queue.put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while ingesting!", e);
+        }
+    }
+
+    /**
+     * The valid records of the file, in order, read a line at a time.
+     */
+    private class Records implements Iterator<Map.Entry<String, String>> {
+        private final BufferedReader reader;
+        private final AtomicLong read = new AtomicLong();
+        private final AtomicLong written = new AtomicLong();
+        private long line;
+        private long rejected;
+        private Map.Entry<String, String> next;
+
+        Records(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null) {
+                    String text = reader.readLine();
+                    if (text == null)
+                        return false;
+                    line++;
+                    if (text.trim().isEmpty())
+                        continue;
+
+                    int colon = text.indexOf(':');
+                    if (colon <= 0) {
+                        if (rejected++ < MAX_PRINTED_REJECTS)
+                            out.println("Skipping line " + line + ", expected key:value");
+                        continue;
+                    }
+                    next = new AbstractMap.SimpleImmutableEntry<>(text.substring(0, colon), text.substring(colon + 1));
+                }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Map.Entry<String, String> record = next;
+            next = null;
+            read.incrementAndGet();
+            return record;
+        }
+    }
+
+    private static class Progress {
+        private final FileChannel channel;
+        private final long size;
+        private final long start;
+
+        Progress(FileChannel channel, long size, long start) {
+            this.channel = channel;
+            this.size = size;
+            this.start = start;
+        }
+
+        /**
+         * The total number of records is estimated from how far through the file the reader is, and the ETA from how
+         * fast the writers are getting through them.
+         */
+        String report(long read, long written) {
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long position;
+            try {
+                position = channel.isOpen() ? channel.position() : size;
+            } catch (IOException e) {
+                position = size;
+            }
+
+            double fraction = size == 0 ? 1 : (double) position / size;
+            double rate = written / seconds;
+            String eta = fraction <= 0 || rate <= 0 ? "unknown" : duration((long) ((read / fraction - written) / rate));
+            return String.format("%,d records read, %,d written  %,.0f records/s  %.1f%%  ETA %s",
+                    read, written, rate, fraction * 100, eta);
+        }
+    }
+
+    static String duration(long seconds) {
+        return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
+    public static class Result {
+        private final long records;
+        private final long rejected;
+        private final long bytes;
+        private final long nanos;
+
+        private Result(long records, long rejected, long bytes, long nanos) {
+            this.records = records;
+            this.rejected = rejected;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        public long getRecords() {
+            return records;
+        }
+
+        /**
+         * Lines that weren't blank but couldn't be read as {@code key:value}.
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        public double getSeconds() {
+            return nanos / 1e9;
+        }
+
+        public double getRecordsPerSecond() {
+            return records / Math.max(getSeconds(), 1e-9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Loaded %,d records (%,d rejected) from %,d bytes in %s, %,.0f records/s", records,
+                    rejected, bytes, duration((long) getSeconds()), getRecordsPerSecond());
+        }
+    }
+}
@@ -0,0 +1,181 @@
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Keeps nodes in a concurrent map in this process. Useful for running the tree algorithms without any I/O, for example
+ * to measure how many node reads and writes an operation costs apart from network time. Commits hold a write lock and
+ * reads a read lock, so a read sees either all of a batch or none of it, the way a transaction reads in DynamoDB.
+ * Scans don't lock, just as DynamoDB scans aren't isolated from writes.
+ *
+ * With {@code keyIndex} set, nodes that hold a single key are also indexed by that key, for {@link #findId}, like
+ * {@link TreeConfig.Builder#keyIndex} does for DynamoDB. It is off by default, so lookups walk the tree.
+ */
+public class InMemoryNodeStore implements NodeStore {
+
+    private final String name;
+    private final ConcurrentMap<String, Map<String, AttributeValue>> items = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> keys = new ConcurrentHashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final boolean keyIndex;
+
+    public InMemoryNodeStore(String name) {
+        this(name, false);
+    }
+
+    public InMemoryNodeStore(String name, boolean keyIndex) {
+        this.name = name;
+        this.keyIndex = keyIndex;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Optional<Map<String, AttributeValue>> get(String id) {
+        lock.readLock().lock();
+        try {
+            return Optional.ofNullable(NodeStore.copy(items.get(id)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<String> findId(String key) {
+        lock.readLock().lock();
+        try {
+            return Optional.ofNullable(keys.get(key));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean hasKeyIndex() {
+        return keyIndex;
+    }
+
+    @Override
+    public Map<String, Map<String, AttributeValue>> getAll(Collection<String> ids) {
+        Map<String, Map<String, AttributeValue>> found = new HashMap<>();
+
+        lock.readLock().lock();
+        try {
+            for (String id : ids) {
+                Map<String, AttributeValue> item = items.get(id);
+                if (item != null)
+                    found.put(id, NodeStore.copy(item));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return found;
+    }
+
+    @Override
+    public void commit(NodeBatch batch) {
+        lock.writeLock().lock();
+        try {
+            batch.getChecks().forEach(this::checkVersion);
+            batch.getPuts().forEach(this::checkVersion);
+            batch.getDeletes().forEach(this::checkVersion);
+
+            for (TreeNode node : batch.getPuts()) {
+                store(node.getId(), NodeStore.nextItem(node));
+            }
+            for (TreeNode node : batch.getDeletes()) {
+                remove(node.getId());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void store(String id, Map<String, AttributeValue> item) {
+        unindex(id, items.put(id, item));
+        if (keyIndex && item.get("key") != null)
+            keys.put(item.get("key").getS(), id);
+    }
+
+    private void remove(String id) {
+        unindex(id, items.remove(id));
+    }
+
+    private void unindex(String id, Map<String, AttributeValue> old) {
+        if (old != null && old.get("key") != null)
+            keys.remove(old.get("key").getS(), id);
+    }
+
+    private void checkVersion(TreeNode node) {
+        if (!NodeStore.isAtVersion(items.get(node.getId()), node.getVersion()))
+            throw new NodeConflictException("Node " + node.getId() + " was changed by another writer.");
+    }
+
+    @Override
+    public void delete(String id) {
+        lock.writeLock().lock();
+        try {
+            remove(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void scan(int segments, Consumer<Map<String, AttributeValue>> consumer) {
+        items.values().forEach(item -> consumer.accept(NodeStore.copy(item)));
+    }
+
+    @Override
+    public NodeWriter newWriter() {
+        return new NodeWriter() {
+            private long written;
+
+            @Override
+            public void put(Map<String, AttributeValue> item) {
+                lock.writeLock().lock();
+                try {
+                    store(item.get("id").getS(), NodeStore.copy(item));
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                written++;
+            }
+
+            @Override
+            public void delete(String id) {
+                InMemoryNodeStore.this.delete(id);
+                written++;
+            }
+
+            @Override
+            public long getWritten() {
+                return written;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,110 @@
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The binary form node items take in local files: an attribute count followed by each attribute's name and value.
+ * Values are tagged S (string), N (number), B (boolean), X (binary) or L (list).
+ */
+final class ItemCodec {
+
+    private ItemCodec() {
+    }
+
+    static byte[] encode(Map<String, AttributeValue> item) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(item.size());
+            for (Map.Entry<String, AttributeValue> attribute : item.entrySet()) {
+                writeString(out, attribute.getKey());
+                writeValue(out, attribute.getValue());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeValue(DataOutputStream out, AttributeValue value) throws IOException {
+        if (value.getS() != null) {
+            out.writeByte('S');
+            writeString(out, value.getS());
+        } else if (value.getN() != null) {
+            out.writeByte('N');
+            writeString(out, value.getN());
+        } else if (value.getBOOL() != null) {
+            out.writeByte('B');
+            out.writeBoolean(value.getBOOL());
+        } else if (value.getB() != null) {
+            ByteBuffer binary = value.getB().duplicate();
+            byte[] bytes = new byte[binary.remaining()];
+            binary.get(bytes);
+            out.writeByte('X');
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else if (value.getL() != null) {
+            out.writeByte('L');
+            out.writeInt(value.getL().size());
+            for (AttributeValue element : value.getL()) {
+                writeValue(out, element);
+            }
+        } else {
+            throw new IllegalArgumentException("Can't store attribute " + value + "!");
+        }
+    }
+
+    static Map<String, AttributeValue> decode(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        Map<String, AttributeValue> item = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            item.put(readString(buffer), readValue(buffer));
+        }
+        return item;
+    }
+
+    private static AttributeValue readValue(ByteBuffer buffer) {
+        byte type = buffer.get();
+        switch (type) {
+            case 'S':
+                return new AttributeValue(readString(buffer));
+            case 'N':
+                return new AttributeValue().withN(readString(buffer));
+            case 'B':
+                return new AttributeValue().withBOOL(buffer.get() != 0);
+            case 'X':
+                byte[] binary = new byte[buffer.getInt()];
+                buffer.get(binary);
+                return new AttributeValue().withB(ByteBuffer.wrap(binary));
+            case 'L':
+                int size = buffer.getInt();
+                List<AttributeValue> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(buffer));
+                }
+                return new AttributeValue().withL(list);
+            default:
+                throw new IllegalStateException("Corrupt node data! Unknown attribute type " + type + ".");
+        }
+    }
+
+    static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
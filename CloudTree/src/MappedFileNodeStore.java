@@ -0,0 +1,440 @@
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Keeps nodes in a local file that is memory mapped in {@link #SEGMENT_SIZE} segments and only ever appended to. An
+ * index in memory points at the latest copy of each node, and is rebuilt by reading the file through when it is
+ * opened.
+ *
+ * Each committed batch is appended as one record whose length is written last, so a batch that was only half written
+ * when the process died is ignored the next time the file is opened. Old copies of nodes stay in the file until
+ * {@link #compact()} rewrites it.
+ */
+public class MappedFileNodeStore implements NodeStore {
+
+    public static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final int WRITER_RECORD_BYTES = 1024 * 1024;
+
+    private final Path file;
+    private final List<MappedByteBuffer> segments = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<String, Location> index = new ConcurrentHashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private FileChannel channel;
+    private long end;
+
+    public MappedFileNodeStore(Path file) throws IOException {
+        this.file = file;
+        open();
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        long size = channel.size();
+        do {
+            mapSegment();
+        } while ((long) segments.size() * SEGMENT_SIZE < size);
+
+        replay();
+    }
+
+    private void mapSegment() throws IOException {
+        segments.add(channel.map(FileChannel.MapMode.READ_WRITE, (long) segments.size() * SEGMENT_SIZE, SEGMENT_SIZE));
+    }
+
+    /**
+     * Reads every record from the start of the file to rebuild the index. A record length of 0 means the rest of that
+     * segment is unused, or the end of the file when it is in the last segment.
+     */
+    private void replay() {
+        long position = 0;
+
+        while (segmentOf(position) < segments.size()) {
+            int offset = offsetOf(position);
+            if (SEGMENT_SIZE - offset < Integer.BYTES) {
+                position = nextSegment(position);
+                continue;
+            }
+
+            ByteBuffer buffer = segments.get(segmentOf(position)).duplicate();
+            int length = buffer.getInt(offset);
+            if (length == 0) {
+                if (segmentOf(position) == segments.size() - 1)
+                    break;
+                position = nextSegment(position);
+                continue;
+            }
+
+            buffer.position(offset + Integer.BYTES);
+            long bodyStart = position + Integer.BYTES;
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                byte type = buffer.get();
+                String id = ItemCodec.readString(buffer);
+                if (type == PUT) {
+                    long version = buffer.getLong();
+                    int itemLength = buffer.getInt();
+                    index.put(id, new Location(bodyStart + (buffer.position() - offset - Integer.BYTES), itemLength, version));
+                    buffer.position(buffer.position() + itemLength);
+                } else {
+                    index.remove(id);
+                }
+            }
+
+            position += Integer.BYTES + length;
+        }
+
+        end = position;
+    }
+
+    @Override
+    public String getName() {
+        return file.getFileName().toString();
+    }
+
+    @Override
+    public Optional<Map<String, AttributeValue>> get(String id) {
+        lock.readLock().lock();
+        try {
+            Location location = index.get(id);
+            return location == null ? Optional.empty() : Optional.of(read(location));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Map<String, AttributeValue>> getAll(Collection<String> ids) {
+        Map<String, Map<String, AttributeValue>> items = new HashMap<>();
+
+        lock.readLock().lock();
+        try {
+            for (String id : ids) {
+                Location location = index.get(id);
+                if (location != null)
+                    items.put(id, read(location));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return items;
+    }
+
+    private Map<String, AttributeValue> read(Location location) {
+        ByteBuffer buffer = segments.get(segmentOf(location.position)).duplicate();
+        buffer.position(offsetOf(location.position));
+        return ItemCodec.decode(buffer);
+    }
+
+    @Override
+    public void commit(NodeBatch batch) {
+        lock.writeLock().lock();
+        try {
+            batch.getChecks().forEach(this::checkVersion);
+            batch.getPuts().forEach(this::checkVersion);
+            batch.getDeletes().forEach(this::checkVersion);
+
+            Record record = new Record();
+            for (TreeNode node : batch.getPuts()) {
+                record.put(node.getId(), ItemCodec.encode(NodeStore.nextItem(node)), node.getVersion() + 1);
+            }
+            for (TreeNode node : batch.getDeletes()) {
+                record.delete(node.getId());
+            }
+            append(record);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void checkVersion(TreeNode node) {
+        Location location = index.get(node.getId());
+        long version = location == null ? 0 : location.version;
+        if (version != node.getVersion())
+            throw new NodeConflictException("Node " + node.getId() + " was changed by another writer.");
+    }
+
+    @Override
+    public void delete(String id) {
+        lock.writeLock().lock();
+        try {
+            if (index.containsKey(id))
+                append(new Record().delete(id));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the nodes one at a time from a copy of the index, so commits aren't held up for the whole scan. Nodes
+     * deleted part way through are skipped.
+     */
+    @Override
+    public void scan(int segments, Consumer<Map<String, AttributeValue>> consumer) {
+        for (String id : new ArrayList<>(index.keySet())) {
+            get(id).ifPresent(consumer);
+        }
+    }
+
+    /**
+     * Writes nodes as records of about {@link #WRITER_RECORD_BYTES} each, so a bulk load doesn't pay for a record per
+     * node.
+     */
+    @Override
+    public NodeWriter newWriter() {
+        return new NodeWriter() {
+            private Record record = new Record();
+            private long written;
+
+            @Override
+            public void put(Map<String, AttributeValue> item) {
+                long version = item.get("version") == null ? 0 : Long.parseLong(item.get("version").getN());
+                record.put(item.get("id").getS(), ItemCodec.encode(item), version);
+                added();
+            }
+
+            @Override
+            public void delete(String id) {
+                record.delete(id);
+                added();
+            }
+
+            private void added() {
+                written++;
+                if (record.size() >= WRITER_RECORD_BYTES)
+                    flush();
+            }
+
+            private void flush() {
+                lock.writeLock().lock();
+                try {
+                    append(record);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                record = new Record();
+            }
+
+            @Override
+            public long getWritten() {
+                return written;
+            }
+
+            @Override
+            public void close() {
+                flush();
+            }
+        };
+    }
+
+    /**
+     * Appends a record and points the index at what it wrote. Has to be called with the write lock held.
+     */
+    private void append(Record record) {
+        if (record.ops.isEmpty())
+            return;
+
+        byte[] body = record.toBytes();
+        if (Integer.BYTES + body.length > SEGMENT_SIZE)
+            throw new IllegalArgumentException("A record of " + body.length + " bytes doesn't fit in one segment!");
+
+        if (SEGMENT_SIZE - offsetOf(end) < Integer.BYTES + body.length)
+            end = nextSegment(end);
+
+        try {
+            while (segmentOf(end) >= segments.size()) {
+                mapSegment();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        MappedByteBuffer segment = segments.get(segmentOf(end));
+        ByteBuffer buffer = segment.duplicate();
+        buffer.position(offsetOf(end) + Integer.BYTES);
+        buffer.put(body);
+        //The length goes in last, so a record is only seen once all of it is there
+        segment.putInt(offsetOf(end), body.length);
+
+        long bodyStart = end + Integer.BYTES;
+        for (Op op : record.ops) {
+            if (op.type == PUT)
+                index.put(op.id, new Location(bodyStart + op.itemOffset, op.itemLength, op.version));
+            else
+                index.remove(op.id);
+        }
+
+        end += Integer.BYTES + body.length;
+    }
+
+    /**
+     * Rewrites the file with only the latest copy of each node. Reads and writes wait while it runs.
+     */
+    public void compact() throws IOException {
+        lock.writeLock().lock();
+        try {
+            Path compacted = file.resolveSibling(file.getFileName() + ".compacting");
+            Files.deleteIfExists(compacted);
+
+            try (MappedFileNodeStore target = new MappedFileNodeStore(compacted)) {
+                Record record = new Record();
+                for (Map.Entry<String, Location> entry : index.entrySet()) {
+                    record.put(entry.getKey(), readBytes(entry.getValue()), entry.getValue().version);
+                    if (record.size() >= WRITER_RECORD_BYTES) {
+                        target.append(record);
+                        record = new Record();
+                    }
+                }
+                target.append(record);
+            }
+
+            close();
+            Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            segments.clear();
+            index.clear();
+            open();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private byte[] readBytes(Location location) {
+        ByteBuffer buffer = segments.get(segmentOf(location.position)).duplicate();
+        buffer.position(offsetOf(location.position));
+        byte[] bytes = new byte[location.length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public void close() {
+        try {
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int segmentOf(long position) {
+        return (int) (position / SEGMENT_SIZE);
+    }
+
+    private static int offsetOf(long position) {
+        return (int) (position % SEGMENT_SIZE);
+    }
+
+    private static long nextSegment(long position) {
+        return (long) (segmentOf(position) + 1) * SEGMENT_SIZE;
+    }
+
+    /**
+     * The puts and deletes of one record. Its body is an op count followed by the ops, where a put carries the node's
+     * version and encoded item.
+     */
+    private static class Record {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final List<Op> ops = new ArrayList<>();
+
+        Record put(String id, byte[] item, long version) {
+            try {
+                out.writeByte(PUT);
+                ItemCodec.writeString(out, id);
+                out.writeLong(version);
+                out.writeInt(item.length);
+                //Offsets are from the start of the body, which begins with the op count
+                ops.add(new Op(PUT, id, Integer.BYTES + out.size(), item.length, version));
+                out.write(item);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        Record delete(String id) {
+            try {
+                out.writeByte(DELETE);
+                ItemCodec.writeString(out, id);
+                ops.add(new Op(DELETE, id, 0, 0, 0));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        int size() {
+            return out.size();
+        }
+
+        byte[] toBytes() {
+            return ByteBuffer.allocate(Integer.BYTES + out.size())
+                    .putInt(ops.size())
+                    .put(bytes.toByteArray())
+                    .array();
+        }
+    }
+
+    private static class Op {
+        private final byte type;
+        private final String id;
+        private final int itemOffset;
+        private final int itemLength;
+        private final long version;
+
+        Op(byte type, String id, int itemOffset, int itemLength, long version) {
+            this.type = type;
+            this.id = id;
+            this.itemOffset = itemOffset;
+            this.itemLength = itemLength;
+            this.version = version;
+        }
+    }
+
+    private static class Location {
+        private final long position;
+        private final int length;
+        private final long version;
+
+        Location(long position, int length, long version) {
+            this.position = position;
+            this.length = length;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The node writes that make up one logical tree mutation.
+ *
+ * Only the last write to a node id is kept, so a node that is put and then deleted (or the other way around) turns
+ * into a single write when the batch is committed.
+ */
+public class NodeBatch {
+
+    private final Map<String, TreeNode> puts = new LinkedHashMap<>();
+    private final Map<String, TreeNode> deletes = new LinkedHashMap<>();
+    private final Map<String, TreeNode> checks = new LinkedHashMap<>();
+
+    public NodeBatch put(TreeNode node) {
+        deletes.remove(node.getId());
+        checks.remove(node.getId());
+        puts.put(node.getId(), node);
+        return this;
+    }
+
+    public NodeBatch delete(TreeNode node) {
+        puts.remove(node.getId());
+        checks.remove(node.getId());
+        deletes.put(node.getId(), node);
+        return this;
+    }
+
+    /**
+     * Makes the batch fail unless a node that was read but not changed is still at the version it was read at. Nodes
+     * that are written already get this check with their write.
+     */
+    public NodeBatch check(TreeNode node) {
+        if (!puts.containsKey(node.getId()) && !deletes.containsKey(node.getId()))
+            checks.put(node.getId(), node);
+        return this;
+    }
+
+    public Collection<TreeNode> getPuts() {
+        return Collections.unmodifiableCollection(puts.values());
+    }
+
+    public Collection<TreeNode> getDeletes() {
+        return Collections.unmodifiableCollection(deletes.values());
+    }
+
+    public Collection<TreeNode> getChecks() {
+        return Collections.unmodifiableCollection(checks.values());
+    }
+
+    public int size() {
+        return puts.size() + deletes.size() + checks.size();
+    }
+
+    /**
+     * Whether the batch has nothing to write. Checks on their own don't need committing.
+     */
+    public boolean isEmpty() {
+        return puts.isEmpty() && deletes.isEmpty();
+    }
+}
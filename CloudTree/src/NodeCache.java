@@ -0,0 +1,124 @@
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of node items keyed by node id.
+ *
+ * Items are cached rather than node objects so that every lookup hands back a fresh, mutable node.
+ * A capacity of 0 disables the cache.
+ */
+public class NodeCache {
+
+    private final int capacity;
+    private final LinkedHashMap<String, Map<String, AttributeValue>> items;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public NodeCache(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Cache capacity can't be negative!");
+
+        this.capacity = capacity;
+        this.items = new LinkedHashMap<String, Map<String, AttributeValue>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, AttributeValue>> eldest) {
+                if (size() > NodeCache.this.capacity) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized Optional<Map<String, AttributeValue>> get(String id) {
+        Map<String, AttributeValue> item = items.get(id);
+
+        if (item == null) {
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+
+        hits.incrementAndGet();
+        return Optional.of(item);
+    }
+
+    /**
+     * Caches an item unless a newer version of it is already cached. A reader that raced a writer can finish after
+     * the writer has cached what it wrote, and mustn't put its older copy back over it.
+     */
+    public synchronized void put(String id, Map<String, AttributeValue> item) {
+        if (capacity == 0)
+            return;
+        Map<String, AttributeValue> current = items.get(id);
+        if (current != null && version(current) > version(item))
+            return;
+        items.put(id, item);
+    }
+
+    private static long version(Map<String, AttributeValue> item) {
+        AttributeValue version = item.get("version");
+        return version == null ? -1 : Long.parseLong(version.getN());
+    }
+
+    /**
+     * Replaces an item that is already cached with a newer version of it. Items that aren't cached stay out.
+     */
+    public synchronized void refresh(String id, Map<String, AttributeValue> item) {
+        Map<String, AttributeValue> current = items.get(id);
+        if (current != null && version(current) < version(item))
+            items.put(id, item);
+    }
+
+    public synchronized void invalidate(String id) {
+        items.remove(id);
+    }
+
+    public synchronized void clear() {
+        items.clear();
+    }
+
+    public synchronized int size() {
+        return items.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    public void resetStats() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("NodeCache[size=%d, capacity=%d, hits=%d, misses=%d, evictions=%d, hitRate=%.2f]",
+                size(), capacity, getHits(), getMisses(), getEvictions(), getHitRate());
+    }
+}
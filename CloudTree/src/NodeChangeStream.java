@@ -0,0 +1,251 @@
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBStreams;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.DescribeStreamRequest;
+import com.amazonaws.services.dynamodbv2.model.GetRecordsRequest;
+import com.amazonaws.services.dynamodbv2.model.GetRecordsResult;
+import com.amazonaws.services.dynamodbv2.model.GetShardIteratorRequest;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.Shard;
+import com.amazonaws.services.dynamodbv2.model.ShardIteratorType;
+import com.amazonaws.services.dynamodbv2.model.StreamDescription;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Follows the DynamoDB stream of a tree's table so trees in other processes can keep their caches current. Open one
+ * with {@link DynamoNodeStore#openChangeStream} and hand it to {@link AbstractCloudTree#followChanges}.
+ *
+ * A background thread reads every shard of the stream once per poll interval, starting from the newest change when
+ * the stream is opened, and tells each listener about every node written or deleted. A cached node is then replaced
+ * with the newer version or dropped, so a reader sees another process's writes within the poll interval plus the
+ * second or so DynamoDB takes to publish them. If the stream can't be read, for example because it fell more than a
+ * day behind, listeners are told to throw their caches away and reading starts again from the newest change.
+ */
+public class NodeChangeStream implements AutoCloseable {
+
+    public static final long DEFAULT_POLL_MILLIS = 1000;
+
+    private static final int MAX_RECORDS = 1000;
+
+    private final AmazonDynamoDBStreams streams;
+    private final String streamArn;
+    private final long pollMillis;
+    private final boolean ownsClient;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Map<String, String> iterators = new LinkedHashMap<>();
+    private final Set<String> started = new HashSet<>();
+    private final Thread poller;
+
+    private boolean describe = true;
+    private volatile boolean closed;
+    private volatile long current = System.currentTimeMillis();
+
+    /**
+     * Follows a stream through the given client, which is left open on {@link #close}. Any client will do, including
+     * one pointed at DynamoDB Local.
+     */
+    public NodeChangeStream(AmazonDynamoDBStreams streams, String streamArn, long pollMillis) {
+        this(streams, streamArn, pollMillis, false);
+    }
+
+    NodeChangeStream(AmazonDynamoDBStreams streams, String streamArn, long pollMillis, boolean ownsClient) {
+        if (pollMillis < 1)
+            throw new IllegalArgumentException("The poll interval must be at least 1 millisecond!");
+
+        this.streams = streams;
+        this.streamArn = streamArn;
+        this.pollMillis = pollMillis;
+        this.ownsClient = ownsClient;
+
+        //Find the newest position before returning, so no write made after this can be missed
+        discover();
+
+        this.poller = new Thread(this::run, "node-changes");
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+    public void subscribe(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void unsubscribe(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * How long ago every shard was last read up to its newest change. Anything cached can be at most this much older
+     * than the table, plus DynamoDB's own delay in publishing to the stream.
+     */
+    public long getLagMillis() {
+        return System.currentTimeMillis() - current;
+    }
+
+    private void run() {
+        while (!closed) {
+            boolean behind;
+            try {
+                behind = poll();
+            } catch (RuntimeException e) {
+                if (closed)
+                    return;
+                //Changes may have been missed, so nothing cached can be trusted
+                iterators.clear();
+                started.clear();
+                describe = true;
+                listeners.forEach(Listener::reset);
+                behind = false;
+            }
+
+            if (!behind) {
+                try {
+                    Thread.sleep(pollMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads one page of changes from every shard.
+     *
+     * @return true if a shard has more changes waiting or new shards need reading, so the next poll shouldn't wait
+     */
+    private boolean poll() {
+        if (describe || iterators.isEmpty())
+            discover();
+
+        boolean behind = false;
+        for (Iterator<Map.Entry<String, String>> shards = iterators.entrySet().iterator(); shards.hasNext(); ) {
+            Map.Entry<String, String> shard = shards.next();
+            GetRecordsResult result = streams.getRecords(new GetRecordsRequest()
+                    .withShardIterator(shard.getValue())
+                    .withLimit(MAX_RECORDS));
+
+            for (Record record : result.getRecords()) {
+                apply(record);
+            }
+
+            if (result.getNextShardIterator() == null) {
+                //The shard has closed and been read to its end, so its children can be read now
+                shards.remove();
+                describe = true;
+                behind = true;
+            } else {
+                shard.setValue(result.getNextShardIterator());
+                if (result.getRecords().size() == MAX_RECORDS)
+                    behind = true;
+            }
+        }
+
+        if (!behind)
+            current = System.currentTimeMillis();
+        return behind;
+    }
+
+    /**
+     * Starts reading any shards not read yet. The first time only open shards are read, from their newest change.
+     * After that new shards are read from their start, but only once their parent has been read to its end, so the
+     * changes to a node always arrive in the order they were made.
+     */
+    private void discover() {
+        boolean first = started.isEmpty();
+        List<Shard> shards = new ArrayList<>();
+        String last = null;
+        do {
+            StreamDescription stream = streams.describeStream(new DescribeStreamRequest()
+                    .withStreamArn(streamArn)
+                    .withExclusiveStartShardId(last)).getStreamDescription();
+            shards.addAll(stream.getShards());
+            last = stream.getLastEvaluatedShardId();
+        } while (last != null);
+
+        Set<String> waiting = new HashSet<>();
+        for (Shard shard : shards) {
+            if (!started.contains(shard.getShardId()))
+                waiting.add(shard.getShardId());
+        }
+
+        for (Shard shard : shards) {
+            String id = shard.getShardId();
+            String parent = shard.getParentShardId();
+            if (started.contains(id) || (!first && (iterators.containsKey(parent) || waiting.contains(parent))))
+                continue;
+
+            boolean open = shard.getSequenceNumberRange() == null
+                    || shard.getSequenceNumberRange().getEndingSequenceNumber() == null;
+            if (first && !open)
+                continue;
+
+            iterators.put(id, streams.getShardIterator(new GetShardIteratorRequest()
+                    .withStreamArn(streamArn)
+                    .withShardId(id)
+                    .withShardIteratorType(first ? ShardIteratorType.LATEST : ShardIteratorType.TRIM_HORIZON))
+                    .getShardIterator());
+        }
+
+        //Only marked once every iterator was opened, so a failure part way starts over from the newest change
+        for (String id : waiting) {
+            if (iterators.containsKey(id) || first)
+                started.add(id);
+        }
+        describe = false;
+    }
+
+    private void apply(Record record) {
+        String id = record.getDynamodb().getKeys().get("id").getS();
+        if (OperationType.REMOVE.toString().equals(record.getEventName())) {
+            for (Listener listener : listeners) {
+                listener.removed(id);
+            }
+        } else {
+            Map<String, AttributeValue> item = record.getDynamodb().getNewImage();
+            for (Listener listener : listeners) {
+                listener.changed(id, item);
+            }
+        }
+    }
+
+    /**
+     * Stops following the stream. The client is shut down too if {@link DynamoNodeStore} made it.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        poller.interrupt();
+        try {
+            poller.join(pollMillis + 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (ownsClient)
+            streams.shutdown();
+    }
+
+    /**
+     * Told about changes on the stream's thread, in the order they were made to each node.
+     */
+    public interface Listener {
+
+        /**
+         * A node was written. The item is null when the stream carries only keys.
+         */
+        void changed(String id, Map<String, AttributeValue> item);
+
+        void removed(String id);
+
+        /**
+         * Changes may have been missed, so anything cached may be stale.
+         */
+        void reset();
+    }
+}
@@ -0,0 +1,15 @@
+/**
+ * Thrown when a node write fails because another writer changed the node after it was read.
+ */
+public class NodeConflictException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public NodeConflictException(String message) {
+        super(message);
+    }
+
+    public NodeConflictException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,109 @@
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+
+/**
+ * The links between a binary tree's nodes, rebuilt from a {@link NodeStore#scan} of its table for
+ * {@link TreeValidator} and {@link TreeStats}. Every node id seen, as a child or parent pointer or as a node, is
+ * numbered in the order it was first seen. Ids are found through an open addressing table of ints, and the links,
+ * heights and fences of node {@code i} live at index {@code i} of the arrays, so millions of nodes fit in memory.
+ */
+class NodeGraph {
+
+    static final int ABSENT = -1;
+
+    String[] ids = new String[1024];
+    String[] keys = new String[1024];
+    int[] left = new int[1024];
+    int[] right = new int[1024];
+    int[] parent = new int[1024];
+    int[] leftHeight = new int[1024];
+    int[] rightHeight = new int[1024];
+    String[] lowKeys = new String[1024];
+    String[] highKeys = new String[1024];
+    final BitSet fenced = new BitSet();
+    final BitSet present = new BitSet();
+    int size;
+    int nodes;
+
+    private int[] slots = new int[2048];
+
+    synchronized void add(Map<String, AttributeValue> item) {
+        int node = indexOf(item.get("id").getS());
+        int leftChild = reference(item.get("leftChild"));
+        int rightChild = reference(item.get("rightChild"));
+        int parentNode = reference(item.get("parent"));
+
+        if (!present.get(node)) {
+            present.set(node);
+            nodes++;
+        }
+        keys[node] = item.get("key") == null ? null : item.get("key").getS();
+        left[node] = leftChild;
+        right[node] = rightChild;
+        parent[node] = parentNode;
+        leftHeight[node] = item.get("leftHeight") == null ? ABSENT : Integer.parseInt(item.get("leftHeight").getN());
+        rightHeight[node] = item.get("rightHeight") == null ? ABSENT : Integer.parseInt(item.get("rightHeight").getN());
+        fenced.set(node, item.get("fenced") != null && item.get("fenced").getBOOL());
+        lowKeys[node] = item.get("lowKey") == null ? null : item.get("lowKey").getS();
+        highKeys[node] = item.get("highKey") == null ? null : item.get("highKey").getS();
+    }
+
+    int find(String id) {
+        int mask = slots.length - 1;
+        for (int slot = id.hashCode() & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (ids[slots[slot] - 1].equals(id))
+                return slots[slot] - 1;
+        }
+        return ABSENT;
+    }
+
+    private int reference(AttributeValue id) {
+        return id == null ? ABSENT : indexOf(id.getS());
+    }
+
+    private int indexOf(String id) {
+        int mask = slots.length - 1;
+        int slot = id.hashCode() & mask;
+        for (; slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (ids[slots[slot] - 1].equals(id))
+                return slots[slot] - 1;
+        }
+
+        if (size == ids.length)
+            grow();
+        ids[size] = id;
+        left[size] = right[size] = parent[size] = leftHeight[size] = rightHeight[size] = ABSENT;
+        slots[slot] = ++size;
+
+        if (size * 2 > slots.length)
+            rehash();
+        return size - 1;
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        keys = Arrays.copyOf(keys, capacity);
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        leftHeight = Arrays.copyOf(leftHeight, capacity);
+        rightHeight = Arrays.copyOf(rightHeight, capacity);
+        lowKeys = Arrays.copyOf(lowKeys, capacity);
+        highKeys = Arrays.copyOf(highKeys, capacity);
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int node = 0; node < size; node++) {
+            int slot = ids[node].hashCode() & mask;
+            while (slots[slot] != 0)
+                slot = (slot + 1) & mask;
+            slots[slot] = node + 1;
+        }
+    }
+}
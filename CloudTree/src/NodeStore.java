@@ -0,0 +1,136 @@
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Where a tree keeps its nodes. Nodes are passed in and out as the items {@link TreeNode#asItem()} produces, so every
+ * engine stores exactly the same thing.
+ *
+ * Committing a {@link NodeBatch} applies all of it or none of it, and only if every node in it is still at the version
+ * it was read at. Engines throw a {@link NodeConflictException} when one isn't.
+ */
+public interface NodeStore extends AutoCloseable {
+
+    /**
+     * How many parts {@link #scan} splits a table into when the caller doesn't say.
+     */
+    int DEFAULT_SCAN_SEGMENTS = 4;
+
+    String getName();
+
+    Optional<Map<String, AttributeValue>> get(String id);
+
+    /**
+     * Reads only some of a node's attributes, for walking past a node without downloading all of it. The id is always
+     * included.
+     */
+    default Optional<Map<String, AttributeValue>> get(String id, Collection<String> attributes) {
+        return get(id).map(item -> {
+            Map<String, AttributeValue> projected = new HashMap<>();
+            projected.put("id", item.get("id"));
+            for (String attribute : attributes) {
+                if (item.containsKey(attribute))
+                    projected.put(attribute, item.get(attribute));
+            }
+            return projected;
+        });
+    }
+
+    /**
+     * Reads many nodes at once. Ids that don't exist are left out of the result.
+     */
+    Map<String, Map<String, AttributeValue>> getAll(Collection<String> ids);
+
+    /**
+     * The id of the node holding {@code key}, for engines that keep an index of keys. The answer may be out of date,
+     * so callers have to check the node they read still holds the key, and walk the tree when it doesn't or nothing is
+     * found. Engines without an index always find nothing.
+     */
+    default Optional<String> findId(String key) {
+        return Optional.empty();
+    }
+
+    default boolean hasKeyIndex() {
+        return false;
+    }
+
+    default CompletableFuture<Optional<Map<String, AttributeValue>>> getAsync(String id) {
+        try {
+            return CompletableFuture.completedFuture(get(id));
+        } catch (RuntimeException e) {
+            CompletableFuture<Optional<Map<String, AttributeValue>>> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    /**
+     * Writes every put in the batch as the node's next version and removes every delete.
+     */
+    void commit(NodeBatch batch);
+
+    default CompletableFuture<Void> commitAsync(NodeBatch batch) {
+        try {
+            commit(batch);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    /**
+     * Deletes a node whatever version it is at.
+     */
+    void delete(String id);
+
+    /**
+     * Hands every stored node to {@code consumer}, in no particular order. Engines that can read in parallel split the
+     * work into {@code segments} parts and call the consumer from that many threads at once.
+     */
+    void scan(int segments, Consumer<Map<String, AttributeValue>> consumer);
+
+    /**
+     * A writer for loading nodes nothing else can see yet. Its writes aren't versioned or atomic.
+     */
+    NodeWriter newWriter();
+
+    /**
+     * Lets an engine report what only it can see, such as the capacity DynamoDB says a request used. Engines with
+     * nothing extra to report ignore it.
+     */
+    default void setMetrics(TreeMetrics metrics) {
+    }
+
+    @Override
+    void close();
+
+    /**
+     * The item for a node's next version.
+     */
+    static Map<String, AttributeValue> nextItem(TreeNode node) {
+        Map<String, AttributeValue> item = node.asItem();
+        item.put("version", new AttributeValue().withN(Long.toString(node.getVersion() + 1)));
+        return item;
+    }
+
+    /**
+     * Whether a stored item (null if there is none) is at {@code version}. Nodes written before versioning have no
+     * version attribute and count as version 0, as does a node that hasn't been stored yet.
+     */
+    static boolean isAtVersion(Map<String, AttributeValue> item, long version) {
+        if (item == null || item.get("version") == null)
+            return version == 0;
+        return Long.parseLong(item.get("version").getN()) == version;
+    }
+
+    static Map<String, AttributeValue> copy(Map<String, AttributeValue> item) {
+        return item == null ? null : new HashMap<>(item);
+    }
+}
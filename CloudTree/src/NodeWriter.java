@@ -0,0 +1,26 @@
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.util.Map;
+
+/**
+ * Writes nodes straight to a {@link NodeStore} for bulk loads, without versions or transactions. Closing it waits for
+ * every write to land.
+ */
+public interface NodeWriter extends AutoCloseable {
+
+    default void put(TreeNode node) {
+        put(node.asItem());
+    }
+
+    /**
+     * Writes an item as it is, version included.
+     */
+    void put(Map<String, AttributeValue> item);
+
+    void delete(String id);
+
+    long getWritten();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,92 @@
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Function;
+
+/**
+ * Runs a {@link NodeStore#scan} on a background thread and hands each node to a single reader as a key value pair,
+ * for feeding a scan into {@link ExternalSorter}. The nodes pass through a bounded queue, so a slow reader holds the
+ * scan back instead of piling nodes up in memory. If the scan fails, the reader gets the error once it has read
+ * everything found before it.
+ */
+class ScanIterator implements Iterator<Map.Entry<String, String>>, AutoCloseable {
+
+    private static final int QUEUE_SIZE = 10000;
+    private static final Map.Entry<String, String> END = new AbstractMap.SimpleImmutableEntry<>("", "");
+
+    private final BlockingQueue<Map.Entry<String, String>> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final Thread scanner;
+    private volatile RuntimeException failure;
+    private Map.Entry<String, String> next;
+
+    /**
+     * @param entry turns a node into the pair to hand over, or null to skip it. Called from the scan's threads.
+     */
+    ScanIterator(NodeStore store, int segments, Function<Map<String, AttributeValue>, Map.Entry<String, String>> entry) {
+        if (segments < 1)
+            throw new IllegalArgumentException("Segments must be at least 1!");
+
+        scanner = new Thread(() -> {
+            try {
+                store.scan(segments, item -> {
+                    Map.Entry<String, String> pair = entry.apply(item);
+                    if (pair != null)
+                        put(pair);
+                });
+            } catch (RuntimeException e) {
+                failure = e;
+            } finally {
+                put(END);
+            }
+        }, "scan-" + store.getName());
+        scanner.setDaemon(true);
+        scanner.start();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while scanning!", e);
+            }
+        }
+
+        if (next == END && failure != null)
+            throw failure;
+        return next != END;
+    }
+
+    @Override
+    public Map.Entry<String, String> next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Map.Entry<String, String> entry = next;
+        next = null;
+        return entry;
+    }
+
+    /**
+     * Stops the scan if the reader gives up early.
+     */
+    @Override
+    public void close() {
+        scanner.interrupt();
+    }
+
+    private void put(Map.Entry<String, String> entry) {
+        try {
+            queue.put(entry);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while scanning!", e);
+        }
+    }
+}
@@ -1,13 +1,31 @@
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Scanner;
 
 public class Tester {
 
-    public static void main(String[] args) throws InterruptedException {
+    public static void main(String[] args) throws InterruptedException, IOException {
+        Map<String, String> options = new HashMap<>();
+        List<String> positional = new ArrayList<>();
+        for(int i = 0; i < args.length; i++) {
+            if(args[i].startsWith("--") && i + 1 < args.length)
+                options.put(args[i], args[++i]);
+            else
+                positional.add(args[i]);
+        }
+        args = positional.toArray(new String[0]);
+
         if(args.length < 1) {
-            System.out.println("Invalid Argument! Usage: java Tester treeName [credentialsFile]");
+            System.out.println("Invalid Argument! Usage: java Tester treeName [credentialsFile] [bst|avl|bplus] [dynamo|memory|file]" +
+                    " [--ingest file [--writers n] [--batch n]]");
             System.exit(0);
         }
 
@@ -17,16 +35,34 @@ public class Tester {
         System.out.println("Loading Tree...");
         if(args.length == 1) {
             tree = new BinarySearchCloudTree(args[0], null);
-        } else {
+        } else if(args.length == 2) {
             tree = new BinarySearchCloudTree(args[0], args[1]);
+        } else if(args.length == 3) {
+            tree = createTree(args[2], new DynamoNodeStore(args[0], args[1]));
+        } else {
+            tree = createTree(args[2], createStore(args[3], args[0], args[1]));
         }
         System.out.println("Tree Loaded!");
 
+        TreeMetricsCollector metrics = new TreeMetricsCollector();
+        if(tree instanceof AbstractCloudTree) {
+            ((AbstractCloudTree<?>) tree).setMetrics(metrics);
+            metrics.register(((AbstractCloudTree<?>) tree).getTreeName());
+        }
+
+        if(options.containsKey("--ingest")) {
+            int status = ingest(tree, options);
+            System.out.print(metrics.summary());
+            if(tree instanceof AbstractCloudTree)
+                ((AbstractCloudTree<?>) tree).getNodeStore().close();
+            System.exit(status);
+        }
+
         boolean running = true;
 
         while(running) {
             int choice = -1;
-            while(choice < 1 || choice > 6) {
+            while(choice < 1 || choice > 13) {
                 menu();
                 try {
                     choice = Integer.parseInt(in.nextLine());
@@ -50,13 +86,9 @@ public class Tester {
                     System.out.println("Please input file location:");
                     String fileLocation = in.nextLine();
                     try {
-                        Scanner fin = new Scanner(new File(fileLocation));
-                        while(fin.hasNextLine()) {
-                            String[] parts = fin.nextLine().split(":");
-                            tree.insert(parts[0], parts[1]);
-                        }
+                        System.out.println(new FileIngest(tree).ingest(Paths.get(fileLocation)));
                         System.out.println("File Scan Complete!");
-                    } catch (FileNotFoundException e) {
+                    } catch (IOException e) {
                         System.out.println("Invalid File Location!");
                     }
                     break;
@@ -79,10 +111,139 @@ public class Tester {
                         System.out.println("Couldn't find key in tree.");
                     break;
                 case 6:
+                    System.out.println("Please input the first key (blank for the start of the tree):");
+                    String fromKey = in.nextLine();
+                    System.out.println("Please input the key to stop before (blank for the end of the tree):");
+                    String toKey = in.nextLine();
+                    Iterator<Map.Entry<String, String>> range = tree.range(fromKey.isEmpty() ? null : fromKey,
+                            toKey.isEmpty() ? null : toKey);
+                    int count = 0;
+                    while(range.hasNext()) {
+                        Map.Entry<String, String> entry = range.next();
+                        System.out.println(entry.getKey() + " : " + entry.getValue());
+                        count++;
+                    }
+                    System.out.println(count + " entries.");
+                    break;
+                case 7:
+                    System.out.print(metrics.summary());
+                    break;
+                case 8:
+                    System.out.println("Please input the snapshot file to write:");
+                    Path snapshot = Paths.get(in.nextLine());
+                    long nodes;
+                    try {
+                        nodes = TreeSnapshot.export(((AbstractCloudTree<?>) tree).getNodeStore(), snapshot);
+                        System.out.println("Exported " + nodes + " nodes.");
+                    } catch (UncheckedIOException e) {
+                        System.out.println("Invalid File Location!");
+                    }
+                    break;
+                case 9:
+                    System.out.println("Please input the snapshot file to read:");
+                    snapshot = Paths.get(in.nextLine());
+                    try {
+                        nodes = TreeSnapshot.restore(snapshot, ((AbstractCloudTree<?>) tree).getNodeStore());
+                        System.out.println("Imported " + nodes + " nodes.");
+                    } catch (IllegalStateException | IllegalArgumentException e) {
+                        System.out.println(e.getMessage());
+                    } catch (UncheckedIOException e) {
+                        System.out.println("Invalid File Location!");
+                    }
+                    break;
+                case 10:
+                    if(!(tree instanceof AbstractBinaryCloudTree)) {
+                        System.out.println("Only binary trees can be validated.");
+                        break;
+                    }
+                    TreeValidator validator = new TreeValidator((AbstractBinaryCloudTree<?>) tree);
+                    TreeValidator.Report report = validator.validate();
+                    report.getProblems().forEach(System.out::println);
+                    System.out.println(report);
+                    if(!report.isValid()) {
+                        System.out.println("Repair the tree? Unreachable keys are put back into it. (y/n)");
+                        if(in.nextLine().trim().equalsIgnoreCase("y"))
+                            System.out.println("Repaired " + validator.repair(report, true) + " nodes.");
+                    }
+                    break;
+                case 11:
+                    if(tree instanceof AbstractBinaryCloudTree)
+                        System.out.print(((AbstractBinaryCloudTree<?>) tree).stats());
+                    else
+                        System.out.println("Only binary trees have stats.");
+                    break;
+                case 12:
+                    if(!(tree instanceof AbstractBinaryCloudTree)) {
+                        System.out.println("Only binary trees can be rebalanced.");
+                        break;
+                    }
+                    System.out.println("Rebalancing...");
+                    try {
+                        System.out.println("Rebalanced " + ((AbstractBinaryCloudTree<?>) tree).rebalance() + " entries.");
+                    } catch (IllegalStateException e) {
+                        System.out.println(e.getMessage());
+                    }
+                    break;
+                case 13:
                     System.out.println("Quitting...");
                     running = false;
             }
         }
+
+        if(tree instanceof AbstractCloudTree)
+            ((AbstractCloudTree<?>) tree).getNodeStore().close();
+    }
+
+    private static CloudTree createTree(String type, NodeStore store) {
+        switch (type.toLowerCase()) {
+            case "bst":
+                return new BinarySearchCloudTree(store, AbstractCloudTree.DEFAULT_CACHE_SIZE);
+            case "avl":
+                return new AVLCloudTree(store, AbstractCloudTree.DEFAULT_CACHE_SIZE);
+            case "bplus":
+                return new BPlusCloudTree(store, BPlusCloudTree.DEFAULT_ORDER, AbstractCloudTree.DEFAULT_CACHE_SIZE);
+            default:
+                System.out.println("Invalid Tree Type! Expected one of: bst, avl, bplus");
+                System.exit(0);
+                return null;
+        }
+    }
+
+    /**
+     * Loads the file given with --ingest and returns the exit status: 0 when every line loaded, 1 when some lines
+     * were rejected and 2 when the load failed.
+     */
+    private static int ingest(CloudTree tree, Map<String, String> options) {
+        try {
+            FileIngest ingest = new FileIngest(tree,
+                    Integer.parseInt(options.getOrDefault("--writers", Integer.toString(FileIngest.DEFAULT_WRITERS))),
+                    Integer.parseInt(options.getOrDefault("--batch", Integer.toString(FileIngest.DEFAULT_BATCH_SIZE))),
+                    FileIngest.DEFAULT_PROGRESS_SECONDS, System.out);
+            FileIngest.Result result = ingest.ingest(Paths.get(options.get("--ingest")));
+            System.out.println(result);
+            return result.getRejected() > 0 ? 1 : 0;
+        } catch (IOException e) {
+            System.out.println("Invalid File Location!");
+            return 2;
+        } catch (RuntimeException e) {
+            System.out.println("Ingest failed: " + e);
+            return 2;
+        }
+    }
+
+    private static NodeStore createStore(String engine, String treeName, String credentialsFile) throws InterruptedException, IOException {
+        switch (engine.toLowerCase()) {
+            case "dynamo":
+                return new DynamoNodeStore(treeName, credentialsFile);
+            case "memory":
+                return new InMemoryNodeStore(treeName);
+            case "file":
+                return new MappedFileNodeStore(Paths.get(treeName + ".db"));
+            default:
+                System.out.println("Invalid Store! Expected one of: dynamo, memory, file");
+                System.exit(0);
+                return null;
+        }
     }
 
     private static void menu() {
@@ -92,6 +253,13 @@ public class Tester {
                 "3. Insert Key Value Pairs from a File\n" +
                 "4. Get Value of Key\n" +
                 "5. Remove Key\n" +
-                "6. Quit\n");
+                "6. List Key Range\n" +
+                "7. Show Metrics\n" +
+                "8. Export Snapshot\n" +
+                "9. Import Snapshot\n" +
+                "10. Validate Tree\n" +
+                "11. Show Tree Stats\n" +
+                "12. Rebalance Tree\n" +
+                "13. Quit\n");
     }
 }
@@ -0,0 +1,202 @@
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.dynamodbv2.model.BillingMode;
+
+/**
+ * How {@link DynamoNodeStore} connects to and sizes a tree's table. The defaults match what trees have always used:
+ * us-west-2, provisioned with 1 read and 1 write capacity unit, and eventually consistent reads.
+ *
+ * The billing mode and capacity are applied when the table is created, and to an existing table whose settings
+ * differ. With auto scaling on, the provisioned capacity is only the floor the table scales between.
+ */
+public class TreeConfig {
+
+    public static final long DEFAULT_CAPACITY = 1;
+
+    private final Regions region;
+    private final String credentialsFile;
+    private final BillingMode billingMode;
+    private final long readCapacity;
+    private final long writeCapacity;
+    private final long maxReadCapacity;
+    private final long maxWriteCapacity;
+    private final double targetUtilization;
+    private final boolean consistentReads;
+    private final boolean keyIndex;
+    private final boolean changeStream;
+
+    private TreeConfig(Builder builder) {
+        this.region = builder.region;
+        this.credentialsFile = builder.credentialsFile;
+        this.billingMode = builder.billingMode;
+        this.readCapacity = builder.readCapacity;
+        this.writeCapacity = builder.writeCapacity;
+        this.maxReadCapacity = builder.maxReadCapacity;
+        this.maxWriteCapacity = builder.maxWriteCapacity;
+        this.targetUtilization = builder.targetUtilization;
+        this.consistentReads = builder.consistentReads;
+        this.keyIndex = builder.keyIndex;
+        this.changeStream = builder.changeStream;
+    }
+
+    public static TreeConfig defaults() {
+        return builder().build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public Regions getRegion() {
+        return region;
+    }
+
+    public String getCredentialsFile() {
+        return credentialsFile;
+    }
+
+    public BillingMode getBillingMode() {
+        return billingMode;
+    }
+
+    public long getReadCapacity() {
+        return readCapacity;
+    }
+
+    public long getWriteCapacity() {
+        return writeCapacity;
+    }
+
+    public boolean isAutoScaling() {
+        return targetUtilization > 0;
+    }
+
+    public long getMaxReadCapacity() {
+        return maxReadCapacity;
+    }
+
+    public long getMaxWriteCapacity() {
+        return maxWriteCapacity;
+    }
+
+    /**
+     * The percentage of provisioned capacity auto scaling aims to keep in use, or 0 when auto scaling is off.
+     */
+    public double getTargetUtilization() {
+        return targetUtilization;
+    }
+
+    public boolean isConsistentReads() {
+        return consistentReads;
+    }
+
+    public boolean isKeyIndex() {
+        return keyIndex;
+    }
+
+    public boolean isChangeStream() {
+        return changeStream;
+    }
+
+    public static class Builder {
+        private Regions region = Regions.US_WEST_2;
+        private String credentialsFile;
+        private BillingMode billingMode = BillingMode.PROVISIONED;
+        private long readCapacity = DEFAULT_CAPACITY;
+        private long writeCapacity = DEFAULT_CAPACITY;
+        private long maxReadCapacity;
+        private long maxWriteCapacity;
+        private double targetUtilization;
+        private boolean consistentReads;
+        private boolean keyIndex;
+        private boolean changeStream;
+
+        private Builder() {
+        }
+
+        public Builder region(Regions region) {
+            this.region = region;
+            return this;
+        }
+
+        /**
+         * A properties file with the access and secret keys to use. Without one the default credentials are used.
+         */
+        public Builder credentialsFile(String credentialsFile) {
+            this.credentialsFile = credentialsFile;
+            return this;
+        }
+
+        /**
+         * Pay per request instead of provisioning capacity. The table absorbs bursts without throttling, at a higher
+         * price per request than steady provisioned load.
+         */
+        public Builder onDemand() {
+            this.billingMode = BillingMode.PAY_PER_REQUEST;
+            return this;
+        }
+
+        public Builder provisioned(long readCapacity, long writeCapacity) {
+            this.billingMode = BillingMode.PROVISIONED;
+            this.readCapacity = readCapacity;
+            this.writeCapacity = writeCapacity;
+            return this;
+        }
+
+        /**
+         * Lets Application Auto Scaling move the provisioned capacity between the amounts given to
+         * {@link #provisioned} and these maximums, aiming to keep {@code targetUtilization} percent of it in use.
+         */
+        public Builder autoScaling(long maxReadCapacity, long maxWriteCapacity, double targetUtilization) {
+            this.maxReadCapacity = maxReadCapacity;
+            this.maxWriteCapacity = maxWriteCapacity;
+            this.targetUtilization = targetUtilization;
+            return this;
+        }
+
+        /**
+         * Read nodes with strongly consistent reads, so a read always sees the latest committed write. Each read costs
+         * twice the read capacity of an eventually consistent one.
+         */
+        public Builder consistentReads(boolean consistentReads) {
+            this.consistentReads = consistentReads;
+            return this;
+        }
+
+        /**
+         * Keep a global secondary index from each key to the node holding it, so a query can read that node directly
+         * instead of walking down from the root. Every write then also writes to the index.
+         */
+        public Builder keyIndex(boolean keyIndex) {
+            this.keyIndex = keyIndex;
+            return this;
+        }
+
+        /**
+         * Turn on a DynamoDB stream of every node written, so trees in other processes can keep their caches current
+         * through a {@link NodeChangeStream}. Reading the stream is charged apart from the table.
+         */
+        public Builder changeStream(boolean changeStream) {
+            this.changeStream = changeStream;
+            return this;
+        }
+
+        public TreeConfig build() {
+            if (region == null)
+                throw new IllegalArgumentException("A region is required!");
+
+            if (billingMode == BillingMode.PROVISIONED && (readCapacity < 1 || writeCapacity < 1))
+                throw new IllegalArgumentException("Provisioned capacity must be at least 1!");
+
+            if (targetUtilization != 0) {
+                if (billingMode != BillingMode.PROVISIONED)
+                    throw new IllegalArgumentException("Auto scaling needs provisioned capacity!");
+                if (targetUtilization < 20 || targetUtilization > 90)
+                    throw new IllegalArgumentException("Target utilization must be between 20 and 90 percent!");
+                if (maxReadCapacity < readCapacity || maxWriteCapacity < writeCapacity)
+                    throw new IllegalArgumentException("Auto scaling maximums can't be below the provisioned capacity!");
+            }
+
+            return new TreeConfig(this);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+/**
+ * Thrown when a write reaches nodes that a {@link AbstractBinaryCloudTree#rebalance rebalance} has retired before it
+ * has switched the tree over to the rebuilt nodes. Conflict retries wait these out instead of giving up.
+ */
+public class TreeFrozenException extends NodeConflictException {
+
+    private static final long serialVersionUID = 1L;
+
+    public TreeFrozenException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * Receives measurements from a tree and its node store. Set one with {@link AbstractCloudTree#setMetrics}; every
+ * method does nothing by default, so an implementation only has to override what it wants to track.
+ * {@link TreeMetricsCollector} keeps counters and latency histograms and publishes them over JMX.
+ *
+ * Methods are called on whatever thread did the work, including the async client's callback threads, so
+ * implementations have to be thread safe.
+ */
+public interface TreeMetrics {
+
+    TreeMetrics NONE = new TreeMetrics() {
+    };
+
+    /**
+     * A tree operation (insert, query, delete or queryAll) finished, successfully or not. {@code depth} is the number
+     * of levels it read, counting the root and every retry, and {@code storageCalls} the number of calls it made to
+     * the node store. Both are -1 for async operations, whose reads don't happen on one thread.
+     */
+    default void operation(String operation, long nanos, int depth, int storageCalls) {
+    }
+
+    /**
+     * One call to the node store (get, getAll, commit or delete) finished, successfully or not.
+     */
+    default void storageCall(String call, long nanos) {
+    }
+
+    /**
+     * An operation lost a race with another writer and is being run again.
+     */
+    default void conflictRetry() {
+    }
+
+    /**
+     * Capacity units DynamoDB reported for a request.
+     */
+    default void consumedCapacity(double units) {
+    }
+
+    /**
+     * A request was throttled and retried, either by the client or because a batch read came back with unprocessed
+     * keys.
+     */
+    default void throttleRetries(int retries) {
+    }
+}
@@ -0,0 +1,201 @@
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Keeps a latency histogram for every tree operation and node store call, along with how deep each operation went,
+ * how many storage calls it made, and the capacity, throttling and conflicts behind them. Call {@link #register} to
+ * publish it as {@code CloudTree:type=Metrics,name=<treeName>} for jconsole or any other JMX client.
+ */
+public class TreeMetricsCollector implements TreeMetrics, TreeMetricsCollectorMXBean {
+
+    private final ConcurrentMap<String, OperationStats> operations = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> storageCalls = new ConcurrentHashMap<>();
+    private final LongAdder conflictRetries = new LongAdder();
+    private final DoubleAdder consumedCapacity = new DoubleAdder();
+    private final LongAdder throttleRetries = new LongAdder();
+
+    private ObjectName registeredAs;
+
+    @Override
+    public void operation(String operation, long nanos, int depth, int storageCalls) {
+        OperationStats stats = operations.computeIfAbsent(operation, name -> new OperationStats());
+        stats.latency.record(nanos);
+        if (depth >= 0) {
+            stats.measured.increment();
+            stats.depth.add(depth);
+            stats.storageCalls.add(storageCalls);
+        }
+    }
+
+    @Override
+    public void storageCall(String call, long nanos) {
+        storageCalls.computeIfAbsent(call, name -> new LatencyHistogram()).record(nanos);
+    }
+
+    @Override
+    public void conflictRetry() {
+        conflictRetries.increment();
+    }
+
+    @Override
+    public void consumedCapacity(double units) {
+        consumedCapacity.add(units);
+    }
+
+    @Override
+    public void throttleRetries(int retries) {
+        throttleRetries.add(retries);
+    }
+
+    public LatencyHistogram getOperationLatency(String operation) {
+        OperationStats stats = operations.get(operation);
+        return stats == null ? null : stats.latency;
+    }
+
+    public LatencyHistogram getStorageCallLatency(String call) {
+        return storageCalls.get(call);
+    }
+
+    @Override
+    public Map<String, Long> getOperationCounts() {
+        return summarize(operations, stats -> stats.latency.getCount());
+    }
+
+    @Override
+    public Map<String, Double> getOperationMeanMillis() {
+        return summarize(operations, stats -> stats.latency.getMeanMillis());
+    }
+
+    @Override
+    public Map<String, Double> getOperationP99Millis() {
+        return summarize(operations, stats -> stats.latency.getPercentileMillis(99));
+    }
+
+    @Override
+    public Map<String, Double> getStorageCallsPerOperation() {
+        return summarize(operations, stats -> stats.average(stats.storageCalls));
+    }
+
+    @Override
+    public Map<String, Double> getMeanDepth() {
+        return summarize(operations, stats -> stats.average(stats.depth));
+    }
+
+    @Override
+    public Map<String, Long> getStorageCallCounts() {
+        return summarize(storageCalls, LatencyHistogram::getCount);
+    }
+
+    @Override
+    public Map<String, Double> getStorageCallMeanMillis() {
+        return summarize(storageCalls, LatencyHistogram::getMeanMillis);
+    }
+
+    @Override
+    public Map<String, Double> getStorageCallP99Millis() {
+        return summarize(storageCalls, histogram -> histogram.getPercentileMillis(99));
+    }
+
+    @Override
+    public long getConflictRetries() {
+        return conflictRetries.sum();
+    }
+
+    @Override
+    public double getConsumedCapacityUnits() {
+        return consumedCapacity.sum();
+    }
+
+    @Override
+    public long getThrottleRetries() {
+        return throttleRetries.sum();
+    }
+
+    @Override
+    public void reset() {
+        operations.clear();
+        storageCalls.clear();
+        conflictRetries.reset();
+        consumedCapacity.reset();
+        throttleRetries.reset();
+    }
+
+    /**
+     * Publishes the collector on the platform MBean server. A collector can only be registered under one name at a
+     * time.
+     */
+    public synchronized void register(String treeName) {
+        if (registeredAs != null)
+            throw new IllegalStateException("Metrics are already registered as " + registeredAs + "!");
+
+        try {
+            ObjectName name = new ObjectName("CloudTree:type=Metrics,name=" + ObjectName.quote(treeName));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            registeredAs = name;
+        } catch (JMException e) {
+            throw new RuntimeException("Couldn't register metrics for " + treeName + "!", e);
+        }
+    }
+
+    public synchronized void unregister() {
+        if (registeredAs == null)
+            return;
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(registeredAs);
+        } catch (JMException e) {
+            throw new RuntimeException("Couldn't unregister metrics " + registeredAs + "!", e);
+        } finally {
+            registeredAs = null;
+        }
+    }
+
+    /**
+     * One line per operation and storage call, for printing.
+     */
+    public String summary() {
+        StringBuilder summary = new StringBuilder();
+        for (Map.Entry<String, OperationStats> entry : new TreeMap<>(operations).entrySet()) {
+            OperationStats stats = entry.getValue();
+            summary.append(String.format("%-10s %8d ops  mean %8.3f ms  p99 %8.3f ms  depth %5.1f  calls/op %5.2f%n",
+                    entry.getKey(), stats.latency.getCount(), stats.latency.getMeanMillis(),
+                    stats.latency.getPercentileMillis(99), stats.average(stats.depth), stats.average(stats.storageCalls)));
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(storageCalls).entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            summary.append(String.format("store.%-4s %8d calls mean %8.3f ms  p99 %8.3f ms%n", entry.getKey(),
+                    histogram.getCount(), histogram.getMeanMillis(), histogram.getPercentileMillis(99)));
+        }
+        summary.append(String.format("Capacity units: %.1f  Throttle retries: %d  Conflict retries: %d%n",
+                getConsumedCapacityUnits(), getThrottleRetries(), getConflictRetries()));
+        return summary.toString();
+    }
+
+    private static <S, V> Map<String, V> summarize(Map<String, S> stats, Function<S, V> value) {
+        Map<String, V> summary = new TreeMap<>();
+        stats.forEach((name, stat) -> summary.put(name, value.apply(stat)));
+        return summary;
+    }
+
+    private static class OperationStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder measured = new LongAdder();
+        final LongAdder depth = new LongAdder();
+        final LongAdder storageCalls = new LongAdder();
+
+        double average(LongAdder total) {
+            long n = measured.sum();
+            return n == 0 ? 0 : (double) total.sum() / n;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+import java.util.Map;
+
+/**
+ * What {@link TreeMetricsCollector} shows over JMX. Maps are keyed on operation or storage call name; latencies are in
+ * milliseconds.
+ */
+public interface TreeMetricsCollectorMXBean {
+
+    Map<String, Long> getOperationCounts();
+
+    Map<String, Double> getOperationMeanMillis();
+
+    Map<String, Double> getOperationP99Millis();
+
+    Map<String, Double> getStorageCallsPerOperation();
+
+    Map<String, Double> getMeanDepth();
+
+    Map<String, Long> getStorageCallCounts();
+
+    Map<String, Double> getStorageCallMeanMillis();
+
+    Map<String, Double> getStorageCallP99Millis();
+
+    long getConflictRetries();
+
+    double getConsumedCapacityUnits();
+
+    long getThrottleRetries();
+
+    void reset();
+}
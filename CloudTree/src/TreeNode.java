@@ -1,22 +1,45 @@
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class TreeNode {
     public static final String ROOT_ID = "root";
 
+    /**
+     * Values longer than this many bytes are stored gzipped as a binary attribute, if that makes them smaller.
+     */
+    public static final int COMPRESS_VALUES_OVER = 1024;
+
     private String id;
     private String key;
     private String value;
     private String parent;
+    private long version;
+    private boolean fenced;
+    private String lowKey;
+    private String highKey;
+    private boolean retired;
 
-    protected TreeNode(String id, String key, String value, String parent) {
+    protected TreeNode(String id, String key, String value, String parent, long version) {
         this.id = id;
         this.key = key;
         this.value = value;
         this.parent = parent;
+        this.version = version;
     }
 
     public static Builder builder() {
@@ -39,6 +62,73 @@ public class TreeNode {
         return parent;
     }
 
+    /**
+     * The version this node had when it was read, or 0 if it hasn't been stored yet. Every write is conditional on the
+     * stored version still matching, so two writers can't silently overwrite each other.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * Whether this node knows which keys its subtree may hold. Nodes written before fences were added don't.
+     */
+    public boolean isFenced() {
+        return fenced;
+    }
+
+    /**
+     * The key every key below this node comes after, or null if there is no lower bound. Whether the bound itself is
+     * included is up to the tree.
+     */
+    public String getLowKey() {
+        return lowKey;
+    }
+
+    /**
+     * The key every key below this node comes before, or null if there is no upper bound.
+     */
+    public String getHighKey() {
+        return highKey;
+    }
+
+    /**
+     * Sets the range of keys this node's subtree may hold. A fence can be narrower than the range the tree really
+     * gives the node, but never wider, so a write that finds the key inside the fence of a node it is conditioned on
+     * knows it is in the right place whatever else it read.
+     */
+    public void setFence(String lowKey, String highKey) {
+        this.fenced = true;
+        this.lowKey = lowKey;
+        this.highKey = highKey;
+    }
+
+    public void clearFence() {
+        this.fenced = false;
+        this.lowKey = null;
+        this.highKey = null;
+    }
+
+    boolean hasFence(String lowKey, String highKey) {
+        return fenced && Objects.equals(this.lowKey, lowKey) && Objects.equals(this.highKey, highKey);
+    }
+
+    /**
+     * Whether a rebalance has frozen this node while it rebuilds the tree. Retired nodes are still read but no longer
+     * written, until the rebuilt tree replaces them.
+     */
+    public boolean isRetired() {
+        return retired;
+    }
+
+    public void setRetired(boolean retired) {
+        this.retired = retired;
+    }
+
     public boolean isRoot() {
         return id.equals(ROOT_ID);
     }
@@ -58,28 +148,110 @@ public class TreeNode {
     public Map<String, AttributeValue> asItem() {
         Map<String, AttributeValue> item = new HashMap<>();
         item.put("id", new AttributeValue(id));
-        item.put("key", new AttributeValue(key));
-        item.put("value", new AttributeValue(value));
+        if (key != null)
+            item.put("key", new AttributeValue(key));
+        if (value != null)
+            item.put("value", encodeValue(value));
         if (parent != null)
             item.put("parent", new AttributeValue(parent));
+        item.put("version", new AttributeValue().withN(Long.toString(version)));
+        if (fenced) {
+            item.put("fenced", new AttributeValue().withBOOL(true));
+            if (lowKey != null)
+                item.put("lowKey", new AttributeValue(lowKey));
+            if (highKey != null)
+                item.put("highKey", new AttributeValue(highKey));
+        }
+        if (retired)
+            item.put("retired", new AttributeValue().withBOOL(true));
         return item;
     }
 
+    /**
+     * A new random node id: the 16 bytes of a random UUID in URL safe base64, which is 22 characters instead of 36.
+     * Ids are only ever compared, so nodes with the older 36 character ids keep working alongside them.
+     */
+    public static String newId() {
+        UUID uuid = UUID.randomUUID();
+        ByteBuffer bytes = ByteBuffer.allocate(16);
+        bytes.putLong(uuid.getMostSignificantBits());
+        bytes.putLong(uuid.getLeastSignificantBits());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.array());
+    }
+
+    /**
+     * A value as an attribute: a plain string, or gzipped bytes when it is over {@link #COMPRESS_VALUES_OVER} bytes
+     * and compresses well.
+     */
+    static AttributeValue encodeValue(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= COMPRESS_VALUES_OVER)
+            return new AttributeValue(value);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 2);
+        try (OutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (compressed.size() >= bytes.length)
+            return new AttributeValue(value);
+        return new AttributeValue().withB(ByteBuffer.wrap(compressed.toByteArray()));
+    }
+
+    static String decodeValue(AttributeValue value) {
+        if (value == null)
+            return null;
+        if (value.getB() == null)
+            return value.getS();
+
+        ByteBuffer compressed = value.getB().duplicate();
+        byte[] bytes = new byte[compressed.remaining()];
+        compressed.get(bytes);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 4);
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            byte[] buffer = new byte[8192];
+            for (int read; (read = in.read(buffer)) != -1; ) {
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
     public static class Builder {
         protected String id;
         protected String key;
         protected String value;
         protected String parent;
+        protected long version;
+        protected boolean fenced;
+        protected String lowKey;
+        protected String highKey;
+        protected boolean retired;
 
         protected Builder() {
-            this.id = UUID.randomUUID().toString();
+            this.id = newId();
         }
 
         public Builder fromItem(Map<String, AttributeValue> item) {
             this.id = item.get("id").getS();
-            this.key = item.get("key").getS();
-            this.value = item.get("value").getS();
+            this.key = item.get("key") == null ? null : item.get("key").getS();
+            this.value = decodeValue(item.get("value"));
             this.parent = item.get("parent") == null ? null : item.get("parent").getS();
+            this.version = item.get("version") == null ? 0 : Long.parseLong(item.get("version").getN());
+            this.fenced = item.get("fenced") != null && item.get("fenced").getBOOL();
+            this.lowKey = item.get("lowKey") == null ? null : item.get("lowKey").getS();
+            this.highKey = item.get("highKey") == null ? null : item.get("highKey").getS();
+            this.retired = item.get("retired") != null && item.get("retired").getBOOL();
+            return this;
+        }
+
+        public Builder id(String id) {
+            this.id = id;
             return this;
         }
 
@@ -103,8 +275,25 @@ public class TreeNode {
             return this;
         }
 
+        public Builder fence(String lowKey, String highKey) {
+            this.fenced = true;
+            this.lowKey = lowKey;
+            this.highKey = highKey;
+            return this;
+        }
+
+        /**
+         * Sets what every kind of node has but doesn't take in its constructor.
+         */
+        protected <N extends TreeNode> N finish(N node) {
+            if (fenced)
+                node.setFence(lowKey, highKey);
+            node.setRetired(retired);
+            return node;
+        }
+
         public TreeNode build() {
-            return new TreeNode(id, key, value, parent);
+            return finish(new TreeNode(id, key, value, parent, version));
         }
     }
 }
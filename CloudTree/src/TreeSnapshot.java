@@ -0,0 +1,152 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.Map;
+
+/**
+ * Copies every node of a tree to a local file and back, for backups or for moving a tree between node stores.
+ *
+ * Exporting scans the store in parallel into a temp file of encoded nodes, and sorts just their ids and offsets in that
+ * file with {@link ExternalSorter}, so memory stays bounded however big the tree is and the same tree always gives the
+ * same file. Importing streams the nodes into the store's {@link NodeWriter}, which for DynamoDB means parallel
+ * BatchWriteItem calls. Nodes keep their ids and versions.
+ *
+ * The file is a header of a magic number and the node count, then one length prefixed record per node in the same
+ * encoding {@link MappedFileNodeStore} uses.
+ */
+public class TreeSnapshot {
+
+    private static final int MAGIC = 0x43545331;
+
+    private TreeSnapshot() {
+    }
+
+    public static long export(NodeStore store, Path file) {
+        return export(store, file, NodeStore.DEFAULT_SCAN_SEGMENTS);
+    }
+
+    /**
+     * Writes every node in {@code store} to {@code file}, replacing it only once the whole snapshot is written.
+     * Nodes changed while the export runs may or may not make it in, so export a tree nothing is writing to.
+     *
+     * @return the number of nodes written
+     */
+    public static long export(NodeStore store, Path file, int segments) {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Spool spool = new Spool(file.resolveSibling(file.getFileName() + ".nodes"));
+             ScanIterator scan = new ScanIterator(store, segments, item -> new AbstractMap.SimpleImmutableEntry<>(
+                     item.get("id").getS(), Long.toString(spool.append(ItemCodec.encode(item)))));
+             ExternalSorter.SortedEntries sorted = ExternalSorter.sort(scan)) {
+            spool.finish();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeLong(sorted.size());
+                for (Map.Entry<String, String> entry : sorted) {
+                    byte[] item = spool.read(Long.parseLong(entry.getValue()));
+                    out.writeInt(item.length);
+                    out.write(item);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return sorted.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Loads a snapshot into an empty node store. A tree opened on the store afterwards sees the exported tree.
+     *
+     * @return the number of nodes loaded
+     */
+    public static long restore(Path file, NodeStore store) {
+        if (store.get(TreeNode.ROOT_ID).isPresent())
+            throw new IllegalStateException("Snapshots can only be restored into an empty tree!");
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+             NodeWriter writer = store.newWriter()) {
+            if (in.readInt() != MAGIC)
+                throw new IllegalArgumentException(file + " isn't a tree snapshot!");
+
+            long count = in.readLong();
+            for (long i = 0; i < count; i++) {
+                byte[] item = new byte[in.readInt()];
+                in.readFully(item);
+                writer.put(ItemCodec.decode(ByteBuffer.wrap(item)));
+            }
+            return count;
+        } catch (EOFException e) {
+            throw new IllegalArgumentException(file + " is truncated!", e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The encoded nodes in the order the scan found them, each at the offset handed back when it was added.
+     */
+    private static class Spool implements Closeable {
+        private final Path file;
+        private final DataOutputStream out;
+        private FileChannel in;
+        private long size;
+
+        Spool(Path file) throws IOException {
+            this.file = file;
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+        }
+
+        /**
+         * Called from the scan's threads.
+         */
+        synchronized long append(byte[] item) {
+            try {
+                long offset = size;
+                out.writeInt(item.length);
+                out.write(item);
+                size += 4 + item.length;
+                return offset;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void finish() throws IOException {
+            out.close();
+            in = FileChannel.open(file, StandardOpenOption.READ);
+        }
+
+        byte[] read(long offset) throws IOException {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            readFully(length, offset);
+            ByteBuffer item = ByteBuffer.allocate(length.getInt(0));
+            readFully(item, offset + 4);
+            return item.array();
+        }
+
+        private void readFully(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (in.read(buffer, position + buffer.position()) < 0)
+                    throw new EOFException();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+            if (in != null)
+                in.close();
+            Files.deleteIfExists(file);
+        }
+    }
+}
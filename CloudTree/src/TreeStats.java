@@ -0,0 +1,139 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The shape of a binary tree: how many nodes it has, how tall it is, how full each level is and how many reads an
+ * average lookup takes. Collected from a parallel scan of the whole table, so it costs one read of every node rather
+ * than a walk. Compare {@link #getHeight} with {@link #getBalancedHeight} to decide whether a tree is worth
+ * {@link AbstractBinaryCloudTree#rebalance rebalancing}.
+ */
+public class TreeStats {
+
+    private static final int MAX_PRINTED_LEVELS = 64;
+
+    private final long nodes;
+    private final long reachable;
+    private final List<Long> levels;
+    private final List<Long> children;
+    private final double averageDepth;
+
+    private TreeStats(long nodes, long reachable, List<Long> levels, List<Long> children, double averageDepth) {
+        this.nodes = nodes;
+        this.reachable = reachable;
+        this.levels = levels;
+        this.children = children;
+        this.averageDepth = averageDepth;
+    }
+
+    public static TreeStats collect(NodeStore store) {
+        return collect(store, NodeStore.DEFAULT_SCAN_SEGMENTS);
+    }
+
+    public static TreeStats collect(NodeStore store, int segments) {
+        if (segments < 1)
+            throw new IllegalArgumentException("Segments must be at least 1!");
+
+        NodeGraph graph = new NodeGraph();
+        store.scan(segments, graph::add);
+
+        List<Long> levels = new ArrayList<>();
+        List<Long> children = new ArrayList<>();
+        long reachable = 0;
+        long totalDepth = 0;
+
+        BitSet reached = new BitSet(graph.size);
+        int root = graph.find(TreeNode.ROOT_ID);
+        if (root != NodeGraph.ABSENT && graph.present.get(root)) {
+            //One level at a time, keeping only the current level and the next
+            int[] level = {root};
+            reached.set(root);
+            while (level.length > 0) {
+                int[] next = new int[level.length * 2];
+                int size = 0;
+                for (int node : level) {
+                    for (int child : new int[]{graph.left[node], graph.right[node]}) {
+                        if (child != NodeGraph.ABSENT && graph.present.get(child) && !reached.get(child)) {
+                            reached.set(child);
+                            next[size++] = child;
+                        }
+                    }
+                }
+
+                reachable += level.length;
+                totalDepth += (long) level.length * (levels.size() + 1);
+                levels.add((long) level.length);
+                children.add((long) size);
+                level = Arrays.copyOf(next, size);
+            }
+        }
+
+        return new TreeStats(graph.nodes, reachable, Collections.unmodifiableList(levels),
+                Collections.unmodifiableList(children), reachable == 0 ? 0 : (double) totalDepth / reachable);
+    }
+
+    /**
+     * Every node in the table, including any the root can't reach. {@link TreeValidator} finds and removes those.
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    public long getReachable() {
+        return reachable;
+    }
+
+    /**
+     * The number of levels, which is the most reads a lookup can take.
+     */
+    public int getHeight() {
+        return levels.size();
+    }
+
+    /**
+     * The height the same nodes would have in a perfectly balanced tree.
+     */
+    public int getBalancedHeight() {
+        return 64 - Long.numberOfLeadingZeros(reachable);
+    }
+
+    /**
+     * How many nodes each level holds, from the root down.
+     */
+    public List<Long> getLevelSizes() {
+        return levels;
+    }
+
+    /**
+     * The average number of children the nodes on a level have, between 0 and 2.
+     */
+    public double getFanOut(int level) {
+        return (double) children.get(level) / levels.get(level);
+    }
+
+    /**
+     * The average number of nodes a lookup of a key in the tree reads, counting the root.
+     */
+    public double getAverageDepth() {
+        return averageDepth;
+    }
+
+    /**
+     * The totals, and a line for each of the first 64 levels.
+     */
+    @Override
+    public String toString() {
+        StringBuilder stats = new StringBuilder(String.format(
+                "%d nodes (%d reachable), height %d (balanced %d), average lookup depth %.2f%n",
+                nodes, reachable, getHeight(), getBalancedHeight(), averageDepth));
+        for (int level = 0; level < Math.min(levels.size(), MAX_PRINTED_LEVELS); level++) {
+            stats.append(String.format("Level %3d: %10d nodes  fan-out %.2f%n", level, levels.get(level),
+                    getFanOut(level)));
+        }
+        if (levels.size() > MAX_PRINTED_LEVELS)
+            stats.append(String.format("... %d more levels%n", levels.size() - MAX_PRINTED_LEVELS));
+        return stats.toString();
+    }
+}
@@ -0,0 +1,388 @@
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds and fixes broken links in a binary tree's table without walking it node by node.
+ *
+ * {@link #validate} reads the whole table with a parallel {@link NodeStore#scan} and rebuilds the links between nodes
+ * in memory, keeping each node as an int index into a few arrays so millions of nodes fit. It then walks the tree
+ * from the root and reports child pointers to nodes that don't exist, keys out of search order, nodes reached twice,
+ * parent pointers that don't match (AVL nodes have none), stale AVL heights, AVL nodes whose subtrees differ in height
+ * by more than one, fences wider than the keys the tree sends to a node and nodes the root can't reach.
+ *
+ * {@link #repair} cuts every bad link, fixes parent pointers, heights and fences with batched writes, and then either
+ * puts the keys of unreachable nodes back into the tree or just deletes those nodes. An AVL tree left out of balance
+ * is then rebalanced. Run both on a tree nothing else is writing to, or the scan can catch it half way through a
+ * change.
+ */
+public class TreeValidator {
+
+    private static final int MAX_PROBLEMS = 100;
+    private static final int REPAIR_BATCH = 1000;
+
+    private final AbstractBinaryCloudTree<?> tree;
+    private final NodeStore store;
+    private final boolean parentPointers;
+
+    public TreeValidator(AbstractBinaryCloudTree<?> tree) {
+        this.tree = tree;
+        this.store = tree.getNodeStore();
+        this.parentPointers = !(tree instanceof AVLCloudTree);
+    }
+
+    public Report validate() {
+        return validate(NodeStore.DEFAULT_SCAN_SEGMENTS);
+    }
+
+    public Report validate(int segments) {
+        if (segments < 1)
+            throw new IllegalArgumentException("Segments must be at least 1!");
+
+        NodeGraph graph = new NodeGraph();
+        store.scan(segments, graph::add);
+
+        Report report = new Report(graph);
+        walk(graph, report);
+        return report;
+    }
+
+    /**
+     * Walks down from the root checking every link. Bad links are cut in the graph as they're found, so the nodes
+     * below them end up unreachable, and the graph is left holding the tree as {@link #repair} should write it.
+     */
+    private void walk(NodeGraph graph, Report report) {
+        BitSet reached = new BitSet(graph.size);
+        int root = graph.find(TreeNode.ROOT_ID);
+        int[] order = new int[graph.nodes];
+        int visited = 0;
+
+        if (root != NodeGraph.ABSENT && graph.present.get(root)) {
+            if (graph.keys[root] == null)
+                report.problem("Root has no key!");
+            if (parentPointers && graph.parent[root] != NodeGraph.ABSENT) {
+                report.wrongParent(root, "Root has parent " + graph.ids[graph.parent[root]] + "!");
+                graph.parent[root] = NodeGraph.ABSENT;
+            }
+
+            WalkStack stack = new WalkStack();
+            stack.push(root, null, null);
+            reached.set(root);
+
+            while (stack.size > 0) {
+                stack.size--;
+                int node = stack.nodes[stack.size];
+                String low = stack.lows[stack.size];
+                String high = stack.highs[stack.size];
+                String key = graph.keys[node];
+                order[visited++] = node;
+
+                if (graph.fenced.get(node) && !(within(graph.lowKeys[node], low, false)
+                        && within(graph.highKeys[node], high, true))) {
+                    report.wrongFence(node, graph.ids[node] + " has fence " + graph.lowKeys[node] + ".."
+                            + graph.highKeys[node] + " outside " + low + ".." + high + "!");
+                    graph.lowKeys[node] = low;
+                    graph.highKeys[node] = high;
+                }
+
+                for (int side = 0; side < 2; side++) {
+                    int[] children = side == 0 ? graph.left : graph.right;
+                    int child = children[node];
+                    if (child == NodeGraph.ABSENT)
+                        continue;
+
+                    String link = graph.ids[node] + (side == 0 ? ".leftChild" : ".rightChild") + " -> "
+                            + graph.ids[child];
+                    String childKey = graph.keys[child];
+                    String childLow = side == 0 ? low : key;
+                    String childHigh = side == 0 ? key : high;
+
+                    if (!graph.present.get(child)) {
+                        report.cut(node, Kind.DANGLING, link + " doesn't exist!");
+                    } else if (reached.get(child)) {
+                        report.cut(node, Kind.SHARED, link + " was already reached from another node!");
+                    } else if (key == null || childKey == null || (childLow != null && childKey.compareTo(childLow) <= 0)
+                            || (childHigh != null && childKey.compareTo(childHigh) >= 0)) {
+                        report.cut(node, Kind.MISORDERED, link + " has key " + childKey + " out of order!");
+                    } else {
+                        if (parentPointers && graph.parent[child] != node) {
+                            report.wrongParent(child, graph.ids[child] + " has parent " + (graph.parent[child] == NodeGraph.ABSENT
+                                    ? null : graph.ids[graph.parent[child]]) + " instead of " + graph.ids[node] + "!");
+                            graph.parent[child] = node;
+                        }
+                        reached.set(child);
+                        stack.push(child, childLow, childHigh);
+                        continue;
+                    }
+                    children[node] = NodeGraph.ABSENT;
+                }
+            }
+        }
+
+        //Parents come before their children in the walk, so going backwards has every child's height ready in time
+        int[] heights = new int[graph.size];
+        for (int i = visited - 1; i >= 0; i--) {
+            int node = order[i];
+            int left = graph.left[node] == NodeGraph.ABSENT ? 0 : heights[graph.left[node]];
+            int right = graph.right[node] == NodeGraph.ABSENT ? 0 : heights[graph.right[node]];
+            heights[node] = 1 + Math.max(left, right);
+
+            if (graph.leftHeight[node] != NodeGraph.ABSENT
+                    && (graph.leftHeight[node] != left || graph.rightHeight[node] != right)) {
+                report.wrongHeight(node, graph.ids[node] + " has heights " + graph.leftHeight[node] + "/"
+                        + graph.rightHeight[node] + " instead of " + left + "/" + right + "!");
+                graph.leftHeight[node] = left;
+                graph.rightHeight[node] = right;
+            }
+            if (!parentPointers && Math.abs(left - right) > 1)
+                report.unbalanced(graph.ids[node] + " has subtrees of height " + left + " and " + right + "!");
+        }
+
+        BitSet orphans = (BitSet) graph.present.clone();
+        orphans.andNot(reached);
+        report.orphans = orphans;
+        report.reachable = visited;
+        for (int node = orphans.nextSetBit(0); node >= 0 && report.problems.size() < MAX_PROBLEMS;
+             node = orphans.nextSetBit(node + 1)) {
+            report.problem(graph.ids[node] + " can't be reached from the root!");
+        }
+    }
+
+    /**
+     * Whether a stored fence end lies inside the bound the walk found, where null is unbounded.
+     */
+    private static boolean within(String fence, String bound, boolean upper) {
+        if (bound == null)
+            return true;
+        return fence != null && (upper ? fence.compareTo(bound) <= 0 : fence.compareTo(bound) >= 0);
+    }
+
+    /**
+     * Writes the fixes a report found: bad links are removed and parent pointers, heights and fences corrected, each
+     * changed node written once with its version bumped. Unreachable nodes are then deleted, and with
+     * {@code reinsertOrphans} set their keys are put back through {@link CloudTree#insert} unless the tree already
+     * holds them. That includes keys that were out of order, whose nodes are unreachable once their links are cut. An
+     * AVL tree with unbalanced nodes is {@link AbstractBinaryCloudTree#rebalance rebalanced} last.
+     *
+     * @return the number of nodes written or deleted
+     */
+    public long repair(Report report, boolean reinsertOrphans) {
+        NodeGraph graph = report.graph;
+        long changed = 0;
+
+        try (NodeWriter writer = store.newWriter()) {
+            List<Integer> nodes = new ArrayList<>(report.changed);
+            for (int i = 0; i < nodes.size(); i += REPAIR_BATCH) {
+                List<String> ids = new ArrayList<>();
+                for (int node : nodes.subList(i, Math.min(i + REPAIR_BATCH, nodes.size()))) {
+                    if (graph.present.get(node) && !report.orphans.get(node))
+                        ids.add(graph.ids[node]);
+                }
+
+                for (Map<String, AttributeValue> stored : store.getAll(ids).values()) {
+                    Map<String, AttributeValue> item = new HashMap<>(stored);
+                    int node = graph.find(item.get("id").getS());
+                    link(item, "leftChild", graph, graph.left[node]);
+                    link(item, "rightChild", graph, graph.right[node]);
+                    if (parentPointers)
+                        link(item, "parent", graph, graph.parent[node]);
+                    if (graph.leftHeight[node] != NodeGraph.ABSENT) {
+                        item.put("leftHeight", new AttributeValue().withN(Integer.toString(graph.leftHeight[node])));
+                        item.put("rightHeight", new AttributeValue().withN(Integer.toString(graph.rightHeight[node])));
+                    }
+                    if (graph.fenced.get(node)) {
+                        bound(item, "lowKey", graph.lowKeys[node]);
+                        bound(item, "highKey", graph.highKeys[node]);
+                    }
+                    long version = item.get("version") == null ? 0 : Long.parseLong(item.get("version").getN());
+                    item.put("version", new AttributeValue().withN(Long.toString(version + 1)));
+                    writer.put(item);
+                    changed++;
+                }
+            }
+        }
+        tree.clearCaches();
+
+        //Orphans go before their keys are put back, or a key index would find them and the keys would look present
+        List<String> ids = new ArrayList<>();
+        for (int node = report.orphans.nextSetBit(0); node >= 0; node = report.orphans.nextSetBit(node + 1)) {
+            ids.add(graph.ids[node]);
+            if (ids.size() == REPAIR_BATCH || report.orphans.nextSetBit(node + 1) < 0) {
+                Collection<Map<String, AttributeValue>> orphans = reinsertOrphans
+                        ? store.getAll(ids).values() : Collections.emptyList();
+                try (NodeWriter writer = store.newWriter()) {
+                    ids.forEach(writer::delete);
+                }
+                tree.clearCaches();
+                reinsert(orphans);
+                changed += ids.size();
+                ids.clear();
+            }
+        }
+
+        if (report.unbalanced > 0)
+            changed += tree.rebalance();
+
+        return changed;
+    }
+
+    private void reinsert(Iterable<Map<String, AttributeValue>> items) {
+        for (Map<String, AttributeValue> item : items) {
+            AttributeValue key = item.get("key");
+            if (key != null && !tree.query(key.getS()).isPresent())
+                tree.insert(key.getS(), TreeNode.decodeValue(item.get("value")));
+        }
+    }
+
+    private static void bound(Map<String, AttributeValue> item, String attribute, String key) {
+        if (key == null)
+            item.remove(attribute);
+        else
+            item.put(attribute, new AttributeValue(key));
+    }
+
+    private static void link(Map<String, AttributeValue> item, String attribute, NodeGraph graph, int node) {
+        if (node == NodeGraph.ABSENT)
+            item.remove(attribute);
+        else
+            item.put(attribute, new AttributeValue(graph.ids[node]));
+    }
+
+    public enum Kind {
+        DANGLING, SHARED, MISORDERED
+    }
+
+    /**
+     * What {@link #validate} found. Only the first hundred problems are described, but every count is exact.
+     */
+    public static class Report {
+
+        private final NodeGraph graph;
+        private final List<String> problems = new ArrayList<>();
+        private final Map<Kind, Long> cuts = new HashMap<>();
+        private final Set<Integer> changed = new LinkedHashSet<>();
+        private long wrongParents;
+        private long wrongHeights;
+        private long wrongFences;
+        private long unbalanced;
+        private long reachable;
+        private BitSet orphans;
+
+        private Report(NodeGraph graph) {
+            this.graph = graph;
+        }
+
+        private void cut(int node, Kind kind, String problem) {
+            cuts.merge(kind, 1L, Long::sum);
+            changed.add(node);
+            problem(problem);
+        }
+
+        private void wrongParent(int node, String problem) {
+            wrongParents++;
+            changed.add(node);
+            problem(problem);
+        }
+
+        private void wrongHeight(int node, String problem) {
+            wrongHeights++;
+            changed.add(node);
+            problem(problem);
+        }
+
+        private void wrongFence(int node, String problem) {
+            wrongFences++;
+            changed.add(node);
+            problem(problem);
+        }
+
+        private void unbalanced(String problem) {
+            unbalanced++;
+            problem(problem);
+        }
+
+        private void problem(String problem) {
+            if (problems.size() < MAX_PROBLEMS)
+                problems.add(problem);
+        }
+
+        public boolean isValid() {
+            return problems.isEmpty();
+        }
+
+        public List<String> getProblems() {
+            return problems;
+        }
+
+        public long getNodes() {
+            return graph.nodes;
+        }
+
+        public long getReachable() {
+            return reachable;
+        }
+
+        public long getCount(Kind kind) {
+            return cuts.getOrDefault(kind, 0L);
+        }
+
+        public long getWrongParents() {
+            return wrongParents;
+        }
+
+        public long getWrongHeights() {
+            return wrongHeights;
+        }
+
+        public long getWrongFences() {
+            return wrongFences;
+        }
+
+        public long getUnbalanced() {
+            return unbalanced;
+        }
+
+        public long getOrphans() {
+            return orphans.cardinality();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d nodes, %d reachable. Dangling: %d  Shared: %d  Misordered: %d  Wrong parents: %d  "
+                            + "Wrong heights: %d  Wrong fences: %d  Unbalanced: %d  Orphans: %d", getNodes(), reachable,
+                    getCount(Kind.DANGLING), getCount(Kind.SHARED), getCount(Kind.MISORDERED), wrongParents,
+                    wrongHeights, wrongFences, unbalanced, getOrphans());
+        }
+    }
+
+    /**
+     * The walk's stack of nodes still to visit, each with the keys its subtree has to fall between.
+     */
+    private static class WalkStack {
+        int[] nodes = new int[64];
+        String[] lows = new String[64];
+        String[] highs = new String[64];
+        int size;
+
+        void push(int node, String low, String high) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                lows = Arrays.copyOf(lows, size * 2);
+                highs = Arrays.copyOf(highs, size * 2);
+            }
+            nodes[size] = node;
+            lows[size] = low;
+            highs[size] = high;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Inserts and deletes around the sizes where {@link BPlusCloudTree} nodes split, borrow and merge at
+ * {@link BPlusCloudTree#DEFAULT_ORDER}, and checks through the leaf chain that every key is still there and in order.
+ */
+public class BPlusCloudTreeTest {
+
+    private static final int ORDER = BPlusCloudTree.DEFAULT_ORDER;
+    private static final int MAX_KEYS = ORDER - 1;
+    private static final int MIN_KEYS = MAX_KEYS / 2;
+
+    private final InMemoryNodeStore store = new InMemoryNodeStore("test");
+    private final BPlusCloudTree tree = new BPlusCloudTree(store, ORDER, 1000);
+    private final TreeMap<String, String> expected = new TreeMap<>();
+
+    @Test
+    public void aFullRootLeafSplitsOnTheNextInsert() {
+        for (int i = 0; i < MAX_KEYS; i++)
+            insert(i);
+        assertTrue(tree.getRootNode().get().isLeaf());
+        assertContents();
+
+        insert(MAX_KEYS);
+        assertFalse(tree.getRootNode().get().isLeaf());
+        assertContents();
+    }
+
+    @Test
+    public void ascendingInsertsGrowAThirdLevel() {
+        for (int i = 0; i < ORDER * ORDER; i++)
+            insert(i);
+
+        assertEquals(3, height());
+        assertContents();
+    }
+
+    @Test
+    public void descendingInsertsGrowAThirdLevel() {
+        for (int i = ORDER * ORDER - 1; i >= 0; i--)
+            insert(i);
+
+        assertEquals(3, height());
+        assertContents();
+    }
+
+    @Test
+    public void deletesBorrowAndMergeUntilTheTreeIsEmpty() {
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 3 * ORDER; i++) {
+            insert(i);
+            keys.add(i);
+        }
+
+        Collections.shuffle(keys, new Random(1));
+        for (int i : keys) {
+            assertEquals(Optional.of(value(i)), tree.delete(key(i)));
+            expected.remove(key(i));
+            assertContents();
+        }
+
+        assertFalse(tree.getRootNode().isPresent());
+    }
+
+    @Test
+    public void deletingFromTheLeftLeafAtItsMinimum() {
+        //Two leaves, the left one left with the fewest keys it may hold after the split
+        for (int i = 0; i <= MAX_KEYS; i++)
+            insert(i);
+        assertEquals(2, height());
+
+        //Borrows from the right leaf while it can spare a key, and merges the two once it can't
+        for (int i = 0; i <= MAX_KEYS - MIN_KEYS; i++) {
+            tree.delete(key(i));
+            expected.remove(key(i));
+            assertContents();
+        }
+
+        assertTrue(tree.getRootNode().get().isLeaf());
+    }
+
+    @Test
+    public void randomInsertsAndDeletesKeepTheLeafChainSorted() {
+        Random random = new Random(2);
+        for (int i = 0; i < 20 * ORDER; i++) {
+            int key = random.nextInt(8 * ORDER);
+            if (random.nextInt(3) == 0) {
+                assertEquals(Optional.ofNullable(expected.remove(key(key))), tree.delete(key(key)));
+            } else {
+                insert(key);
+            }
+
+            if (i % ORDER == 0)
+                assertContents();
+        }
+
+        assertContents();
+        for (int i = 0; i < 8 * ORDER; i++)
+            assertEquals(Optional.ofNullable(expected.get(key(i))), tree.query(key(i)));
+    }
+
+    @Test
+    public void rangesAcrossLeavesIncludeFromAndExcludeTo() {
+        for (int i = 0; i < 4 * ORDER; i += 2)
+            insert(i);
+
+        for (int from = 0; from < 4 * ORDER; from += MIN_KEYS) {
+            for (int to = from; to <= 4 * ORDER; to += MAX_KEYS) {
+                assertEquals(new ArrayList<>(expected.subMap(key(from), key(to)).keySet()),
+                        keys(tree.range(key(from), key(to))));
+            }
+        }
+        assertEquals(new ArrayList<>(expected.tailMap(key(ORDER)).keySet()), keys(tree.range(key(ORDER), null)));
+        assertEquals(new ArrayList<>(expected.headMap(key(ORDER)).keySet()), keys(tree.range(null, key(ORDER))));
+    }
+
+    private void insert(int i) {
+        tree.insert(key(i), value(i));
+        expected.put(key(i), value(i));
+    }
+
+    /**
+     * Checks the leaf chain through the tree that did the writing and through a tree that reads everything fresh.
+     */
+    private void assertContents() {
+        List<String> keys = new ArrayList<>(expected.keySet());
+        assertEquals(keys, keys(tree.range(null, null)));
+
+        List<Map.Entry<String, String>> entries = new ArrayList<>();
+        new BPlusCloudTree(store, ORDER, 0).forEach(entries::add);
+        assertEquals(new ArrayList<>(expected.entrySet()), entries);
+    }
+
+    private int height() {
+        int height = 1;
+        BPlusTreeNode node = tree.getRootNode().get();
+        while (!node.isLeaf()) {
+            node = tree.getNode(node.getChildren().get(0)).get();
+            height++;
+        }
+        return height;
+    }
+
+    private static List<String> keys(Iterator<Map.Entry<String, String>> entries) {
+        List<String> keys = new ArrayList<>();
+        while (entries.hasNext())
+            keys.add(entries.next().getKey());
+        return keys;
+    }
+
+    private static String key(int i) {
+        return String.format("k%05d", i);
+    }
+
+    private static String value(int i) {
+        return "v" + i;
+    }
+}
@@ -0,0 +1,301 @@
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs two trees with their own caches against one {@link InMemoryNodeStore}, the way two processes share a table,
+ * and checks that whichever one reads out of date nodes notices and retries rather than corrupting or misreading the
+ * tree.
+ */
+public class ConcurrentTreeTest {
+
+    private static final int CACHE_SIZE = 1000;
+    private static final int ORDER = 4;
+
+    private final RecordingStore store = new RecordingStore();
+
+    @Test
+    public void bstInsertRetriesWhenAnotherTreeChangedTheParent() {
+        insertRetriesWhenAnotherTreeChangedTheParent(ConcurrentTreeTest::bst);
+    }
+
+    @Test
+    public void avlInsertRetriesWhenAnotherTreeChangedTheParent() {
+        insertRetriesWhenAnotherTreeChangedTheParent(ConcurrentTreeTest::avl);
+    }
+
+    private void insertRetriesWhenAnotherTreeChangedTheParent(Function<NodeStore, CloudTree> factory) {
+        CloudTree first = factory.apply(store);
+        CloudTree second = factory.apply(store);
+
+        first.insert("m", "vm");
+        assertEquals(Optional.of("vm"), second.query("m"));
+
+        //The second tree still has the root without this child, so its insert below the root fails once
+        first.insert("c", "vc");
+        second.insert("a", "va");
+
+        assertTrue(store.conflicts.get() > 0);
+        assertEquals(Arrays.asList("a", "c", "m"), keys(factory.apply(store)));
+        assertValid(factory.apply(store));
+    }
+
+    @Test
+    public void bstReadsRecoverFromACachedLinkToADeletedNode() {
+        readsRecoverFromACachedLinkToADeletedNode(ConcurrentTreeTest::bst);
+    }
+
+    @Test
+    public void avlReadsRecoverFromACachedLinkToADeletedNode() {
+        readsRecoverFromACachedLinkToADeletedNode(ConcurrentTreeTest::avl);
+    }
+
+    private void readsRecoverFromACachedLinkToADeletedNode(Function<NodeStore, CloudTree> factory) {
+        CloudTree writer = factory.apply(store);
+        for (String key : Arrays.asList("m", "c", "t", "a"))
+            writer.insert(key, "v" + key);
+
+        AbstractCloudTree<?> querying = staleReader(factory);
+        AbstractCloudTree<?> batching = staleReader(factory);
+        AbstractCloudTree<?> ranging = staleReader(factory);
+        AbstractCloudTree<?> deleting = staleReader(factory);
+
+        //"a" moves up into the place of "c", so the cached root links to a node that is gone
+        writer.delete("c");
+
+        assertEquals(Optional.of("va"), querying.query("a"));
+        assertEquals(Optional.empty(), querying.query("c"));
+        Map<String, String> expected = new HashMap<>();
+        expected.put("a", "va");
+        expected.put("m", "vm");
+        assertEquals(expected, batching.queryAll(Arrays.asList("a", "c", "m")));
+        assertEquals(Arrays.asList("a", "m", "t"), keys(ranging));
+        assertEquals(Optional.of("va"), deleting.delete("a"));
+
+        assertEquals(Arrays.asList("m", "t"), keys(factory.apply(store)));
+        assertValid(factory.apply(store));
+    }
+
+    @Test
+    public void bplusQueryDoesNotTrustALeafWhoseFenceMovedAway() {
+        CloudTree writer = bplus(store);
+        for (int i = 0; i < 6; i++)
+            writer.insert(key(i), "v" + i);
+
+        //The leaf the cached root leads to is read after it has split
+        AbstractCloudTree<?> reader = staleReader(ConcurrentTreeTest::bplus);
+
+        for (int i = 6; i < 40; i++)
+            writer.insert(key(i), "v" + i);
+
+        assertEquals(Optional.of("v39"), reader.query(key(39)));
+        assertEquals(Optional.of("v39"), reader.delete(key(39)));
+        assertEquals(Optional.empty(), bplus(store).query(key(39)));
+    }
+
+    @Test
+    public void bplusReadsRecoverFromMergedLeaves() {
+        CloudTree writer = bplus(store);
+        for (int i = 0; i < 40; i++)
+            writer.insert(key(i), "v" + i);
+
+        AbstractCloudTree<?> querying = staleReader(ConcurrentTreeTest::bplus);
+        AbstractCloudTree<?> ranging = staleReader(ConcurrentTreeTest::bplus);
+        AbstractCloudTree<?> batching = staleReader(ConcurrentTreeTest::bplus);
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            if (i % 4 == 0)
+                expected.add(key(i));
+            else
+                writer.delete(key(i));
+        }
+
+        for (int i = 0; i < 40; i++)
+            assertEquals(i % 4 == 0 ? Optional.of("v" + i) : Optional.empty(), querying.query(key(i)));
+        assertEquals(expected, keys(ranging));
+
+        List<String> all = new ArrayList<>();
+        for (int i = 0; i < 40; i++)
+            all.add(key(i));
+        assertEquals(expected, new ArrayList<>(new TreeSet<>(batching.queryAll(all).keySet())));
+    }
+
+    @Test
+    public void insertBackfillsALongUnfencedPathInBoundedBatches() {
+        int depth = 3 * AbstractBinaryCloudTree.MAX_FENCE_BACKFILL;
+        CloudTree writer = bst(store);
+        for (int i = 0; i < depth; i++)
+            writer.insert(key(i), "v" + i);
+        removeFences();
+
+        store.largestBatch.set(0);
+        store.commits.set(0);
+        CloudTree inserting = bst(store);
+        inserting.insert(key(depth), "last");
+
+        assertTrue(store.commits.get() > 1);
+        assertTrue(store.largestBatch.get() <= AbstractBinaryCloudTree.MAX_FENCE_BACKFILL + 2);
+        assertEquals(store.size() - 1, fencedNodes());
+
+        //Every node on the path has its fence now, so the next insert only writes the node it hangs below
+        store.largestBatch.set(0);
+        inserting.insert(key(depth + 1), "next");
+        assertEquals(2, store.largestBatch.get());
+        assertValid(bst(store));
+    }
+
+    @Test
+    public void bstWritersOnOneStoreKeepTheTreeWhole() throws Exception {
+        writersOnOneStoreKeepTheTreeWhole(ConcurrentTreeTest::bst);
+        assertValid(bst(store));
+    }
+
+    @Test
+    public void avlWritersOnOneStoreKeepTheTreeWhole() throws Exception {
+        writersOnOneStoreKeepTheTreeWhole(ConcurrentTreeTest::avl);
+        assertValid(avl(store));
+    }
+
+    @Test
+    public void bplusWritersOnOneStoreKeepTheTreeWhole() throws Exception {
+        writersOnOneStoreKeepTheTreeWhole(ConcurrentTreeTest::bplus);
+    }
+
+    private void writersOnOneStoreKeepTheTreeWhole(Function<NodeStore, CloudTree> factory) throws Exception {
+        int writers = 2;
+        int operations = 300;
+        ExecutorService pool = Executors.newFixedThreadPool(writers);
+        List<Future<TreeSet<String>>> results = new ArrayList<>();
+
+        for (int w = 0; w < writers; w++) {
+            String prefix = "w" + w + "_";
+            CloudTree tree = factory.apply(store);
+            Random random = new Random(w);
+            results.add(pool.submit(() -> {
+                TreeSet<String> written = new TreeSet<>();
+                for (int i = 0; i < operations; i++) {
+                    String key = prefix + key(random.nextInt(200));
+                    if (random.nextInt(3) == 0) {
+                        tree.delete(key);
+                        written.remove(key);
+                    } else {
+                        tree.insert(key, "v");
+                        written.add(key);
+                    }
+                }
+                return written;
+            }));
+        }
+
+        TreeSet<String> expected = new TreeSet<>();
+        for (Future<TreeSet<String>> result : results)
+            expected.addAll(result.get());
+        pool.shutdown();
+
+        assertEquals(new ArrayList<>(expected), keys(factory.apply(store)));
+    }
+
+    /**
+     * A tree that has only read the root, so it routes through the root from before the changes that follow while
+     * reading the nodes below it fresh.
+     */
+    private AbstractCloudTree<?> staleReader(Function<NodeStore, CloudTree> factory) {
+        AbstractCloudTree<?> tree = (AbstractCloudTree<?>) factory.apply(store);
+        tree.getRootNode();
+        return tree;
+    }
+
+    private void removeFences() {
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+        store.scan(1, item -> items.add(new HashMap<>(item)));
+        try (NodeWriter writer = store.newWriter()) {
+            for (Map<String, AttributeValue> item : items) {
+                item.remove("fenced");
+                item.remove("lowKey");
+                item.remove("highKey");
+                writer.put(item);
+            }
+        }
+    }
+
+    private int fencedNodes() {
+        AtomicInteger fenced = new AtomicInteger();
+        store.scan(1, item -> {
+            if (item.get("fenced") != null)
+                fenced.incrementAndGet();
+        });
+        return fenced.get();
+    }
+
+    private static List<String> keys(CloudTree tree) {
+        List<String> keys = new ArrayList<>();
+        Iterator<Map.Entry<String, String>> entries = tree.range(null, null);
+        while (entries.hasNext())
+            keys.add(entries.next().getKey());
+        return keys;
+    }
+
+    private static void assertValid(CloudTree tree) {
+        TreeValidator.Report report = new TreeValidator((AbstractBinaryCloudTree<?>) tree).validate();
+        assertTrue(report.getProblems().toString(), report.isValid());
+    }
+
+    private static String key(int i) {
+        return String.format("k%04d", i);
+    }
+
+    private static BinarySearchCloudTree bst(NodeStore store) {
+        return new BinarySearchCloudTree(store, CACHE_SIZE);
+    }
+
+    private static AVLCloudTree avl(NodeStore store) {
+        return new AVLCloudTree(store, CACHE_SIZE);
+    }
+
+    private static BPlusCloudTree bplus(NodeStore store) {
+        return new BPlusCloudTree(store, ORDER, CACHE_SIZE);
+    }
+
+    /**
+     * Counts the commits that reach the store, the largest batch among them and how many failed on a version.
+     */
+    private static class RecordingStore extends InMemoryNodeStore {
+        private final AtomicInteger commits = new AtomicInteger();
+        private final AtomicInteger largestBatch = new AtomicInteger();
+        private final AtomicInteger conflicts = new AtomicInteger();
+
+        RecordingStore() {
+            super("test");
+        }
+
+        @Override
+        public void commit(NodeBatch batch) {
+            commits.incrementAndGet();
+            largestBatch.accumulateAndGet(batch.size(), Math::max);
+            try {
+                super.commit(batch);
+            } catch (NodeConflictException e) {
+                conflicts.incrementAndGet();
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,269 @@
+import com.amazonaws.services.dynamodbv2.AbstractAmazonDynamoDBStreams;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.DescribeStreamRequest;
+import com.amazonaws.services.dynamodbv2.model.DescribeStreamResult;
+import com.amazonaws.services.dynamodbv2.model.ExpiredIteratorException;
+import com.amazonaws.services.dynamodbv2.model.GetRecordsRequest;
+import com.amazonaws.services.dynamodbv2.model.GetRecordsResult;
+import com.amazonaws.services.dynamodbv2.model.GetShardIteratorRequest;
+import com.amazonaws.services.dynamodbv2.model.GetShardIteratorResult;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.SequenceNumberRange;
+import com.amazonaws.services.dynamodbv2.model.Shard;
+import com.amazonaws.services.dynamodbv2.model.ShardIteratorType;
+import com.amazonaws.services.dynamodbv2.model.StreamDescription;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs {@link NodeChangeStream} against a stand-in for DynamoDB Streams whose shards and records each test scripts.
+ */
+public class NodeChangeStreamTest {
+
+    private static final long POLL_MILLIS = 10;
+    private static final long WAIT_MILLIS = 5000;
+
+    private StubStreams streams;
+    private NodeChangeStream changes;
+    private BinarySearchCloudTree tree;
+    private final List<String> seen = Collections.synchronizedList(new ArrayList<>());
+    private volatile int resets;
+
+    @Before
+    public void setUp() {
+        tree = new BinarySearchCloudTree(new InMemoryNodeStore("test"), 100);
+        tree.insert("a", "first");
+        tree.query("a");
+
+        streams = new StubStreams();
+        streams.addShard("shard-0", null);
+        changes = new NodeChangeStream(streams, "arn", POLL_MILLIS);
+        tree.followChanges(changes);
+        changes.subscribe(new NodeChangeStream.Listener() {
+            @Override
+            public void changed(String id, Map<String, AttributeValue> item) {
+                seen.add("changed " + id + " " + (item == null ? null : item.get("value").getS()));
+            }
+
+            @Override
+            public void removed(String id) {
+                seen.add("removed " + id);
+            }
+
+            @Override
+            public void reset() {
+                resets++;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        changes.close();
+    }
+
+    @Test
+    public void refreshesCachedNodesWithNewerVersions() {
+        long version = cachedRoot().getVersion();
+
+        streams.add("shard-0", modify(rootItem("second", version + 1)));
+        await(() -> seen.contains("changed root second"));
+        assertEquals("second", cachedRoot().getValue());
+        assertEquals(Optional.of("second"), tree.query("a"));
+
+        //An older write arriving late must not replace the newer one
+        streams.add("shard-0", modify(rootItem("stale", version)));
+        await(() -> seen.contains("changed root stale"));
+        assertEquals("second", cachedRoot().getValue());
+    }
+
+    @Test
+    public void dropsRemovedNodes() {
+        assertTrue(tree.getNodeCache().get(TreeNode.ROOT_ID).isPresent());
+
+        streams.add("shard-0", remove(TreeNode.ROOT_ID));
+        await(() -> seen.contains("removed root"));
+        assertFalse(tree.getNodeCache().get(TreeNode.ROOT_ID).isPresent());
+    }
+
+    @Test
+    public void readsChildShardsAfterTheirParent() {
+        long version = cachedRoot().getVersion();
+
+        //The child is listed first and already has a record, but must wait for the parent to be read to its end
+        synchronized (streams) {
+            streams.add("shard-0", modify(rootItem("from parent", version + 1)));
+            streams.close("shard-0");
+            streams.addShardFirst("shard-1", "shard-0");
+            streams.add("shard-1", modify(rootItem("from child", version + 2)));
+        }
+
+        await(() -> seen.contains("changed root from child"));
+        assertEquals(2, seen.size());
+        assertEquals("changed root from parent", seen.get(0));
+        assertEquals("changed root from child", seen.get(1));
+        assertEquals("from child", cachedRoot().getValue());
+        assertEquals(ShardIteratorType.TRIM_HORIZON.toString(), streams.iteratorTypes.get("shard-1"));
+    }
+
+    @Test
+    public void resetsCachesAndStartsOverWhenTheStreamFails() {
+        long version = cachedRoot().getVersion();
+
+        synchronized (streams) {
+            streams.failures = 1;
+            streams.add("shard-0", modify(rootItem("missed", version + 1)));
+        }
+        await(() -> resets == 1);
+        assertFalse(tree.getNodeCache().get(TreeNode.ROOT_ID).isPresent());
+
+        //Reading starts again from the newest change, so the record written before the failure is skipped
+        await(() -> streams.openedIterators() == 2);
+        tree.query("a");
+        streams.add("shard-0", modify(rootItem("after", version + 2)));
+        await(() -> seen.contains("changed root after"));
+        assertFalse(seen.contains("changed root missed"));
+        assertEquals("after", cachedRoot().getValue());
+        assertEquals(1, resets);
+    }
+
+    private TreeNode cachedRoot() {
+        Map<String, AttributeValue> item = tree.getNodeCache().get(TreeNode.ROOT_ID)
+                .orElseThrow(() -> new AssertionError("The root isn't cached!"));
+        return TreeNode.builder().fromItem(item).build();
+    }
+
+    private Map<String, AttributeValue> rootItem(String value, long version) {
+        Map<String, AttributeValue> item = new HashMap<>(tree.getNodeStore().get(TreeNode.ROOT_ID).get());
+        item.put("value", new AttributeValue(value));
+        item.put("version", new AttributeValue().withN(Long.toString(version)));
+        return item;
+    }
+
+    private static Record modify(Map<String, AttributeValue> item) {
+        return new Record().withEventName(OperationType.MODIFY)
+                .withDynamodb(new StreamRecord().withKeys(Collections.singletonMap("id", item.get("id")))
+                        .withNewImage(item));
+    }
+
+    private static Record remove(String id) {
+        return new Record().withEventName(OperationType.REMOVE)
+                .withDynamodb(new StreamRecord().withKeys(Collections.singletonMap("id", new AttributeValue(id))));
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline)
+                fail("Timed out waiting for the stream!");
+            try {
+                Thread.sleep(POLL_MILLIS);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    /**
+     * Shards held in memory. An iterator is a shard id and the index of the next record to read.
+     */
+    private static class StubStreams extends AbstractAmazonDynamoDBStreams {
+        private final List<StubShard> shards = new ArrayList<>();
+        private final Map<String, String> iteratorTypes = new HashMap<>();
+        private int opened;
+        private int failures;
+
+        synchronized void addShard(String id, String parent) {
+            shards.add(new StubShard(id, parent));
+        }
+
+        synchronized void addShardFirst(String id, String parent) {
+            shards.add(0, new StubShard(id, parent));
+        }
+
+        synchronized void add(String shard, Record record) {
+            find(shard).records.add(record);
+        }
+
+        synchronized void close(String shard) {
+            find(shard).closed = true;
+        }
+
+        synchronized int openedIterators() {
+            return opened;
+        }
+
+        private StubShard find(String id) {
+            for (StubShard shard : shards) {
+                if (shard.id.equals(id))
+                    return shard;
+            }
+            throw new IllegalArgumentException("No shard " + id + "!");
+        }
+
+        @Override
+        public synchronized DescribeStreamResult describeStream(DescribeStreamRequest request) {
+            List<Shard> described = new ArrayList<>();
+            for (StubShard shard : shards) {
+                described.add(new Shard().withShardId(shard.id).withParentShardId(shard.parent)
+                        .withSequenceNumberRange(new SequenceNumberRange().withStartingSequenceNumber("0")
+                                .withEndingSequenceNumber(shard.closed ? Integer.toString(shard.records.size()) : null)));
+            }
+            return new DescribeStreamResult().withStreamDescription(new StreamDescription().withShards(described));
+        }
+
+        @Override
+        public synchronized GetShardIteratorResult getShardIterator(GetShardIteratorRequest request) {
+            StubShard shard = find(request.getShardId());
+            iteratorTypes.put(shard.id, request.getShardIteratorType());
+            opened++;
+            int position = ShardIteratorType.LATEST.toString().equals(request.getShardIteratorType())
+                    ? shard.records.size() : 0;
+            return new GetShardIteratorResult().withShardIterator(shard.id + ":" + position);
+        }
+
+        @Override
+        public synchronized GetRecordsResult getRecords(GetRecordsRequest request) {
+            if (failures > 0) {
+                failures--;
+                throw new ExpiredIteratorException("Iterator expired!");
+            }
+
+            String[] iterator = request.getShardIterator().split(":");
+            StubShard shard = find(iterator[0]);
+            int position = Integer.parseInt(iterator[1]);
+            int end = Math.min(shard.records.size(), position + request.getLimit());
+            return new GetRecordsResult()
+                    .withRecords(new ArrayList<>(shard.records.subList(position, end)))
+                    .withNextShardIterator(shard.closed && end == shard.records.size() ? null : shard.id + ":" + end);
+        }
+    }
+
+    private static class StubShard {
+        private final String id;
+        private final String parent;
+        private final List<Record> records = new ArrayList<>();
+        private boolean closed;
+
+        StubShard(String id, String parent) {
+            this.id = id;
+            this.parent = parent;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+import benchmark.BenchmarkTree;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsyncClientBuilder;
+import com.amazonaws.services.dynamodbv2.model.*;
+import com.amazonaws.services.dynamodbv2.util.TableUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Runs the benchmarks against a real tree. A {@code dynamo} store talks to DynamoDB Local at the endpoint in the
+ * {@code cloudtree.endpoint} system property (http://localhost:8000 by default) and drops its table when closed. The
+ * key index is only kept by the {@code memory} and {@code dynamo} stores.
+ */
+public class TreeTarget implements BenchmarkTree {
+
+    private final CountingNodeStore store;
+    private final CloudTree tree;
+    private Path file;
+
+    public TreeTarget(String type, String store, int cacheSize, boolean keyIndex)
+            throws IOException, InterruptedException {
+        this.store = new CountingNodeStore(createStore(store, keyIndex));
+
+        switch (type) {
+            case "bst":
+                tree = new BinarySearchCloudTree(this.store, cacheSize);
+                break;
+            case "avl":
+                tree = new AVLCloudTree(this.store, cacheSize);
+                break;
+            case "bplus":
+                tree = new BPlusCloudTree(this.store, BPlusCloudTree.DEFAULT_ORDER, cacheSize);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown tree type " + type + "!");
+        }
+    }
+
+    private NodeStore createStore(String store, boolean keyIndex) throws IOException, InterruptedException {
+        switch (store) {
+            case "memory":
+                return new InMemoryNodeStore("benchmark", keyIndex);
+            case "file":
+                file = Files.createTempFile("cloudtree-benchmark", ".db");
+                return new MappedFileNodeStore(file);
+            case "dynamo":
+                return createLocalDynamoStore(keyIndex);
+            default:
+                throw new IllegalArgumentException("Unknown store " + store + "!");
+        }
+    }
+
+    private static NodeStore createLocalDynamoStore(boolean keyIndex) throws InterruptedException {
+        AmazonDynamoDBAsync db = AmazonDynamoDBAsyncClientBuilder.standard()
+                .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(
+                        System.getProperty("cloudtree.endpoint", "http://localhost:8000"), "us-west-2"))
+                .withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials("local", "local")))
+                .build();
+
+        String tableName = "benchmark-" + UUID.randomUUID();
+        CreateTableRequest create = new CreateTableRequest()
+                .withAttributeDefinitions(new AttributeDefinition("id", ScalarAttributeType.S))
+                .withKeySchema(new KeySchemaElement("id", KeyType.HASH))
+                .withBillingMode(BillingMode.PAY_PER_REQUEST)
+                .withTableName(tableName);
+        if (keyIndex) {
+            create.withAttributeDefinitions(new AttributeDefinition("key", ScalarAttributeType.S))
+                    .withGlobalSecondaryIndexes(new GlobalSecondaryIndex()
+                            .withIndexName(DynamoNodeStore.KEY_INDEX)
+                            .withKeySchema(new KeySchemaElement("key", KeyType.HASH))
+                            .withProjection(new Projection().withProjectionType(ProjectionType.KEYS_ONLY)));
+        }
+        TableUtils.createTableIfNotExists(db, create);
+        TableUtils.waitUntilActive(db, tableName);
+
+        return new DynamoNodeStore(db, tableName, TreeConfig.builder().keyIndex(keyIndex).build()) {
+            @Override
+            public void close() {
+                getClient().deleteTable(tableName);
+                super.close();
+            }
+        };
+    }
+
+    @Override
+    public void bulkLoad(Iterator<Map.Entry<String, String>> entries) {
+        tree.bulkLoad(entries);
+    }
+
+    @Override
+    public void insert(String key, String value) {
+        tree.insert(key, value);
+    }
+
+    @Override
+    public String query(String key) {
+        return tree.query(key).orElse(null);
+    }
+
+    @Override
+    public String delete(String key) {
+        return tree.delete(key).orElse(null);
+    }
+
+    @Override
+    public int queryAll(Collection<String> keys) {
+        return tree.queryAll(keys).size();
+    }
+
+    @Override
+    public long getStorageCalls() {
+        return store.getCalls();
+    }
+
+    @Override
+    public void resetStorageCalls() {
+        store.reset();
+    }
+
+    @Override
+    public void close() {
+        store.close();
+        try {
+            if (file != null)
+                Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package benchmark;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The tree operations the benchmarks drive. The trees live in the default package, which a benchmark in a named
+ * package can't refer to, so {@code TreeTarget} in the default package implements this and is loaded by name.
+ */
+public interface BenchmarkTree extends AutoCloseable {
+
+    void bulkLoad(Iterator<Map.Entry<String, String>> entries);
+
+    void insert(String key, String value);
+
+    String query(String key);
+
+    String delete(String key);
+
+    int queryAll(Collection<String> keys);
+
+    /**
+     * Calls made to the node store so far, where a batched read or a batch commit counts as one.
+     */
+    long getStorageCalls();
+
+    void resetStorageCalls();
+
+    @Override
+    void close();
+
+    /**
+     * Opens a {@code type} tree ({@code bst}, {@code avl} or {@code bplus}) on a fresh {@code store} ({@code memory},
+     * {@code file} or {@code dynamo}), with or without a key index.
+     */
+    static BenchmarkTree open(String type, String store, int cacheSize, boolean keyIndex)
+            throws ReflectiveOperationException {
+        return (BenchmarkTree) Class.forName("TreeTarget")
+                .getConstructor(String.class, String.class, int.class, boolean.class)
+                .newInstance(type, store, cacheSize, keyIndex);
+    }
+}
@@ -0,0 +1,184 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.stream.IntStream;
+
+/**
+ * Throughput of the tree operations for each tree type, key distribution and tree size. Every trial starts from a
+ * tree of {@code size} keys, and the insert benchmark deletes each key again so the tree stays that size. The
+ * distribution decides which keys are used: {@code sequential} walks through them in order, {@code random} picks them
+ * uniformly and {@code skewed} sends most operations to a small set of hot keys spread over the tree.
+ *
+ * With {@code build=bulk} the starting tree is bulk loaded and so balanced. With {@code build=insert} it is built by
+ * inserting the keys one at a time in the distribution's order (ascending, shuffled, or hottest first), which shows
+ * the shape each tree really ends up in. Sequential inserts make the plain binary search tree a list, so building a
+ * large one that way takes a long time.
+ *
+ * {@code keyIndex=false} makes every binary tree lookup walk down from the root, so its cost follows the tree's depth.
+ * With {@code keyIndex=true} the store's key index finds the node directly, which shows what the index saves. The
+ * default cache holds the whole tree, so pass {@code cacheSize=0} to see every level as a store call.
+ *
+ * Next to ops/sec each trial prints how many calls it made to the node store per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TreeBenchmark {
+
+    private static final int QUERY_ALL_KEYS = 100;
+    private static final double SKEW = 4;
+    private static final long SCATTER = 7919;
+
+    @Param({"bst", "avl", "bplus"})
+    public String tree;
+
+    @Param({"sequential", "random", "skewed"})
+    public String distribution;
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    @Param({"memory"})
+    public String store;
+
+    @Param({"10000"})
+    public int cacheSize;
+
+    @Param({"bulk"})
+    public String build;
+
+    @Param({"false", "true"})
+    public boolean keyIndex;
+
+    private BenchmarkTree target;
+    private String[] existing;
+    private String[] missing;
+    private IntSupplier keys;
+    private final AtomicInteger sequence = new AtomicInteger();
+    private final LongAdder operations = new LongAdder();
+
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        existing = new String[size];
+        missing = new String[size];
+        for (int i = 0; i < size; i++) {
+            existing[i] = String.format("k%010d", 2L * i);
+            missing[i] = String.format("k%010d", 2L * i + 1);
+        }
+
+        switch (distribution) {
+            case "sequential":
+                keys = () -> Math.floorMod(sequence.getAndIncrement(), size);
+                break;
+            case "random":
+                keys = () -> ThreadLocalRandom.current().nextInt(size);
+                break;
+            case "skewed":
+                keys = () -> {
+                    int rank = (int) (size * Math.pow(ThreadLocalRandom.current().nextDouble(), SKEW));
+                    return (int) (rank * SCATTER % size);
+                };
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown distribution " + distribution + "!");
+        }
+
+        target = BenchmarkTree.open(tree, store, cacheSize, keyIndex);
+        switch (build) {
+            case "bulk":
+                target.bulkLoad(IntStream.range(0, size)
+                        .<Map.Entry<String, String>>mapToObj(i -> new AbstractMap.SimpleImmutableEntry<>(existing[i], "v"))
+                        .iterator());
+                break;
+            case "insert":
+                for (int i : insertionOrder())
+                    target.insert(existing[i], "v");
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown build " + build + "!");
+        }
+        target.resetStorageCalls();
+    }
+
+    /**
+     * Every key index once, in the order the distribution favours them: ascending for {@code sequential}, shuffled
+     * for {@code random}, and from the hottest key down for {@code skewed}.
+     */
+    private int[] insertionOrder() {
+        int[] order = IntStream.range(0, size).toArray();
+        switch (distribution) {
+            case "random":
+                Random random = new Random(size);
+                for (int i = size - 1; i > 0; i--) {
+                    int j = random.nextInt(i + 1);
+                    int swap = order[i];
+                    order[i] = order[j];
+                    order[j] = swap;
+                }
+                break;
+            case "skewed":
+                for (int rank = 0; rank < size; rank++)
+                    order[rank] = (int) (rank * SCATTER % size);
+                break;
+        }
+        return order;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(BenchmarkParams params) {
+        long count = operations.sum();
+        if (count > 0) {
+            System.out.printf("%n%s [%s, %s, %d, %s, keyIndex=%b]: %.2f storage calls per operation%n",
+                    params.getBenchmark(), tree, distribution, size, build, keyIndex,
+                    (double) target.getStorageCalls() / count);
+        }
+        target.close();
+    }
+
+    @Benchmark
+    public String query() {
+        operations.increment();
+        return target.query(existing[keys.getAsInt()]);
+    }
+
+    @Benchmark
+    public void update() {
+        operations.increment();
+        target.insert(existing[keys.getAsInt()], Integer.toString(ThreadLocalRandom.current().nextInt()));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public String insertAndDelete() {
+        operations.add(2);
+        String key = missing[keys.getAsInt()];
+        target.insert(key, "v");
+        return target.delete(key);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERY_ALL_KEYS)
+    public int queryAll() {
+        operations.add(QUERY_ALL_KEYS);
+        List<String> batch = new ArrayList<>(QUERY_ALL_KEYS);
+        for (int i = 0; i < QUERY_ALL_KEYS; i++) {
+            batch.add(existing[keys.getAsInt()]);
+        }
+        return target.queryAll(batch);
+    }
+}
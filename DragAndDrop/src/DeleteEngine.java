@@ -0,0 +1,203 @@
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.BucketVersioningConfiguration;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
+import com.amazonaws.services.s3.model.ListVersionsRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.S3VersionSummary;
+import com.amazonaws.services.s3.model.VersionListing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes everything under a prefix with DeleteObjects calls of up to 1,000 keys, several in flight at once while the
+ * listing carries on ahead of them. In a versioned bucket that only adds delete markers, so older versions can still
+ * be restored. Emptying a bucket to delete it is the exception: there every version and delete marker is deleted, or
+ * S3 won't delete the bucket.
+ *
+ * Keys S3 reports as failed with a temporary error are sent again with backoff. Keys that still fail are counted in
+ * the progress and left in place.
+ */
+class DeleteEngine {
+
+    public static final int DEFAULT_THREADS = 4;
+    public static final int MAX_BATCH = 1000;
+
+    private static final int MAX_IN_FLIGHT = 8;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final Set<String> RETRYABLE = new HashSet<>(Arrays.asList(
+            "SlowDown", "InternalError", "ServiceUnavailable", "RequestTimeout"));
+
+    private final AmazonS3 s3;
+    private final ExecutorService pool;
+
+    public DeleteEngine(AmazonS3 s3) {
+        this(s3, DEFAULT_THREADS);
+    }
+
+    public DeleteEngine(AmazonS3 s3, int threads) {
+        this.s3 = s3;
+        this.pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "s3-delete");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Deletes every object under the prefix, counting each one in {@code progress} as it is listed and again once it
+     * is deleted or has failed. Returns once every batch has finished.
+     */
+    public void deletePrefix(String bucketName, String prefix, TransferProgress progress) throws InterruptedException {
+        delete(bucketName, prefix, false, progress);
+    }
+
+    /**
+     * Deletes everything in the bucket so it can be deleted, including every old version and delete marker if it has
+     * ever had versioning on.
+     */
+    public void emptyBucket(String bucketName, TransferProgress progress) throws InterruptedException {
+        delete(bucketName, "", isVersioned(bucketName), progress);
+    }
+
+    private void delete(String bucketName, String prefix, boolean versions, TransferProgress progress)
+            throws InterruptedException {
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        List<KeyVersion> batch = new ArrayList<>(MAX_BATCH);
+
+        if (versions) {
+            VersionListing listing = s3.listVersions(new ListVersionsRequest()
+                    .withBucketName(bucketName)
+                    .withPrefix(prefix)
+                    .withMaxResults(MAX_BATCH));
+            while (true) {
+                for (S3VersionSummary version : listing.getVersionSummaries()) {
+                    batch = add(batch, new KeyVersion(version.getKey(), version.getVersionId()), version.getSize(),
+                            bucketName, progress, inFlight);
+                }
+                if (!listing.isTruncated())
+                    break;
+                listing = s3.listNextBatchOfVersions(listing);
+            }
+        } else {
+            S3Listing pages = new S3Listing(s3, bucketName, prefix);
+            while (pages.hasNext()) {
+                ListObjectsV2Result page = pages.next();
+                for (S3ObjectSummary object : page.getObjectSummaries()) {
+                    batch = add(batch, new KeyVersion(object.getKey()), object.getSize(), bucketName, progress, inFlight);
+                }
+            }
+        }
+
+        if (!batch.isEmpty())
+            submit(bucketName, batch, progress, inFlight);
+        inFlight.acquire(MAX_IN_FLIGHT);
+        inFlight.release(MAX_IN_FLIGHT);
+    }
+
+    private boolean isVersioned(String bucketName) {
+        BucketVersioningConfiguration versioning = s3.getBucketVersioningConfiguration(bucketName);
+        return versioning != null && !BucketVersioningConfiguration.OFF.equals(versioning.getStatus());
+    }
+
+    private List<KeyVersion> add(List<KeyVersion> batch, KeyVersion key, long size, String bucketName,
+                                 TransferProgress progress, Semaphore inFlight) throws InterruptedException {
+        progress.queued(size);
+        batch.add(key);
+        if (batch.size() < MAX_BATCH)
+            return batch;
+
+        submit(bucketName, batch, progress, inFlight);
+        return new ArrayList<>(MAX_BATCH);
+    }
+
+    /**
+     * Hands a batch to the pool, waiting first if too many are already in flight, so the listing never gets more than
+     * a few thousand keys ahead of the deletes.
+     */
+    private void submit(String bucketName, List<KeyVersion> batch, TransferProgress progress, Semaphore inFlight)
+            throws InterruptedException {
+        inFlight.acquire();
+        try {
+            pool.execute(() -> {
+                try {
+                    delete(bucketName, batch, progress);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    private void delete(String bucketName, List<KeyVersion> keys, TransferProgress progress) {
+        for (int attempt = 1; !keys.isEmpty(); attempt++) {
+            if (attempt > 1) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(Math.min(5000L, 100L << attempt));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    fail(keys, progress, "Interrupted");
+                    return;
+                }
+            }
+
+            try {
+                s3.deleteObjects(new DeleteObjectsRequest(bucketName).withKeys(keys).withQuiet(true));
+                progress.finished(keys.size());
+                return;
+            } catch (MultiObjectDeleteException e) {
+                List<KeyVersion> retry = new ArrayList<>();
+                List<KeyVersion> failed = new ArrayList<>();
+                String reason = null;
+                for (MultiObjectDeleteException.DeleteError error : e.getErrors()) {
+                    KeyVersion key = new KeyVersion(error.getKey(), error.getVersionId());
+                    if (RETRYABLE.contains(error.getCode()) && attempt < MAX_ATTEMPTS) {
+                        retry.add(key);
+                    } else {
+                        failed.add(key);
+                        reason = error.getCode();
+                    }
+                }
+                progress.finished(keys.size() - e.getErrors().size());
+                fail(failed, progress, reason);
+                keys = retry;
+            } catch (AmazonServiceException e) {
+                if (attempt == MAX_ATTEMPTS || e.getStatusCode() < 500) {
+                    fail(keys, progress, e.getErrorCode());
+                    return;
+                }
+            } catch (SdkClientException e) {
+                if (attempt == MAX_ATTEMPTS) {
+                    fail(keys, progress, e.getMessage());
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void fail(List<KeyVersion> keys, TransferProgress progress, String reason) {
+        progress.failed(keys.size());
+        if (!keys.isEmpty())
+            System.err.println("Couldn't delete " + keys.size() + " objects, starting with " + keys.get(0).getKey()
+                    + ": " + reason);
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+}
@@ -0,0 +1,266 @@
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Downloads objects as byte ranges fetched in parallel, each written straight to its offset in a file preallocated to
+ * the object's size. The file is downloaded as {@code name.download} and renamed once every part is in.
+ *
+ * A small checkpoint file next to it records which parts are finished, and is only updated once a part has been
+ * forced to disk. If a download is interrupted, downloading the same object to the same file again fetches only the
+ * missing parts, as long as the object's ETag and size haven't changed.
+ */
+class DownloadEngine {
+
+    public static final int DEFAULT_THREADS = 8;
+    public static final long PART_SIZE = 8L << 20;
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_BACKOFF_MILLIS = 500;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int CHECKPOINT_MAGIC = 0x53334450;
+
+    private final AmazonS3 s3;
+    private final ExecutorService pool;
+
+    public DownloadEngine(AmazonS3 s3) {
+        this(s3, DEFAULT_THREADS);
+    }
+
+    public DownloadEngine(AmazonS3 s3, int threads) {
+        this.s3 = s3;
+        this.pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "s3-download");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void download(String bucketName, String key, File file, TransferProgress progress)
+            throws IOException, InterruptedException {
+        ObjectMetadata metadata = s3.getObjectMetadata(bucketName, key);
+        long size = metadata.getContentLength();
+        String etag = metadata.getETag();
+
+        Path target = file.toPath();
+        Path data = target.resolveSibling(target.getFileName() + ".download");
+        Path checkpointFile = target.resolveSibling(target.getFileName() + ".download.checkpoint");
+        int parts = (int) ((size + PART_SIZE - 1) / PART_SIZE);
+
+        BitSet done = Files.exists(data) && Files.size(data) == size
+                ? Checkpoint.load(checkpointFile, etag, size) : new BitSet(parts);
+        Checkpoint checkpoint = new Checkpoint(checkpointFile, etag, size, done);
+
+        long remaining = size;
+        for (int part = done.nextSetBit(0); part >= 0 && part < parts; part = done.nextSetBit(part + 1)) {
+            remaining -= partLength(part, size);
+        }
+        progress.queued(remaining);
+
+        try (RandomAccessFile out = new RandomAccessFile(data.toFile(), "rw")) {
+            out.setLength(size);
+            FileChannel channel = out.getChannel();
+            AtomicBoolean stopped = new AtomicBoolean();
+
+            List<Future<?>> fetches = new ArrayList<>();
+            try {
+                for (int part = done.nextClearBit(0); part < parts; part = done.nextClearBit(part + 1)) {
+                    int current = part;
+                    fetches.add(pool.submit(() -> {
+                        fetch(bucketName, key, etag, current * PART_SIZE, partLength(current, size), channel, progress,
+                                stopped);
+                        checkpoint.complete(current, channel);
+                        return null;
+                    }));
+                }
+
+                for (Future<?> fetch : fetches) {
+                    fetch.get();
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException)
+                    throw (IOException) e.getCause();
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw new IOException(e.getCause());
+            } finally {
+                //Stops the other parts after a failure; the checkpoint keeps the ones already finished. Interrupting
+                //them would close the channel they share, so they're told to stop and waited for instead.
+                stopped.set(true);
+                for (Future<?> fetch : fetches) {
+                    fetch.cancel(false);
+                }
+                for (Future<?> fetch : fetches) {
+                    try {
+                        fetch.get();
+                    } catch (ExecutionException | CancellationException ignored) {
+                    }
+                }
+            }
+            channel.force(true);
+        }
+
+        Files.move(data, target, StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(checkpointFile);
+        progress.finished();
+    }
+
+    private static long partLength(int part, long size) {
+        return Math.min(PART_SIZE, size - part * PART_SIZE);
+    }
+
+    /**
+     * Reads one byte range into the channel at its offset, trying again from the start of the range after a growing
+     * pause if the connection fails or S3 has a server error. Other errors, like a missing object or no permission,
+     * fail straight away. The GET only matches the ETag the download started with, so an object replaced in the
+     * meantime can't be stitched together from two versions.
+     */
+    private void fetch(String bucketName, String key, String etag, long start, long length, FileChannel channel,
+                       TransferProgress progress, AtomicBoolean stopped) throws IOException, InterruptedException {
+        GetObjectRequest request = new GetObjectRequest(bucketName, key).withRange(start, start + length - 1);
+        if (etag != null)
+            request.withMatchingETagConstraint(etag);
+
+        for (int attempt = 1; ; attempt++) {
+            long written = 0;
+            try {
+                S3Object object = s3.getObject(request);
+                if (object == null)
+                    throw new IllegalStateException(key + " changed while it was being downloaded!");
+
+                try (S3ObjectInputStream in = object.getObjectContent()) {
+                    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                    while (written < length) {
+                        if (stopped.get()) {
+                            in.abort();
+                            throw new InterruptedException();
+                        }
+
+                        int read = in.read(buffer.array(), 0, (int) Math.min(buffer.capacity(), length - written));
+                        if (read < 0)
+                            throw new IOException("The download of " + key + " ended early!");
+
+                        buffer.limit(read).position(0);
+                        while (buffer.hasRemaining()) {
+                            written += channel.write(buffer, start + written);
+                        }
+                        progress.transferred(read);
+                    }
+                }
+                return;
+            } catch (IOException | SdkClientException e) {
+                progress.transferred(-written);
+                if (attempt == MAX_ATTEMPTS || stopped.get() || !retryable(e))
+                    throw e;
+            }
+
+            long backoff = RETRY_BACKOFF_MILLIS << (attempt - 1);
+            Thread.sleep(ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1));
+            if (stopped.get())
+                throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Whether a failed fetch might work the second time: a broken connection or a server error, but not S3 refusing
+     * the request, which AmazonServiceException carries as a kind of SdkClientException.
+     */
+    private static boolean retryable(Exception e) {
+        if (e instanceof AmazonServiceException)
+            return ((AmazonServiceException) e).getStatusCode() >= 500;
+        return true;
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * The set of finished parts, kept in a file so an interrupted download can carry on.
+     */
+    private static class Checkpoint {
+        private final Path file;
+        private final String etag;
+        private final long size;
+        private final BitSet done;
+
+        Checkpoint(Path file, String etag, long size, BitSet done) {
+            this.file = file;
+            this.etag = etag;
+            this.size = size;
+            this.done = done;
+        }
+
+        /**
+         * The parts an earlier download of the same object finished, or none if there was no earlier download, the
+         * object has changed since or the checkpoint can't be read.
+         */
+        static BitSet load(Path file, String etag, long size) {
+            if (!Files.exists(file))
+                return new BitSet();
+
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+                if (in.readInt() != CHECKPOINT_MAGIC || in.readLong() != size || in.readLong() != PART_SIZE)
+                    return new BitSet();
+                String saved = in.readBoolean() ? in.readUTF() : null;
+                if (!Objects.equals(saved, etag))
+                    return new BitSet();
+
+                byte[] parts = new byte[in.readInt()];
+                in.readFully(parts);
+                return BitSet.valueOf(parts);
+            } catch (IOException e) {
+                return new BitSet();
+            }
+        }
+
+        /**
+         * Marks a part finished once everything written so far is on disk, replacing the checkpoint in one move so a
+         * crash leaves either the old one or the new one.
+         */
+        synchronized void complete(int part, FileChannel channel) throws IOException {
+            channel.force(false);
+            done.set(part);
+
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+                byte[] parts = done.toByteArray();
+                out.writeInt(CHECKPOINT_MAGIC);
+                out.writeLong(size);
+                out.writeLong(PART_SIZE);
+                out.writeBoolean(etag != null);
+                if (etag != null)
+                    out.writeUTF(etag);
+                out.writeInt(parts.length);
+                out.write(parts);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
@@ -4,6 +4,8 @@ import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.services.s3.model.*;
 
 import javax.swing.*;
+import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeWillExpandListener;
 import javax.swing.tree.*;
 import java.awt.*;
 import java.awt.datatransfer.DataFlavor;
@@ -11,8 +13,12 @@ import java.awt.datatransfer.Transferable;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.*;
-import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
 
 public class DragDropFiles extends JFrame {
 
@@ -26,7 +32,7 @@ public class DragDropFiles extends JFrame {
         super("S3 Drop Box");
 
         this.s3 = AmazonS3ClientBuilder.standard().withRegion(Regions.US_WEST_2).build();
-        this.treeModel = new DefaultTreeModel(null);
+        this.treeModel = new DefaultTreeModel(new DefaultMutableTreeNode("All Buckets"));
         this.tree = new JTree(treeModel);
         this.wrap = new JPanel();
         this.statusLabel = new JLabel("Loading Buckets...");
@@ -38,6 +44,21 @@ public class DragDropFiles extends JFrame {
         tree.getSelectionModel().setSelectionMode(TreeSelectionModel.SINGLE_TREE_SELECTION);
         tree.setRowHeight(0);
         tree.setTransferHandler(new UploadHandler(s3, treeModel, statusLabel));
+        tree.addTreeWillExpandListener(new TreeWillExpandListener() {
+            @Override
+            public void treeWillExpand(TreeExpansionEvent event) {
+                loadChildren((DefaultMutableTreeNode) event.getPath().getLastPathComponent());
+            }
+
+            @Override
+            public void treeWillCollapse(TreeExpansionEvent event) {
+            }
+        });
+        tree.addTreeSelectionListener(event -> {
+            DefaultMutableTreeNode node = (DefaultMutableTreeNode) event.getPath().getLastPathComponent();
+            if (event.isAddedPath() && node.getUserObject() instanceof NodeLoading)
+                loadPage(node);
+        });
 
         //GUI Setup
         JPanel p = new JPanel();
@@ -112,45 +133,146 @@ public class DragDropFiles extends JFrame {
         });
     }
 
+    /**
+     * Lists the buckets in the background so the window shows straight away. Each bucket gets a placeholder child
+     * and isn't listed until it is expanded.
+     */
     private void loadBuckets() {
-        DefaultMutableTreeNode root = new DefaultMutableTreeNode("All Buckets");
+        new SwingWorker<List<Bucket>, Void>() {
+            @Override
+            protected List<Bucket> doInBackground() {
+                return s3.listBuckets();
+            }
 
-        List<Bucket> bucketList = s3.listBuckets();
+            @Override
+            protected void done() {
+                List<Bucket> bucketList;
+                try {
+                    bucketList = get();
+                } catch (InterruptedException | ExecutionException e) {
+                    statusLabel.setText("Error Loading Buckets!");
+                    e.printStackTrace();
+                    return;
+                }
 
-        for (Bucket bucket : bucketList) {
-            if (bucket.getName().startsWith("aws"))
-                continue;
-            DefaultMutableTreeNode bucketNode = new DefaultMutableTreeNode(new NodeBucket(bucket.getName()));
-            loadFiles(bucket.getName(), "", bucketNode);
-            root.add(bucketNode);
-        }
+                DefaultMutableTreeNode root = (DefaultMutableTreeNode) treeModel.getRoot();
+                //Buckets created while the list was loading are already there
+                Set<String> shown = new HashSet<>();
+                for (int i = 0; i < root.getChildCount(); i++) {
+                    Object child = ((DefaultMutableTreeNode) root.getChildAt(i)).getUserObject();
+                    if (child instanceof NodeBucket)
+                        shown.add(((NodeBucket) child).getName());
+                }
+
+                for (Bucket bucket : bucketList) {
+                    if (bucket.getName().startsWith("aws") || shown.contains(bucket.getName()))
+                        continue;
+                    DefaultMutableTreeNode bucketNode = new DefaultMutableTreeNode(new NodeBucket(bucket.getName()));
+                    bucketNode.add(new DefaultMutableTreeNode(new NodeLoading(null)));
+                    root.add(bucketNode);
+                }
 
-        treeModel.setRoot(root);
-        statusLabel.setText("Ready!");
+                treeModel.nodeStructureChanged(root);
+                statusLabel.setText("Ready!");
+            }
+        }.execute();
     }
 
-    private void loadFiles(String bucketName, String prefix, DefaultMutableTreeNode parent) {
-        ListObjectsRequest request = new ListObjectsRequest()
-                .withBucketName(bucketName)
-                .withPrefix(prefix)
-                .withDelimiter("/");
+    /**
+     * Lists the first page of a bucket or folder the first time it is expanded.
+     */
+    private void loadChildren(DefaultMutableTreeNode parent) {
+        if (parent.getChildCount() == 0)
+            return;
+        DefaultMutableTreeNode first = (DefaultMutableTreeNode) parent.getFirstChild();
+        if (first.getUserObject() instanceof NodeLoading)
+            loadPage(first);
+    }
+
+    /**
+     * Lists the page a placeholder stands for in the background, one level deep, and puts the entries where the
+     * placeholder was. If there are more, a new placeholder goes at the end to load the next page when selected, so
+     * only the pages someone asks for are ever listed or held. If the listing fails the placeholder stays to try
+     * again, and a node that was being expanded for the first time is collapsed.
+     */
+    private void loadPage(DefaultMutableTreeNode placeholder) {
+        NodeLoading loading = (NodeLoading) placeholder.getUserObject();
+        if (loading.isStarted())
+            return;
+        loading.setStarted(true);
+        treeModel.nodeChanged(placeholder);
+
+        DefaultMutableTreeNode parent = (DefaultMutableTreeNode) placeholder.getParent();
+        String bucketName;
+        String prefix;
+        if (parent.getUserObject() instanceof NodeFolder) {
+            bucketName = ((NodeFolder) parent.getUserObject()).getBucketName();
+            prefix = ((NodeFolder) parent.getUserObject()).getKey();
+        } else {
+            bucketName = ((NodeBucket) parent.getUserObject()).getName();
+            prefix = "";
+        }
 
-        ObjectListing listing = s3.listObjects(request);
+        statusLabel.setText("Loading " + parent.getUserObject() + "...");
+        new SwingWorker<ListObjectsV2Result, Void>() {
+            @Override
+            protected ListObjectsV2Result doInBackground() {
+                return new S3Listing(s3, bucketName, prefix, "/", loading.getContinuationToken()).next();
+            }
 
-        List<S3ObjectSummary> files = listing.getObjectSummaries();
+            @Override
+            protected void done() {
+                ListObjectsV2Result page;
+                try {
+                    page = get();
+                } catch (InterruptedException | ExecutionException e) {
+                    loading.setStarted(false);
+                    treeModel.nodeChanged(placeholder);
+                    if (loading.getContinuationToken() == null)
+                        tree.collapsePath(new TreePath(parent.getPath()));
+                    statusLabel.setText("Error Loading " + parent.getUserObject() + "!");
+                    e.printStackTrace();
+                    return;
+                }
+
+                if (loading.getContinuationToken() == null) {
+                    //The first page replaces everything, including nodes an upload added while it was loading
+                    parent.removeAllChildren();
+                    addFiles(bucketName, prefix, page, parent);
+                    treeModel.nodeStructureChanged(parent);
+                } else {
+                    treeModel.removeNodeFromParent(placeholder);
+                    int start = parent.getChildCount();
+                    addFiles(bucketName, prefix, page, parent);
+                    int[] added = new int[parent.getChildCount() - start];
+                    for (int i = 0; i < added.length; i++) {
+                        added[i] = start + i;
+                    }
+                    treeModel.nodesWereInserted(parent, added);
+                }
+                statusLabel.setText("Ready!");
+            }
+        }.execute();
+    }
+
+    private static void addFiles(String bucketName, String prefix, ListObjectsV2Result page, DefaultMutableTreeNode parent) {
+        List<S3ObjectSummary> files = page.getObjectSummaries();
         for (S3ObjectSummary file : files) {
             String name = file.getKey().substring(prefix.length());
             MutableTreeNode node = new DefaultMutableTreeNode(new NodeFile(name, file.getKey(), bucketName));
             parent.add(node);
         }
 
-        List<String> folders = listing.getCommonPrefixes();
+        List<String> folders = page.getCommonPrefixes();
         for (String folder : folders) {
             String name = folder.substring(prefix.length(), folder.length() - 1);
             DefaultMutableTreeNode node = new DefaultMutableTreeNode(new NodeFolder(name, folder, bucketName));
-            loadFiles(bucketName, folder, node);
+            node.add(new DefaultMutableTreeNode(new NodeLoading(null)));
             parent.add(node);
         }
+
+        if (page.isTruncated())
+            parent.add(new DefaultMutableTreeNode(new NodeLoading(page.getNextContinuationToken())));
     }
 
     private void copyFile(File source, File dest)
@@ -230,6 +352,36 @@ class NodeFolder {
     }
 }
 
+/**
+ * Stands in for the part of a bucket or folder that hasn't been listed yet. Without a continuation token it is all of
+ * it, which makes the tree show the node as expandable. With one it is the pages after those already shown.
+ */
+class NodeLoading {
+    private String continuationToken;
+    private boolean started;
+
+    public NodeLoading(String continuationToken) {
+        this.continuationToken = continuationToken;
+    }
+
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    public void setStarted(boolean started) {
+        this.started = started;
+    }
+
+    @Override
+    public String toString() {
+        return continuationToken == null || started ? "Loading..." : "Load More...";
+    }
+}
+
 class NodeBucket {
     private String name;
 
@@ -249,12 +401,12 @@ class NodeBucket {
 
 class UploadHandler extends TransferHandler {
 
-    private AmazonS3 s3;
+    private UploadEngine engine;
     private DefaultTreeModel treeModel;
     private JLabel statusLabel;
 
     public UploadHandler(AmazonS3 s3, DefaultTreeModel treeModel, JLabel statusLabel) {
-        this.s3 = s3;
+        this.engine = new UploadEngine(s3);
         this.treeModel = treeModel;
         this.statusLabel = statusLabel;
     }
@@ -316,47 +468,105 @@ class UploadHandler extends TransferHandler {
         }
 
         Transferable t = info.getTransferable();
-
+        List<File> list;
         try {
-            List<File> list = (List<File>) t.getTransferData(DataFlavor.javaFileListFlavor);
-            uploadFiles(list, path, parentNode, bucketName, keyPrefix);
+            list = (List<File>) t.getTransferData(DataFlavor.javaFileListFlavor);
         } catch (Exception e) {
             statusLabel.setText("Error When Uploading!");
             e.printStackTrace();
             return false;
         }
 
-        statusLabel.setText("Upload Finished!");
+        uploadFiles(list, parentNode, bucketName, keyPrefix);
         return true;
     }
 
-    @SuppressWarnings("ConstantConditions")
-    private void uploadFiles(List<File> files, TreePath path, DefaultMutableTreeNode parent, String bucketName, String keyPrefix) {
-        for (File file : files) {
-            String name = file.getName();
-            if (file.isDirectory()) {
-                String key = keyPrefix + name + "/";
-                DefaultMutableTreeNode node = new DefaultMutableTreeNode(new NodeFolder(name, key, bucketName));
-                uploadFiles(Arrays.asList(file.listFiles()), path.pathByAddingChild(node), node, bucketName, key);
-                treeModel.insertNodeInto(node, parent, parent.getChildCount());
-            } else {
-                String key = keyPrefix + name;
-                DefaultMutableTreeNode node = new DefaultMutableTreeNode(new NodeFile(name, key, bucketName));
-                s3.putObject(bucketName, key, file);
+    /**
+     * Uploads in the background, adding each file to the tree as it finishes and showing the progress and rate twice a
+     * second.
+     */
+    private void uploadFiles(List<File> files, DefaultMutableTreeNode parent, String bucketName, String keyPrefix) {
+        TransferProgress progress = new TransferProgress();
+        Timer timer = new Timer(500, event -> statusLabel.setText("Uploading " + progress));
+        timer.start();
+
+        Map<DefaultMutableTreeNode, Map<String, DefaultMutableTreeNode>> children = new HashMap<>();
+        new SwingWorker<Void, String>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                engine.upload(files, bucketName, keyPrefix, progress, this::publish);
+                return null;
+            }
+
+            @Override
+            protected void process(List<String> keys) {
+                for (String key : keys) {
+                    addFile(children, parent, bucketName, keyPrefix, key);
+                }
+            }
+
+            @Override
+            protected void done() {
+                timer.stop();
+                try {
+                    get();
+                } catch (InterruptedException | ExecutionException e) {
+                    statusLabel.setText("Error When Uploading!");
+                    e.printStackTrace();
+                    return;
+                }
+                statusLabel.setText((progress.getFailed() == 0 ? "Upload Finished! " : "Upload Finished With Errors! ")
+                        + progress);
+            }
+        }.execute();
+    }
+
+    /**
+     * Adds an uploaded key under the node it was dropped on, adding the folders on the way down if they aren't there.
+     * {@code children} indexes the children of each node by name as it is first used, so big folders don't have to be
+     * searched for every file.
+     */
+    private void addFile(Map<DefaultMutableTreeNode, Map<String, DefaultMutableTreeNode>> children,
+                         DefaultMutableTreeNode parent, String bucketName, String keyPrefix, String key) {
+        String[] names = key.substring(keyPrefix.length()).split("/");
+        String folderKey = keyPrefix;
+        for (int i = 0; i < names.length; i++) {
+            boolean folder = i < names.length - 1;
+            if (folder)
+                folderKey += names[i] + "/";
+            String name = (folder ? "/" : "") + names[i];
+
+            Map<String, DefaultMutableTreeNode> named = children.computeIfAbsent(parent, node -> {
+                Map<String, DefaultMutableTreeNode> existing = new HashMap<>();
+                for (int j = 0; j < node.getChildCount(); j++) {
+                    DefaultMutableTreeNode child = (DefaultMutableTreeNode) node.getChildAt(j);
+                    if (child.getUserObject() instanceof NodeFolder || child.getUserObject() instanceof NodeFile)
+                        existing.put((child.getUserObject() instanceof NodeFolder ? "/" : "") + child, child);
+                }
+                return existing;
+            });
+
+            DefaultMutableTreeNode node = named.get(name);
+            if (node == null) {
+                node = new DefaultMutableTreeNode(folder
+                        ? new NodeFolder(names[i], folderKey, bucketName)
+                        : new NodeFile(names[i], key, bucketName));
                 treeModel.insertNodeInto(node, parent, parent.getChildCount());
+                named.put(name, node);
             }
+            parent = node;
         }
     }
 }
 
 class DownloadBtnListener implements ActionListener {
 
-    private AmazonS3 s3;
+    private DownloadEngine engine;
     private JTree tree;
     private JLabel statusLabel;
 
     public DownloadBtnListener(AmazonS3 s3, JTree tree, JLabel statusLabel) {
-        this.s3 = s3;
+        this.engine = new DownloadEngine(s3);
         this.tree = tree;
         this.statusLabel = statusLabel;
     }
@@ -383,27 +593,34 @@ class DownloadBtnListener implements ActionListener {
                 JOptionPane.YES_NO_OPTION,
                 JOptionPane.QUESTION_MESSAGE);
 
-        if (choice == JOptionPane.YES_OPTION) {
-            statusLabel.setText("Downloading...");
-            try {
-                S3Object s3Object = s3.getObject(node.getBucketName(), node.getKey());
-                S3ObjectInputStream in = s3Object.getObjectContent();
-                FileOutputStream out = new FileOutputStream(new File(node.getName()));
-
-                byte[] read_buf = new byte[1024];
-                int read_len;
-                while ((read_len = in.read(read_buf)) > 0) {
-                    out.write(read_buf, 0, read_len);
-                }
+        if (choice != JOptionPane.YES_OPTION)
+            return;
 
-                in.close();
-                out.close();
-                statusLabel.setText("Download Complete!");
-            } catch (Exception e) {
-                statusLabel.setText("Error When Downloading!");
-                e.printStackTrace();
+        TransferProgress progress = new TransferProgress();
+        Timer timer = new Timer(500, tick -> statusLabel.setText("Downloading " + progress));
+        statusLabel.setText("Downloading...");
+        timer.start();
+
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                engine.download(node.getBucketName(), node.getKey(), new File(node.getName()), progress);
+                return null;
             }
-        }
+
+            @Override
+            protected void done() {
+                timer.stop();
+                try {
+                    get();
+                } catch (InterruptedException | ExecutionException e) {
+                    statusLabel.setText("Error When Downloading! Try again to resume.");
+                    e.printStackTrace();
+                    return;
+                }
+                statusLabel.setText("Download Complete! " + progress);
+            }
+        }.execute();
     }
 }
 
@@ -451,12 +668,14 @@ class CreateBucketBtnListener implements ActionListener {
 class DeleteSelectedBtnListener implements ActionListener {
 
     private AmazonS3 s3;
+    private DeleteEngine engine;
     private DefaultTreeModel treeModel;
     private JTree tree;
     private JLabel statusLabel;
 
     public DeleteSelectedBtnListener(AmazonS3 s3, DefaultTreeModel treeModel, JTree tree, JLabel statusLabel) {
         this.s3 = s3;
+        this.engine = new DeleteEngine(s3);
         this.treeModel = treeModel;
         this.tree = tree;
         this.statusLabel = statusLabel;
@@ -490,18 +709,8 @@ class DeleteSelectedBtnListener implements ActionListener {
                 return;
             }
 
-            ListObjectsRequest request = new ListObjectsRequest()
-                    .withBucketName(node.getBucketName())
-                    .withPrefix(node.getKey());
-            ObjectListing listing = s3.listObjects(request);
-
-            List<S3ObjectSummary> objects = listing.getObjectSummaries();
-            for (S3ObjectSummary os : objects) {
-                s3.deleteObject(node.getBucketName(), os.getKey());
-            }
-
-            treeModel.removeNodeFromParent(treeNode);
-            statusLabel.setText("Deleted Folder \"" + node.getName() + "\" and all of its contents!");
+            deleteContents(treeNode, node.getBucketName(), node.getKey(), false,
+                    "Deleted Folder \"" + node.getName() + "\" and all of its contents!");
         } else if (object instanceof NodeBucket) {
             NodeBucket node = (NodeBucket) object;
 
@@ -513,15 +722,57 @@ class DeleteSelectedBtnListener implements ActionListener {
                 return;
             }
 
-            ObjectListing listing = s3.listObjects(node.getName());
-            List<S3ObjectSummary> objects = listing.getObjectSummaries();
-            for (S3ObjectSummary os : objects) {
-                s3.deleteObject(node.getName(), os.getKey());
+            deleteContents(treeNode, node.getName(), "", true, "Deleted Bucket \"" + node.getName() + "\"!");
+        }
+    }
+
+    /**
+     * Deletes everything under the prefix in the background, then the bucket as well when {@code bucket} is set, and
+     * only removes the node once nothing is left behind.
+     */
+    private void deleteContents(DefaultMutableTreeNode treeNode, String bucketName, String prefix, boolean bucket,
+                                String deleted) {
+        TransferProgress progress = new TransferProgress();
+        Timer timer = new Timer(500, tick -> statusLabel.setText("Deleting " + status(progress)));
+        statusLabel.setText("Deleting...");
+        timer.start();
+
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                if (!bucket) {
+                    engine.deletePrefix(bucketName, prefix, progress);
+                } else {
+                    engine.emptyBucket(bucketName, progress);
+                    if (progress.getFailed() == 0)
+                        s3.deleteBucket(bucketName);
+                }
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                timer.stop();
+                try {
+                    get();
+                } catch (InterruptedException | ExecutionException e) {
+                    statusLabel.setText("Error When Deleting! " + status(progress));
+                    e.printStackTrace();
+                    return;
+                }
+                if (progress.getFailed() > 0) {
+                    statusLabel.setText("Error When Deleting! " + status(progress));
+                    return;
+                }
+                treeModel.removeNodeFromParent(treeNode);
+                statusLabel.setText(deleted);
             }
+        }.execute();
+    }
 
-            s3.deleteBucket(node.getName());
-            treeModel.removeNodeFromParent(treeNode);
-            statusLabel.setText("Deleted Bucket \"" + node.getName() + "\"!");
-        }
+    private static String status(TransferProgress progress) {
+        String status = String.format("%,d of %,d objects, %,.0f/s", progress.getFilesDone(), progress.getFiles(),
+                progress.getFilesDone() / Math.max(progress.getSeconds(), 1e-9));
+        return progress.getFailed() == 0 ? status : status + String.format(", %,d failed", progress.getFailed());
     }
 }
@@ -0,0 +1,64 @@
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Pages through the keys under a prefix with ListObjectsV2, following the continuation token from one page to the
+ * next. Each page is only requested when it is asked for, so a prefix with millions of objects never has to be held
+ * in memory at once.
+ */
+class S3Listing implements Iterator<ListObjectsV2Result> {
+
+    public static final int PAGE_SIZE = 1000;
+
+    private final AmazonS3 s3;
+    private final ListObjectsV2Request request;
+    private boolean done;
+
+    /**
+     * Lists every key under the prefix.
+     */
+    public S3Listing(AmazonS3 s3, String bucketName, String prefix) {
+        this(s3, bucketName, prefix, null, null);
+    }
+
+    /**
+     * Lists under the prefix, rolling keys up to the delimiter into common prefixes when there is one, and starting
+     * from a continuation token an earlier page gave when there is one.
+     */
+    public S3Listing(AmazonS3 s3, String bucketName, String prefix, String delimiter, String continuationToken) {
+        this.s3 = s3;
+        this.request = new ListObjectsV2Request()
+                .withBucketName(bucketName)
+                .withPrefix(prefix)
+                .withDelimiter(delimiter)
+                .withMaxKeys(PAGE_SIZE)
+                .withContinuationToken(continuationToken);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !done;
+    }
+
+    @Override
+    public ListObjectsV2Result next() {
+        if (done)
+            throw new NoSuchElementException();
+
+        ListObjectsV2Result page = s3.listObjectsV2(request);
+        done = !page.isTruncated();
+        request.setContinuationToken(page.getNextContinuationToken());
+        return page;
+    }
+
+    /**
+     * The token to list the rest from later, or null once the last page has been read.
+     */
+    public String getContinuationToken() {
+        return done ? null : request.getContinuationToken();
+    }
+}
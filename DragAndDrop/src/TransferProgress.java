@@ -0,0 +1,82 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the files and bytes a transfer has queued and finished, and formats them with the overall rate for the status
+ * label. Every count can be updated from any thread.
+ */
+class TransferProgress {
+
+    private final long start = System.nanoTime();
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong filesDone = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong bytesDone = new AtomicLong();
+
+    public void queued(long size) {
+        files.incrementAndGet();
+        bytes.addAndGet(size);
+    }
+
+    public void transferred(long size) {
+        bytesDone.addAndGet(size);
+    }
+
+    public void finished() {
+        finished(1);
+    }
+
+    public void finished(long count) {
+        filesDone.addAndGet(count);
+    }
+
+    public void failed() {
+        failed(1);
+    }
+
+    public void failed(long count) {
+        failed.addAndGet(count);
+    }
+
+    public long getFiles() {
+        return files.get();
+    }
+
+    public long getFilesDone() {
+        return filesDone.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getBytesDone() {
+        return bytesDone.get();
+    }
+
+    public double getSeconds() {
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    public double getBytesPerSecond() {
+        return bytesDone.get() / Math.max(getSeconds(), 1e-9);
+    }
+
+    @Override
+    public String toString() {
+        String progress = String.format("%,d of %,d files, %s of %s, %s/s", filesDone.get(), files.get(),
+                size(bytesDone.get()), size(bytes.get()), size((long) getBytesPerSecond()));
+        return failed.get() == 0 ? progress : progress + String.format(", %,d failed", failed.get());
+    }
+
+    public static String size(long bytes) {
+        if (bytes < 1024)
+            return bytes + " B";
+        int unit = (63 - Long.numberOfLeadingZeros(bytes)) / 10;
+        return String.format("%.1f %sB", bytes / (double) (1L << (unit * 10)), "KMGTPE".charAt(unit - 1));
+    }
+}
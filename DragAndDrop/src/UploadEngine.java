@@ -0,0 +1,141 @@
+import com.amazonaws.event.ProgressEventType;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
+import com.amazonaws.services.s3.transfer.Upload;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Uploads dropped files and folders with a TransferManager on a fixed pool of threads. Files above the multipart
+ * threshold go up as multipart uploads with their parts sent in parallel, and smaller files are sent whole, several at
+ * a time. Folders are walked lazily with {@link Files#walk}, and only a bounded number of files are queued at once, so
+ * a folder of any size uses the same memory.
+ */
+class UploadEngine {
+
+    public static final int DEFAULT_THREADS = 16;
+    public static final long MULTIPART_THRESHOLD = 16L << 20;
+    public static final long PART_SIZE = 8L << 20;
+
+    private static final int MAX_QUEUED_FILES = 64;
+
+    private final TransferManager transfers;
+
+    public UploadEngine(AmazonS3 s3) {
+        this(s3, DEFAULT_THREADS);
+    }
+
+    public UploadEngine(AmazonS3 s3, int threads) {
+        this.transfers = TransferManagerBuilder.standard()
+                .withS3Client(s3)
+                .withExecutorFactory(() -> pool(threads))
+                .withMultipartUploadThreshold(MULTIPART_THRESHOLD)
+                .withMinimumUploadPartSize(PART_SIZE)
+                .build();
+    }
+
+    private static ExecutorService pool(int threads) {
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "s3-upload");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Uploads the files, and everything inside the folders, under {@code keyPrefix}. A folder's files keep their paths
+     * below it. {@code uploaded} is called with each key once its upload has finished. A file that fails is counted in
+     * the progress and the rest carry on.
+     */
+    public void upload(List<File> files, String bucketName, String keyPrefix, TransferProgress progress,
+                       Consumer<String> uploaded) throws IOException, InterruptedException {
+        Deque<Queued> queue = new ArrayDeque<>();
+        try {
+            for (File file : files) {
+                if (!file.isDirectory()) {
+                    queue(file.toPath(), keyPrefix + file.getName(), bucketName, progress, queue, uploaded);
+                    continue;
+                }
+
+                Path root = file.toPath();
+                String folderKey = keyPrefix + file.getName() + "/";
+                try (Stream<Path> paths = Files.walk(root)) {
+                    Iterator<Path> walk = paths.filter(Files::isRegularFile).iterator();
+                    while (walk.hasNext()) {
+                        Path path = walk.next();
+                        String key = folderKey + root.relativize(path).toString().replace(File.separatorChar, '/');
+                        queue(path, key, bucketName, progress, queue, uploaded);
+                    }
+                }
+            }
+
+            while (!queue.isEmpty()) {
+                finish(queue.poll(), progress, uploaded);
+            }
+        } finally {
+            //Only reached with uploads still queued when interrupted or the walk failed
+            for (Queued left : queue) {
+                left.upload.abort();
+            }
+        }
+    }
+
+    private void queue(Path path, String key, String bucketName, TransferProgress progress, Deque<Queued> queue,
+                       Consumer<String> uploaded) throws IOException, InterruptedException {
+        while (queue.size() >= MAX_QUEUED_FILES) {
+            finish(queue.poll(), progress, uploaded);
+        }
+
+        PutObjectRequest request = new PutObjectRequest(bucketName, key, path.toFile());
+        request.setGeneralProgressListener(event -> {
+            if (event.getEventType() == ProgressEventType.REQUEST_BYTE_TRANSFER_EVENT)
+                progress.transferred(event.getBytesTransferred());
+        });
+
+        progress.queued(Files.size(path));
+        queue.add(new Queued(key, transfers.upload(request)));
+    }
+
+    private static void finish(Queued queued, TransferProgress progress, Consumer<String> uploaded)
+            throws InterruptedException {
+        try {
+            queued.upload.waitForCompletion();
+        } catch (InterruptedException e) {
+            queued.upload.abort();
+            throw e;
+        } catch (RuntimeException e) {
+            progress.failed();
+            System.err.println("Couldn't upload " + queued.key + ": " + e.getMessage());
+            return;
+        }
+        progress.finished();
+        uploaded.accept(queued.key);
+    }
+
+    public void shutdown() {
+        transfers.shutdownNow(false);
+    }
+
+    private static class Queued {
+        final String key;
+        final Upload upload;
+
+        Queued(String key, Upload upload) {
+            this.key = key;
+            this.upload = upload;
+        }
+    }
+}